@@ -214,7 +214,9 @@ class QueryResultDataTable extends React.PureComponent {
       const fieldMeta = queryResult.meta[dataKey];
 
       // Account for extra row that was used for header row
-      const value = queryResult.rows[rowIndex][dataKey];
+      // Rows of compact results are arrays of values in the order of fields
+      const row = queryResult.rows[rowIndex];
+      const value = Array.isArray(row) ? row[columnIndex] : row[dataKey];
 
       return (
         <div style={finalStyle}>
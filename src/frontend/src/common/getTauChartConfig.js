@@ -1,3 +1,4 @@
+import zipObject from 'lodash/zipObject';
 import chartDefinitions from '../utilities/chartDefinitions.js';
 import exportTo from 'taucharts/dist/plugins/export-to';
 import legend from 'taucharts/dist/plugins/legend';
@@ -60,7 +61,10 @@ export default function getTauChartConfig(chartConfiguration, queryResult) {
   };
 
   // loop through data rows and convert types as needed
-  dataRows = dataRows.map(row => {
+  // Compact results have each row as an array of values in column order
+  const columns = Object.keys(meta);
+  dataRows = dataRows.map(values => {
+    const row = Array.isArray(values) ? zipObject(columns, values) : values;
     const newRow = {};
     Object.keys(row).forEach(col => {
       const datatype = queryResult.meta[col].datatype;
@@ -5,6 +5,7 @@ import {
   removeLocalQueryText
 } from '../utilities/localQueryText';
 import apiCall from "../utilities/apiCall";
+import followQueryEvents from "../utilities/queryEvents";
 
 const ONE_HOUR_MS = 1000 * 60 * 60;
 
@@ -100,29 +101,45 @@ export const loadQuery = async (state, queryId) => {
   };
 };
 
+const sleep = ms => new Promise(resolve => setTimeout(resolve, ms));
+
 export const runQuery = store => async state => {
   const { query, selectedText, selectedConnectionId } = state;
 
   store.setState({
     isRunning: true,
-    runQueryStartTime: new Date()
+    runQueryStartTime: new Date(),
+    queryResult: undefined
   });
   const postData = {
     dbId: selectedConnectionId,
     sql: selectedText || query.queryText
   };
-  const { queryResult, error } = await apiCall(
-    'POST',
-    '/api/queries/run',
-    postData,
-  );
+  const created = await apiCall('POST', '/api/queries', postData);
+  if (created.error) {
+    message.error(created.error);
+    store.setState({ isRunning: false, queryError: created.error });
+    return;
+  }
+
+  // Only the state is followed. The rows are read once from /results when the query is done.
+  const finalState = await followQueryEvents(created.id);
+
+  const resultsUrl = `/api/queries/${created.id}/results?format=compact`;
+  let response = await apiCall('GET', resultsUrl);
+  // If the event stream was cut short the query may still be running
+  while (!finalState && typeof response === 'string') {
+    await sleep(1000);
+    response = await apiCall('GET', resultsUrl);
+  }
+  const { queryResult, error } = response;
   if (error) {
     message.error(error);
   }
   store.setState({
     isRunning: false,
     queryError: error,
-    queryResult
+    queryResult: queryResult && { ...queryResult, incomplete: !!queryResult.truncated }
   });
 };
 
@@ -17,7 +17,7 @@ const refreshAuthLogic = failedRequest => axiosInstance.get('/api/users/refreshJ
   return Promise.resolve();
 });
 
-function getAuthToken() {
+export function getAuthToken() {
   if (jwtToken) {
     return `${jwtToken}`;
   }
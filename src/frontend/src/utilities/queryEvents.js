@@ -0,0 +1,63 @@
+import { getAuthToken } from './apiCall';
+
+const FINAL_STATES = ['SUCCESS', 'ERROR', 'CANCELLED'];
+
+function parseEvent(chunk) {
+  let event = 'message';
+  let data = '';
+  chunk.split('\n').forEach(line => {
+    if (line.startsWith('event:')) {
+      event = line.substring(6).trim();
+    } else if (line.startsWith('data:')) {
+      data += line.substring(5).trim();
+    }
+  });
+  return { event, data: data ? JSON.parse(data) : null };
+}
+
+/**
+ * Follows the server-sent events of a query until it reaches a final state.
+ * EventSource cannot send the bearer token, so the stream is read with fetch.
+ * Resolves to the final state, or undefined if the stream ended early.
+ */
+export default async function followQueryEvents(queryId) {
+  const headers = { Accept: 'text/event-stream' };
+  const token = getAuthToken();
+  if (token) {
+    headers.Authorization = `Bearer ${token}`;
+  }
+
+  let finalState;
+  try {
+    const response = await fetch(
+      `${window.BASE_URL || ''}/api/queries/${queryId}/events`,
+      { headers, credentials: 'same-origin' }
+    );
+    if (!response.ok || !response.body) {
+      return undefined;
+    }
+
+    const reader = response.body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = '';
+    while (true) {
+      const { done, value } = await reader.read();
+      if (done) {
+        break;
+      }
+      buffer += decoder.decode(value, { stream: true });
+      let boundary = buffer.indexOf('\n\n');
+      while (boundary >= 0) {
+        const { event, data } = parseEvent(buffer.substring(0, boundary));
+        buffer = buffer.substring(boundary + 2);
+        if (event === 'state' && FINAL_STATES.includes(data.state)) {
+          finalState = data.state;
+        }
+        boundary = buffer.indexOf('\n\n');
+      }
+    }
+  } catch (error) {
+    console.error(error);
+  }
+  return finalState;
+}
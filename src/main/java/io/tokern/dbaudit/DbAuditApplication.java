@@ -1,9 +1,11 @@
 package io.tokern.dbaudit;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.jaxrs.cbor.JacksonCBORProvider;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
 import com.github.arteam.jdbi3.JdbiFactory;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import io.dropwizard.Application;
@@ -12,6 +14,7 @@ import io.dropwizard.auth.*;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.jackson.Jackson;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.tokern.dbaudit.api.Database;
@@ -22,6 +25,11 @@ import io.tokern.dbaudit.core.Flyway.FlywayBundle;
 import io.tokern.dbaudit.core.Flyway.FlywayFactory;
 import io.tokern.dbaudit.core.auth.*;
 import io.tokern.dbaudit.core.executor.Connections;
+import io.tokern.dbaudit.core.executor.QueryConfiguration;
+import io.tokern.dbaudit.core.executor.ResultCache;
+import io.tokern.dbaudit.core.executor.ResultCompression;
+import io.tokern.dbaudit.core.executor.ResultReuseCache;
+import io.tokern.dbaudit.core.executor.ResultSpill;
 import io.tokern.dbaudit.core.executor.RowSetModule;
 import io.tokern.dbaudit.core.executor.ThreadPool;
 import io.tokern.dbaudit.db.DatabaseDAO;
@@ -37,7 +45,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.List;
-import java.util.concurrent.Future;
 
 public class DbAuditApplication extends Application<DbAuditConfiguration> {
 
@@ -101,9 +108,26 @@ public class DbAuditApplication extends Application<DbAuditConfiguration> {
       environment.lifecycle().manage(connections);
       this.addDatabases(jdbi, connections);
 
-      final ThreadPool threadPool = new ThreadPool();
+      final QueryConfiguration queryConfiguration = configuration.getQueryConfiguration();
+      if (queryConfiguration.getMaxRows() == null) {
+        queryConfiguration.setMaxRows(configuration.getFeConfiguration().getQueryResultMaxRows());
+      }
+      if (queryConfiguration.getTimeoutSeconds() == null) {
+        queryConfiguration.setTimeoutSeconds(configuration.getFeConfiguration().getTimeoutSeconds());
+      }
+      if (queryConfiguration.getAllowCsvDownload() == null) {
+        queryConfiguration.setAllowCsvDownload(configuration.getFeConfiguration().isAllowCsvDownload());
+      }
+
+      final ThreadPool threadPool = new ThreadPool(configuration.getExecutorConfiguration(), environment.metrics());
       environment.lifecycle().manage(threadPool);
 
+      // Any JSON response can also be sent as Smile or CBOR when the client asks for it in the Accept header
+      environment.jersey().register(new JacksonSmileProvider(
+          Jackson.newObjectMapper(new SmileFactory()).registerModule(new RowSetModule())));
+      environment.jersey().register(new JacksonCBORProvider(
+          Jackson.newObjectMapper(new CBORFactory()).registerModule(new RowSetModule())));
+
       environment.jersey().register(new Version(gitState));
       environment.jersey().register(new BootstrapResource(jdbi, configuration.getFeConfiguration(), gitState));
 
@@ -124,16 +148,24 @@ public class DbAuditApplication extends Application<DbAuditConfiguration> {
           .setAuthorizer(new RefreshTokenAuthorizer())
           .buildAuthFilter();
 
-      final Cache<Long, Future< ThreadPool.Result>> resultCache = CacheBuilder.newBuilder()
-          .maximumSize(1000)
-          .concurrencyLevel(5)
-          .build();
+      ResultSpill resultSpill = null;
+      if (configuration.getResultCacheConfiguration().getSpillDirectory() != null) {
+        resultSpill = new ResultSpill(configuration.getResultCacheConfiguration(), environment.metrics());
+        environment.lifecycle().manage(resultSpill);
+      }
+      final ResultCache resultCache = new ResultCache(configuration.getResultCacheConfiguration(), resultSpill,
+          environment.metrics());
+
+      environment.jersey().register(new ResultCompression(configuration.getCompressionConfiguration(), resultSpill,
+          environment.metrics()));
 
       environment.jersey().register(new UserResource(jdbi, tokenManager, refreshTokenManager));
       environment.jersey().register(new DatabaseResource(jdbi, configuration.getEncryptionSecret(), connections));
 
       environment.jersey().register(new QueryResource(jdbi.onDemand(QueryDAO.class), jdbi.onDemand(DatabaseDAO.class),
-          connections, threadPool, resultCache));
+          connections, threadPool, resultCache,
+          new ResultReuseCache(queryConfiguration.getReuseCacheMaxBytes(), environment.metrics()),
+          environment.getObjectMapper(), queryConfiguration, environment.metrics()));
 
       final PolymorphicAuthDynamicFeature feature = new PolymorphicAuthDynamicFeature<>(
           ImmutableMap.of(
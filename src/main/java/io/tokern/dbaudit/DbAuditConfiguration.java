@@ -6,6 +6,10 @@ import io.dropwizard.db.DataSourceFactory;
 import io.tokern.dbaudit.core.FEConfiguration;
 import io.tokern.dbaudit.core.Flyway.FlywayFactory;
 import io.tokern.dbaudit.core.auth.JwtConfiguration;
+import io.tokern.dbaudit.core.executor.CompressionConfiguration;
+import io.tokern.dbaudit.core.executor.ExecutorConfiguration;
+import io.tokern.dbaudit.core.executor.QueryConfiguration;
+import io.tokern.dbaudit.core.executor.ResultCacheConfiguration;
 
 import javax.validation.Valid;
 import javax.validation.constraints.*;
@@ -27,6 +31,22 @@ public class DbAuditConfiguration extends Configuration {
   @NotNull
   private FEConfiguration feConfiguration = new FEConfiguration();
 
+  @Valid
+  @NotNull
+  private QueryConfiguration queryConfiguration = new QueryConfiguration();
+
+  @Valid
+  @NotNull
+  private ExecutorConfiguration executorConfiguration = new ExecutorConfiguration();
+
+  @Valid
+  @NotNull
+  private ResultCacheConfiguration resultCacheConfiguration = new ResultCacheConfiguration();
+
+  @Valid
+  @NotNull
+  private CompressionConfiguration compressionConfiguration = new CompressionConfiguration();
+
   @Valid
   @NotNull
   private String encryptionSecret;
@@ -71,6 +91,46 @@ public class DbAuditConfiguration extends Configuration {
     this.feConfiguration = feConfiguration;
   }
 
+  @JsonProperty("query")
+  public QueryConfiguration getQueryConfiguration() {
+    return queryConfiguration;
+  }
+
+  @JsonProperty("query")
+  public void setQueryConfiguration(QueryConfiguration queryConfiguration) {
+    this.queryConfiguration = queryConfiguration;
+  }
+
+  @JsonProperty("executor")
+  public ExecutorConfiguration getExecutorConfiguration() {
+    return executorConfiguration;
+  }
+
+  @JsonProperty("executor")
+  public void setExecutorConfiguration(ExecutorConfiguration executorConfiguration) {
+    this.executorConfiguration = executorConfiguration;
+  }
+
+  @JsonProperty("resultCache")
+  public ResultCacheConfiguration getResultCacheConfiguration() {
+    return resultCacheConfiguration;
+  }
+
+  @JsonProperty("resultCache")
+  public void setResultCacheConfiguration(ResultCacheConfiguration resultCacheConfiguration) {
+    this.resultCacheConfiguration = resultCacheConfiguration;
+  }
+
+  @JsonProperty("compression")
+  public CompressionConfiguration getCompressionConfiguration() {
+    return compressionConfiguration;
+  }
+
+  @JsonProperty("compression")
+  public void setCompressionConfiguration(CompressionConfiguration compressionConfiguration) {
+    this.compressionConfiguration = compressionConfiguration;
+  }
+
   @JsonProperty("encryptionSecret")
   public String getEncryptionSecret() {
     return encryptionSecret;
@@ -89,8 +89,19 @@ public class Database {
   final Driver driver;
   @NotNull
   final int orgId;
-
-  public Database(long id, String name, String jdbcUrl, String userName, String password, Driver driver, int orgId) {
+  // Optional per-database caps on the size of a query result. Null means the server defaults apply.
+  final Integer maxRows;
+  final Long maxResultBytes;
+  // Optional statement timeout for queries on this database. Null means the server default applies.
+  final Integer timeoutSeconds;
+  // Identical queries that are already running on this database are shared instead of run again
+  final boolean coalesceQueries;
+  // Results of this database are reused for this many seconds. Null means results are not cached.
+  final Integer cacheTtlSeconds;
+
+  public Database(long id, String name, String jdbcUrl, String userName, String password, Driver driver, int orgId,
+                  Integer maxRows, Long maxResultBytes, Integer timeoutSeconds, boolean coalesceQueries,
+                  Integer cacheTtlSeconds) {
     this.id = id;
     this.name = name;
     this.jdbcUrl = jdbcUrl;
@@ -98,6 +109,15 @@ public class Database {
     this.password = password;
     this.driver = driver;
     this.orgId = orgId;
+    this.maxRows = maxRows;
+    this.maxResultBytes = maxResultBytes;
+    this.timeoutSeconds = timeoutSeconds;
+    this.coalesceQueries = coalesceQueries;
+    this.cacheTtlSeconds = cacheTtlSeconds;
+  }
+
+  public Database(long id, String name, String jdbcUrl, String userName, String password, Driver driver, int orgId) {
+    this(id, name, jdbcUrl, userName, password, driver, orgId, null, null, null, false, null);
   }
 
   @JdbiConstructor
@@ -107,7 +127,17 @@ public class Database {
                   @ColumnName("user_name") String userName,
                   @ColumnName("password") String password,
                   @ColumnName("driver") String driver,
-                  @ColumnName("org_id") int orgId) {
+                  @ColumnName("org_id") int orgId,
+                  @ColumnName("max_rows") Integer maxRows,
+                  @ColumnName("max_result_bytes") Long maxResultBytes,
+                  @ColumnName("timeout_seconds") Integer timeoutSeconds,
+                  @ColumnName("coalesce_queries") boolean coalesceQueries,
+                  @ColumnName("cache_ttl_seconds") Integer cacheTtlSeconds) {
+    this(id, name, jdbcUrl, userName, password, Driver.valueOf(driver), orgId, maxRows, maxResultBytes,
+        timeoutSeconds, coalesceQueries, cacheTtlSeconds);
+  }
+
+  public Database(long id, String name, String jdbcUrl, String userName, String password, String driver, int orgId) {
     this(id, name, jdbcUrl, userName, password, Driver.valueOf(driver), orgId);
   }
 
@@ -117,8 +147,14 @@ public class Database {
                   @JsonProperty("jdbcUrl") String jdbcUrl,
                   @JsonProperty("userName") String userName,
                   @JsonProperty("password") String password,
-                  @JsonProperty("driver") String driver) {
-    this(0, name, jdbcUrl, userName, password, Driver.valueOf(driver), 0);
+                  @JsonProperty("driver") String driver,
+                  @JsonProperty("maxRows") Integer maxRows,
+                  @JsonProperty("maxResultBytes") Long maxResultBytes,
+                  @JsonProperty("timeoutSeconds") Integer timeoutSeconds,
+                  @JsonProperty("coalesceQueries") Boolean coalesceQueries,
+                  @JsonProperty("cacheTtlSeconds") Integer cacheTtlSeconds) {
+    this(0, name, jdbcUrl, userName, password, Driver.valueOf(driver), 0, maxRows, maxResultBytes, timeoutSeconds,
+        coalesceQueries != null && coalesceQueries, cacheTtlSeconds);
   }
 
   public Database(String name, String jdbcUrl, String userName, String password, String driver, int orgId) {
@@ -153,6 +189,31 @@ public class Database {
     return orgId;
   }
 
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer getMaxRows() {
+    return maxRows;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Long getMaxResultBytes() {
+    return maxResultBytes;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer getTimeoutSeconds() {
+    return timeoutSeconds;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isCoalesceQueries() {
+    return coalesceQueries;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer getCacheTtlSeconds() {
+    return cacheTtlSeconds;
+  }
+
   @JsonIgnore
   public Driver getDriverType() {
     return driver;
@@ -226,6 +287,11 @@ public class Database {
     private String userName;
     private String password;
     private String type;
+    private Integer maxRows;
+    private Long maxResultBytes;
+    private Integer timeoutSeconds;
+    private Boolean coalesceQueries;
+    private Integer cacheTtlSeconds;
 
     @JsonProperty
     public String getName() {
@@ -276,5 +342,55 @@ public class Database {
     public void setType(String type) {
       this.type = type;
     }
+
+    @JsonProperty
+    public Integer getMaxRows() {
+      return maxRows;
+    }
+
+    @JsonProperty
+    public void setMaxRows(Integer maxRows) {
+      this.maxRows = maxRows;
+    }
+
+    @JsonProperty
+    public Long getMaxResultBytes() {
+      return maxResultBytes;
+    }
+
+    @JsonProperty
+    public void setMaxResultBytes(Long maxResultBytes) {
+      this.maxResultBytes = maxResultBytes;
+    }
+
+    @JsonProperty
+    public Integer getTimeoutSeconds() {
+      return timeoutSeconds;
+    }
+
+    @JsonProperty
+    public void setTimeoutSeconds(Integer timeoutSeconds) {
+      this.timeoutSeconds = timeoutSeconds;
+    }
+
+    @JsonProperty
+    public Boolean getCoalesceQueries() {
+      return coalesceQueries;
+    }
+
+    @JsonProperty
+    public void setCoalesceQueries(Boolean coalesceQueries) {
+      this.coalesceQueries = coalesceQueries;
+    }
+
+    @JsonProperty
+    public Integer getCacheTtlSeconds() {
+      return cacheTtlSeconds;
+    }
+
+    @JsonProperty
+    public void setCacheTtlSeconds(Integer cacheTtlSeconds) {
+      this.cacheTtlSeconds = cacheTtlSeconds;
+    }
   }
 }
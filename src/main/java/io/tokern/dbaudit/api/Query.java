@@ -1,13 +1,18 @@
 package io.tokern.dbaudit.api;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.jdbi.v3.core.mapper.reflect.ColumnName;
 import org.jdbi.v3.core.mapper.reflect.JdbiConstructor;
 
 public class Query {
   public enum State {
-    WAITING, RUNNING, CANCELLED, ERROR, SUCCESS
+    WAITING, RUNNING, CANCELLED, ERROR, SUCCESS;
+
+    public boolean isFinal() {
+      return this == CANCELLED || this == ERROR || this == SUCCESS;
+    }
   }
 
   public final long id;
@@ -16,14 +21,22 @@ public class Query {
   public final long dbId;
   public final long orgId;
   public final State state;
+  // Id of the query whose execution this one shares, if it was coalesced with an identical running query
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public final Long sharedWith;
 
-  public Query(long id, String sql, long userId, long dbId, long orgId, State state) {
+  public Query(long id, String sql, long userId, long dbId, long orgId, State state, Long sharedWith) {
     this.id = id;
     this.sql = sql;
     this.userId = userId;
     this.dbId = dbId;
     this.orgId = orgId;
     this.state = state;
+    this.sharedWith = sharedWith;
+  }
+
+  public Query(long id, String sql, long userId, long dbId, long orgId, State state) {
+    this(id, sql, userId, dbId, orgId, state, null);
   }
 
   @JdbiConstructor
@@ -32,9 +45,10 @@ public class Query {
                @ColumnName("user_id") long userId,
                @ColumnName("db_id") long dbId,
                @ColumnName("org_id") long orgId,
-               @ColumnName("state") String state) {
+               @ColumnName("state") String state,
+               @ColumnName("shared_with") Long sharedWith) {
     this(id, sql, userId, dbId, orgId,
-        state == null ? null : State.valueOf(state));
+        state == null ? null : State.valueOf(state), sharedWith);
   }
 
   @JsonCreator
@@ -47,7 +61,7 @@ public class Query {
   }
 
   public Query(String sql, long userId, long dbId, long orgId) {
-    this(0, sql, userId, dbId, orgId, State.RUNNING);
+    this(0, sql, userId, dbId, orgId, State.WAITING);
   }
 
   public static class RunQueryRequest {
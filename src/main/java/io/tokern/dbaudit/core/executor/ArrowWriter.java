@@ -0,0 +1,324 @@
+package io.tokern.dbaudit.core.executor;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes rows as an Apache Arrow IPC stream: the schema, then record batches of at most batchSize rows. The Arrow
+ * type of a column is chosen from its SQL type in ResultSetMetaData. Only one batch is held in memory at a time.
+ */
+public class ArrowWriter {
+  public static final String MEDIA_TYPE = "application/vnd.apache.arrow.stream";
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  // Largest precision of an Arrow decimal
+  private static final int MAX_DECIMAL_PRECISION = 38;
+
+  private final OutputStream output;
+  private final int batchSize;
+
+  public ArrowWriter(OutputStream output, int batchSize) {
+    this.output = output;
+    this.batchSize = batchSize;
+  }
+
+  public ArrowWriter(OutputStream output) {
+    this(output, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Copies the value of a column of the current row into a vector.
+   */
+  private interface ColumnWriter {
+    void set(ResultSet rs, int row) throws SQLException;
+  }
+
+  static Field field(ResultSetMetaData rsmd, int column) throws SQLException {
+    int sqlType = rsmd.getColumnType(column);
+    ArrowType type;
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        type = new ArrowType.Int(32, true);
+        break;
+      case Types.BIGINT:
+        type = new ArrowType.Int(64, true);
+        break;
+      case Types.REAL:
+        type = new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+        break;
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        type = new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+        break;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        type = ArrowType.Bool.INSTANCE;
+        break;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        int precision = rsmd.getPrecision(column);
+        int scale = rsmd.getScale(column);
+        // Unconstrained numerics, like NUMERIC in PostgreSQL, report a precision that Arrow cannot hold
+        type = precision > 0 && precision <= MAX_DECIMAL_PRECISION && scale >= 0 && scale <= precision
+            ? new ArrowType.Decimal(precision, scale) : ArrowType.Utf8.INSTANCE;
+        break;
+      case Types.DATE:
+        type = new ArrowType.Date(DateUnit.DAY);
+        break;
+      case Types.TIME:
+        type = new ArrowType.Time(TimeUnit.MILLISECOND, 32);
+        break;
+      case Types.TIMESTAMP:
+        type = new ArrowType.Timestamp(TimeUnit.MILLISECOND, null);
+        break;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        type = ArrowType.Binary.INSTANCE;
+        break;
+      default:
+        type = ArrowType.Utf8.INSTANCE;
+        break;
+    }
+    return new Field(rsmd.getColumnLabel(column), FieldType.nullable(type), null);
+  }
+
+  static Schema schema(ResultSetMetaData rsmd) throws SQLException {
+    List<Field> fields = new ArrayList<>();
+    for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+      fields.add(field(rsmd, i));
+    }
+    return new Schema(fields);
+  }
+
+  private static ColumnWriter writer(FieldVector vector, int column) {
+    if (vector instanceof IntVector) {
+      IntVector ints = (IntVector) vector;
+      return (rs, row) -> {
+        int value = rs.getInt(column);
+        if (rs.wasNull()) {
+          ints.setNull(row);
+        } else {
+          ints.setSafe(row, value);
+        }
+      };
+    } else if (vector instanceof BigIntVector) {
+      BigIntVector longs = (BigIntVector) vector;
+      return (rs, row) -> {
+        long value = rs.getLong(column);
+        if (rs.wasNull()) {
+          longs.setNull(row);
+        } else {
+          longs.setSafe(row, value);
+        }
+      };
+    } else if (vector instanceof Float4Vector) {
+      Float4Vector floats = (Float4Vector) vector;
+      return (rs, row) -> {
+        float value = rs.getFloat(column);
+        if (rs.wasNull()) {
+          floats.setNull(row);
+        } else {
+          floats.setSafe(row, value);
+        }
+      };
+    } else if (vector instanceof Float8Vector) {
+      Float8Vector doubles = (Float8Vector) vector;
+      return (rs, row) -> {
+        double value = rs.getDouble(column);
+        if (rs.wasNull()) {
+          doubles.setNull(row);
+        } else {
+          doubles.setSafe(row, value);
+        }
+      };
+    } else if (vector instanceof BitVector) {
+      BitVector bits = (BitVector) vector;
+      return (rs, row) -> {
+        boolean value = rs.getBoolean(column);
+        if (rs.wasNull()) {
+          bits.setNull(row);
+        } else {
+          bits.setSafe(row, value ? 1 : 0);
+        }
+      };
+    } else if (vector instanceof DecimalVector) {
+      DecimalVector decimals = (DecimalVector) vector;
+      return (rs, row) -> {
+        BigDecimal value = rs.getBigDecimal(column);
+        if (value == null) {
+          decimals.setNull(row);
+        } else {
+          decimals.setSafe(row, value.setScale(decimals.getScale(), RoundingMode.HALF_UP));
+        }
+      };
+    } else if (vector instanceof DateDayVector) {
+      DateDayVector dates = (DateDayVector) vector;
+      return (rs, row) -> {
+        Date value = rs.getDate(column);
+        if (value == null) {
+          dates.setNull(row);
+        } else {
+          dates.setSafe(row, (int) value.toLocalDate().toEpochDay());
+        }
+      };
+    } else if (vector instanceof TimeMilliVector) {
+      TimeMilliVector times = (TimeMilliVector) vector;
+      return (rs, row) -> {
+        Time value = rs.getTime(column);
+        if (value == null) {
+          times.setNull(row);
+        } else {
+          times.setSafe(row, (int) (value.toLocalTime().toNanoOfDay() / 1_000_000));
+        }
+      };
+    } else if (vector instanceof TimeStampMilliVector) {
+      TimeStampMilliVector timestamps = (TimeStampMilliVector) vector;
+      return (rs, row) -> {
+        Timestamp value = rs.getTimestamp(column);
+        if (value == null) {
+          timestamps.setNull(row);
+        } else {
+          // Arrow timestamps without a time zone hold the wall clock time as if it were UTC
+          timestamps.setSafe(row, value.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+      };
+    } else if (vector instanceof VarBinaryVector) {
+      VarBinaryVector binaries = (VarBinaryVector) vector;
+      return (rs, row) -> {
+        byte[] value = rs.getBytes(column);
+        if (value == null) {
+          binaries.setNull(row);
+        } else {
+          binaries.setSafe(row, value);
+        }
+      };
+    } else {
+      VarCharVector strings = (VarCharVector) vector;
+      return (rs, row) -> {
+        String value = rs.getString(column);
+        if (value == null) {
+          strings.setNull(row);
+        } else {
+          strings.setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+        }
+      };
+    }
+  }
+
+  /**
+   * Writes the remaining rows of an open result set. The stream always has at least one record batch, so that
+   * readers see the schema of an empty result.
+   */
+  public void write(ResultSet rs) throws IOException, SQLException {
+    Schema schema = schema(rs.getMetaData());
+    try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+         VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+         ArrowStreamWriter writer = new ArrowStreamWriter(root, null, new OutputChannel(output))) {
+      List<FieldVector> vectors = root.getFieldVectors();
+      ColumnWriter[] columns = new ColumnWriter[vectors.size()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = writer(vectors.get(i), i + 1);
+      }
+
+      writer.start();
+      int batches = 0;
+      boolean more = true;
+      while (more) {
+        root.allocateNew();
+        int rows = 0;
+        while (rows < batchSize && (more = rs.next())) {
+          for (ColumnWriter column : columns) {
+            column.set(rs, rows);
+          }
+          rows++;
+        }
+        root.setRowCount(rows);
+        if (rows > 0 || batches == 0) {
+          writer.writeBatch();
+          batches++;
+        }
+      }
+      writer.end();
+    }
+    output.flush();
+  }
+
+  /**
+   * Writes to the response without closing it when the Arrow writer is closed.
+   */
+  private static class OutputChannel implements WritableByteChannel {
+    private final OutputStream output;
+    private boolean open = true;
+
+    OutputChannel(OutputStream output) {
+      this.output = output;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int length = src.remaining();
+      if (src.hasArray()) {
+        output.write(src.array(), src.arrayOffset() + src.position(), length);
+        src.position(src.limit());
+      } else {
+        byte[] bytes = new byte[length];
+        src.get(bytes);
+        output.write(bytes);
+      }
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+}
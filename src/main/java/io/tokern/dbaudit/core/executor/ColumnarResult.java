@@ -0,0 +1,599 @@
+package io.tokern.dbaudit.core.executor;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable copy of a query result, stored column by column in a single direct ByteBuffer so that retained
+ * results do not add to the heap. Integers, longs, doubles and booleans are stored as fixed-width values, strings
+ * are dictionary-encoded and binary values are stored back to back. Every column has a null bitmap.
+ * Values are read by row and column index, so one result can be read by several callers at the same time.
+ */
+public class ColumnarResult {
+  static final int MAGIC = 0x44424152;
+  // Version 1 did not record the size of the dictionary
+  static final int VERSION = 2;
+
+  // A string column with more distinct values than this is stored like a binary column
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  public enum Encoding {
+    INT32,
+    INT64,
+    FLOAT64,
+    BOOLEAN,
+    DICTIONARY,
+    VARIABLE;
+
+    /**
+     * The storage used for a JDBC type. DATE and TIMESTAMP are stored as epoch milliseconds. DECIMAL and NUMERIC
+     * are stored as their string form so that no precision is lost. ARRAY is stored as JSON text. STRUCT, DISTINCT,
+     * REF and other types are stored as their text.
+     */
+    static Encoding forType(int sqlType) throws SQLException {
+      switch (sqlType) {
+        case Types.INTEGER:
+        case Types.TINYINT:
+        case Types.SMALLINT:
+          return INT32;
+        case Types.BIGINT:
+        case Types.DATE:
+        case Types.TIMESTAMP:
+          return INT64;
+        case Types.FLOAT:
+        case Types.REAL:
+        case Types.DOUBLE:
+          return FLOAT64;
+        case Types.BOOLEAN:
+        case Types.BIT:
+          return BOOLEAN;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+          return VARIABLE;
+        default:
+          return DICTIONARY;
+      }
+    }
+  }
+
+  public static class Column {
+    public final String label;
+    public final String name;
+    public final String typeName;
+    public final int sqlType;
+    public final int precision;
+    public final Encoding encoding;
+
+    // Absolute positions of the sections of this column in the buffer
+    final int nulls;
+    final int values;
+    final int offsets;
+    final int bytes;
+    final int dictionarySize;
+
+    Column(String label, String name, String typeName, int sqlType, int precision, Encoding encoding,
+           int nulls, int values, int offsets, int bytes, int dictionarySize) {
+      this.label = label;
+      this.name = name;
+      this.typeName = typeName;
+      this.sqlType = sqlType;
+      this.precision = precision;
+      this.encoding = encoding;
+      this.nulls = nulls;
+      this.values = values;
+      this.offsets = offsets;
+      this.bytes = bytes;
+      this.dictionarySize = dictionarySize;
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final int rowCount;
+  private final Column[] columns;
+
+  /**
+   * Reads a result that was written by {@link Builder}. The buffer is not copied.
+   */
+  public ColumnarResult(ByteBuffer buffer) {
+    this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    this.buffer.clear();
+    ByteBuffer header = this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IllegalArgumentException("Buffer does not hold a columnar result");
+    }
+    rowCount = header.getInt();
+    columns = new Column[header.getInt()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = new Column(readString(header), readString(header), readString(header), header.getInt(),
+          header.getInt(), Encoding.values()[header.get()], header.getInt(), header.getInt(), header.getInt(),
+          header.getInt(), header.getInt());
+    }
+  }
+
+  private static String readString(ByteBuffer header) {
+    int length = header.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    header.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Takes the whole BLOB and CLOB values that are cut to a preview, before they are cut. Rows and columns are
+   * counted from 0. Every value that is at least as long as the preview is passed, so a value whose preview is
+   * shorter than that is whole.
+   */
+  public interface LobSink {
+    void keep(int row, int column, Blob blob) throws SQLException;
+
+    void keep(int row, int column, Clob clob) throws SQLException;
+  }
+
+  /**
+   * Copies the remaining rows of a result set. BLOB and CLOB values are cut to lobPreviewLength bytes or
+   * characters, unless it is 0. The values that are cut are passed to lobs first, if it is set.
+   */
+  public static ColumnarResult of(ResultSet resultSet, int lobPreviewLength, LobSink lobs) throws SQLException {
+    Builder builder = new Builder(resultSet.getMetaData(), lobPreviewLength, lobs);
+    while (resultSet.next()) {
+      builder.addRow(resultSet);
+    }
+    return builder.build();
+  }
+
+  public static ColumnarResult of(ResultSet resultSet, int lobPreviewLength) throws SQLException {
+    return of(resultSet, lobPreviewLength, null);
+  }
+
+  public static ColumnarResult of(ResultSet resultSet) throws SQLException {
+    return of(resultSet, 0);
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  public Column getColumn(int column) {
+    return columns[column];
+  }
+
+  /**
+   * Size of the buffer, which is allocated outside the heap.
+   */
+  public long getSizeInBytes() {
+    return buffer.capacity();
+  }
+
+  /**
+   * A read-only view of the encoded result.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public boolean isNull(int row, int column) {
+    return (buffer.get(columns[column].nulls + (row >> 3)) & (1 << (row & 7))) != 0;
+  }
+
+  public long getLong(int row, int column) {
+    Column col = columns[column];
+    if (col.encoding == Encoding.INT32) {
+      return buffer.getInt(col.values + 4 * row);
+    }
+    return buffer.getLong(col.values + 8 * row);
+  }
+
+  public double getDouble(int row, int column) {
+    return buffer.getDouble(columns[column].values + 8 * row);
+  }
+
+  public boolean getBoolean(int row, int column) {
+    return buffer.get(columns[column].values + row) != 0;
+  }
+
+  public byte[] getBytes(int row, int column) {
+    if (isNull(row, column)) {
+      return null;
+    }
+    Column col = columns[column];
+    return readEntry(col, col.encoding == Encoding.DICTIONARY ? buffer.getInt(col.values + 4 * row) : row);
+  }
+
+  private byte[] readEntry(Column col, int entry) {
+    int start = buffer.getInt(col.offsets + 4 * entry);
+    byte[] bytes = new byte[buffer.getInt(col.offsets + 4 * (entry + 1)) - start];
+    ByteBuffer view = buffer.duplicate();
+    view.position(col.bytes + start);
+    view.get(bytes);
+    return bytes;
+  }
+
+  public String getString(int row, int column) {
+    byte[] bytes = getBytes(row, column);
+    return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+  }
+
+  /**
+   * Index of the value of a row in the dictionary of a {@link Encoding#DICTIONARY} column.
+   */
+  public int getCode(int row, int column) {
+    return buffer.getInt(columns[column].values + 4 * row);
+  }
+
+  public int getDictionarySize(int column) {
+    return columns[column].dictionarySize;
+  }
+
+  public String getDictionaryValue(int column, int code) {
+    return new String(readEntry(columns[column], code), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A growable heap buffer for one section of a column while the result is being built.
+   */
+  private static class Section {
+    private ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+    private void ensure(int bytes) {
+      if (buffer.remaining() < bytes) {
+        long capacity = Math.max(2L * buffer.capacity(), (long) buffer.position() + bytes);
+        if (capacity > Integer.MAX_VALUE) {
+          throw new IllegalStateException("Result is too large to be stored");
+        }
+        ByteBuffer grown = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+      }
+    }
+
+    void put(byte value) {
+      ensure(1);
+      buffer.put(value);
+    }
+
+    void putInt(int value) {
+      ensure(4);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) {
+      ensure(8);
+      buffer.putLong(value);
+    }
+
+    void putDouble(double value) {
+      ensure(8);
+      buffer.putDouble(value);
+    }
+
+    void put(byte[] value) {
+      ensure(value.length);
+      buffer.put(value);
+    }
+
+    int getInt(int index) {
+      return buffer.getInt(index);
+    }
+
+    boolean isSet(int bit) {
+      return bit >> 3 < buffer.position() && (buffer.get(bit >> 3) & (1 << (bit & 7))) != 0;
+    }
+
+    void clear() {
+      buffer.clear();
+    }
+
+    void setBit(int index) {
+      while (buffer.position() <= index >> 3) {
+        put((byte) 0);
+      }
+      buffer.put(index >> 3, (byte) (buffer.get(index >> 3) | (1 << (index & 7))));
+    }
+
+    int size() {
+      return buffer.position();
+    }
+
+    void copyTo(ByteBuffer target) {
+      ByteBuffer source = buffer.duplicate();
+      source.flip();
+      target.put(source);
+    }
+  }
+
+  private static class ColumnBuilder {
+    final byte[] label;
+    final byte[] name;
+    final byte[] typeName;
+    final int sqlType;
+    final int precision;
+    final boolean binary;
+    final int index;
+    final int lobPreviewLength;
+    final LobSink lobs;
+    Encoding encoding;
+
+    final Section nulls = new Section();
+    Section values = new Section();
+    Section offsets = new Section();
+    final Section bytes = new Section();
+    Map<String, Integer> dictionary;
+
+    ColumnBuilder(ResultSetMetaData metaData, int column, int lobPreviewLength, LobSink lobs) throws SQLException {
+      label = encode(metaData.getColumnLabel(column));
+      name = encode(metaData.getColumnName(column));
+      typeName = encode(metaData.getColumnTypeName(column));
+      sqlType = metaData.getColumnType(column);
+      precision = metaData.getPrecision(column);
+      this.index = column - 1;
+      this.lobPreviewLength = lobPreviewLength;
+      this.lobs = lobs;
+      encoding = Encoding.forType(sqlType);
+      binary = encoding == Encoding.VARIABLE;
+      if (encoding == Encoding.DICTIONARY) {
+        dictionary = new HashMap<>();
+      }
+      if (encoding == Encoding.DICTIONARY || encoding == Encoding.VARIABLE) {
+        offsets.putInt(0);
+      }
+    }
+
+    void add(ResultSet resultSet, int column, int row) throws SQLException {
+      switch (encoding) {
+        case INT32:
+          int i = resultSet.getInt(column);
+          values.putInt(i);
+          if (resultSet.wasNull()) {
+            nulls.setBit(row);
+          }
+          break;
+        case INT64:
+          long l;
+          boolean isNull;
+          if (sqlType == Types.DATE || sqlType == Types.TIMESTAMP) {
+            Date date = sqlType == Types.DATE ? resultSet.getDate(column) : resultSet.getTimestamp(column);
+            l = date != null ? date.getTime() : 0;
+            isNull = date == null;
+          } else {
+            l = resultSet.getLong(column);
+            isNull = resultSet.wasNull();
+          }
+          values.putLong(l);
+          if (isNull) {
+            nulls.setBit(row);
+          }
+          break;
+        case FLOAT64:
+          double d = resultSet.getDouble(column);
+          values.putDouble(d);
+          if (resultSet.wasNull()) {
+            nulls.setBit(row);
+          }
+          break;
+        case BOOLEAN:
+          boolean b = resultSet.getBoolean(column);
+          values.put(b ? (byte) 1 : (byte) 0);
+          if (resultSet.wasNull()) {
+            nulls.setBit(row);
+          }
+          break;
+        case DICTIONARY:
+          String s = getString(resultSet, column, row);
+          Integer code = s != null ? dictionary.get(s) : Integer.valueOf(0);
+          if (code == null && dictionary.size() >= MAX_DICTIONARY_SIZE) {
+            expandDictionary(row);
+            addVariable(encode(s));
+            break;
+          } else if (code == null) {
+            code = dictionary.size();
+            dictionary.put(s, code);
+            addVariable(encode(s));
+          }
+          values.putInt(code);
+          if (s == null) {
+            nulls.setBit(row);
+          }
+          break;
+        case VARIABLE:
+          byte[] value = !binary ? encode(getString(resultSet, column, row))
+              : sqlType == Types.BLOB ? LobStream.preview(keep(resultSet.getBlob(column), row), lobPreviewLength)
+              : resultSet.getBytes(column);
+          addVariable(value != null ? value : new byte[0]);
+          if (value == null) {
+            nulls.setBit(row);
+          }
+          break;
+        default:
+          throw new IllegalStateException(encoding.name());
+      }
+    }
+
+    private String getString(ResultSet resultSet, int column, int row) throws SQLException {
+      if (sqlType == Types.DECIMAL || sqlType == Types.NUMERIC) {
+        BigDecimal decimal = resultSet.getBigDecimal(column);
+        return decimal != null ? decimal.toString() : null;
+      }
+      if (sqlType == Types.ARRAY) {
+        return JsonValues.arrayToJson(resultSet.getArray(column));
+      }
+      if (sqlType == Types.CLOB || sqlType == Types.NCLOB) {
+        return LobStream.preview(keep(resultSet.getClob(column), row), lobPreviewLength);
+      }
+      return JsonValues.toText(resultSet, column);
+    }
+
+    private Blob keep(Blob blob, int row) throws SQLException {
+      if (blob != null && lobs != null && lobPreviewLength > 0 && blob.length() >= lobPreviewLength) {
+        lobs.keep(row, index, blob);
+      }
+      return blob;
+    }
+
+    private Clob keep(Clob clob, int row) throws SQLException {
+      if (clob != null && lobs != null && lobPreviewLength > 0 && clob.length() >= lobPreviewLength) {
+        lobs.keep(row, index, clob);
+      }
+      return clob;
+    }
+
+    private void addVariable(byte[] value) {
+      bytes.put(value);
+      offsets.putInt(bytes.size());
+    }
+
+    /**
+     * Rewrites the rows added so far without the dictionary once it has grown too large.
+     */
+    private void expandDictionary(int rows) {
+      Section codes = values;
+      Section entries = offsets;
+      byte[] dictionaryBytes = new byte[bytes.size()];
+      bytes.copyTo(ByteBuffer.wrap(dictionaryBytes));
+      bytes.clear();
+      values = new Section();
+      offsets = new Section();
+      offsets.putInt(0);
+      for (int row = 0; row < rows; row++) {
+        if (nulls.isSet(row)) {
+          addVariable(new byte[0]);
+        } else {
+          int code = codes.getInt(4 * row);
+          int start = entries.getInt(4 * code);
+          addVariable(Arrays.copyOfRange(dictionaryBytes, start, entries.getInt(4 * (code + 1))));
+        }
+      }
+      dictionary = null;
+      encoding = Encoding.VARIABLE;
+    }
+
+    int headerSize() {
+      return 12 + length(label) + length(name) + length(typeName) + 8 + 1 + 20;
+    }
+  }
+
+  private static int length(byte[] value) {
+    return value != null ? value.length : 0;
+  }
+
+  private static byte[] encode(String value) {
+    return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+  }
+
+  private static int align(long position) {
+    long aligned = (position + 7) & ~7L;
+    if (aligned > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Result is too large to be stored");
+    }
+    return (int) aligned;
+  }
+
+  /**
+   * Copies rows from a result set. The rows are collected on the heap and copied to a direct buffer once, by
+   * {@link #build()}.
+   */
+  public static class Builder {
+    private final ColumnBuilder[] columns;
+    private int rows = 0;
+
+    public Builder(ResultSetMetaData metaData, int lobPreviewLength, LobSink lobs) throws SQLException {
+      columns = new ColumnBuilder[metaData.getColumnCount()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = new ColumnBuilder(metaData, i + 1, lobPreviewLength, lobs);
+      }
+    }
+
+    public Builder(ResultSetMetaData metaData, int lobPreviewLength) throws SQLException {
+      this(metaData, lobPreviewLength, null);
+    }
+
+    public Builder(ResultSetMetaData metaData) throws SQLException {
+      this(metaData, 0);
+    }
+
+    /**
+     * Adds the current row of the result set.
+     */
+    public void addRow(ResultSet resultSet) throws SQLException {
+      for (int i = 0; i < columns.length; i++) {
+        columns[i].add(resultSet, i + 1, rows);
+      }
+      rows++;
+    }
+
+    public ColumnarResult build() {
+      long position = 16;
+      for (ColumnBuilder column : columns) {
+        position += column.headerSize();
+      }
+      int[][] sections = new int[columns.length][4];
+      for (int i = 0; i < columns.length; i++) {
+        ColumnBuilder column = columns[i];
+        sections[i][0] = align(position);
+        position = sections[i][0] + (rows + 7) / 8;
+        Section[] parts = {column.values, column.offsets, column.bytes};
+        boolean[] used = {column.encoding != Encoding.VARIABLE, column.encoding == Encoding.DICTIONARY
+            || column.encoding == Encoding.VARIABLE, column.encoding == Encoding.DICTIONARY
+            || column.encoding == Encoding.VARIABLE};
+        for (int part = 0; part < parts.length; part++) {
+          if (used[part]) {
+            sections[i][part + 1] = align(position);
+            position = sections[i][part + 1] + (long) parts[part].size();
+          } else {
+            sections[i][part + 1] = -1;
+          }
+        }
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocateDirect(align(position)).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns.length);
+      for (int i = 0; i < columns.length; i++) {
+        ColumnBuilder column = columns[i];
+        for (byte[] value : new byte[][]{column.label, column.name, column.typeName}) {
+          if (value == null) {
+            buffer.putInt(-1);
+          } else {
+            buffer.putInt(value.length).put(value);
+          }
+        }
+        buffer.putInt(column.sqlType).putInt(column.precision).put((byte) column.encoding.ordinal());
+        for (int section : sections[i]) {
+          buffer.putInt(section);
+        }
+        buffer.putInt(column.dictionary != null ? column.dictionary.size() : 0);
+      }
+      for (int i = 0; i < columns.length; i++) {
+        ColumnBuilder column = columns[i];
+        Section[] parts = {column.nulls, column.values, column.offsets, column.bytes};
+        for (int part = 0; part < parts.length; part++) {
+          if (sections[i][part] >= 0) {
+            buffer.position(sections[i][part]);
+            parts[part].copyTo(buffer);
+          }
+        }
+      }
+      buffer.clear();
+      return new ColumnarResult(buffer);
+    }
+  }
+}
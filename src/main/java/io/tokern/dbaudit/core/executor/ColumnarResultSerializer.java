@@ -0,0 +1,158 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Types;
+
+/**
+ * Writes a {@link ColumnarResult} in the same format as {@link RowSetSerializer}. Values are read straight from
+ * the stored columns.
+ */
+public class ColumnarResultSerializer extends JsonSerializer<ColumnarResult> {
+  @Override
+  public Class<ColumnarResult> handledType() {
+    return ColumnarResult.class;
+  }
+
+  @Override
+  public void serialize(ColumnarResult result, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException {
+    serialize(result, false, jgen, provider);
+  }
+
+  public void serialize(ColumnarResult result, boolean truncated, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException {
+    ResultView view = new ResultView(result);
+    writeStart(view, jgen);
+    writeRows(view, 0, view.getRowCount(), false, jgen, provider);
+    if (truncated) {
+      jgen.writeBooleanField("truncated", true);
+    }
+    writeEnd(jgen);
+  }
+
+  /**
+   * Opens the queryResult object and writes the column metadata.
+   */
+  void writeStart(ResultView view, JsonGenerator jgen) throws IOException {
+    ColumnarResult result = view.getRows();
+    int numColumns = view.getColumnCount();
+
+    jgen.writeStartObject();
+    jgen.writeFieldName("queryResult");
+    jgen.writeStartObject();
+    jgen.writeFieldName("meta");
+    jgen.writeStartObject();
+    for (int i = 0; i < numColumns; i++) {
+      ColumnarResult.Column column = result.getColumn(view.column(i));
+      jgen.writeFieldName(column.label);
+      jgen.writeStartObject();
+      jgen.writeStringField("dataType", column.typeName);
+      jgen.writeFieldName("maxValueLength");
+      jgen.writeNumber(column.precision);
+      jgen.writeEndObject();
+    }
+    jgen.writeEndObject();
+
+    jgen.writeFieldName("fields");
+    jgen.writeStartArray();
+    for (int i = 0; i < numColumns; i++) {
+      jgen.writeString(result.getColumn(view.column(i)).name);
+    }
+    jgen.writeEndArray();
+  }
+
+  /**
+   * Writes the rows of the view from index from, inclusive, to index to, exclusive. Compact rows are arrays of
+   * values in the order of fields instead of objects keyed by column label.
+   */
+  void writeRows(ResultView view, int from, int to, boolean compact, JsonGenerator jgen,
+                 SerializerProvider provider) throws IOException {
+    ColumnarResult result = view.getRows();
+    int numColumns = view.getColumnCount();
+    jgen.writeFieldName("rows");
+    jgen.writeStartArray();
+    for (int i = from; i < to; i++) {
+      int row = view.row(i);
+      if (compact) {
+        jgen.writeStartArray();
+      } else {
+        jgen.writeStartObject();
+      }
+      for (int j = 0; j < numColumns; j++) {
+        int column = view.column(j);
+        if (!compact) {
+          jgen.writeFieldName(result.getColumn(column).label);
+        }
+        writeValue(result, row, column, jgen, provider);
+      }
+      if (compact) {
+        jgen.writeEndArray();
+      } else {
+        jgen.writeEndObject();
+      }
+    }
+    jgen.writeEndArray();
+  }
+
+  void writeEnd(JsonGenerator jgen) throws IOException {
+    jgen.writeEndObject();
+    jgen.writeEndObject();
+  }
+
+  private static void writeValue(ColumnarResult result, int row, int column, JsonGenerator jgen,
+                                 SerializerProvider provider) throws IOException {
+    if (result.isNull(row, column)) {
+      jgen.writeNull();
+      return;
+    }
+
+    ColumnarResult.Column col = result.getColumn(column);
+    if (col.sqlType == Types.ARRAY || JsonValues.isJson(col.sqlType, col.typeName)) {
+      // Stored as JSON text
+      JsonValues.writeJson(result.getString(row, column), jgen);
+      return;
+    }
+    switch (col.sqlType) {
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        jgen.writeNumber(new BigDecimal(result.getString(row, column)));
+        return;
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        provider.defaultSerializeDateValue(result.getLong(row, column), jgen);
+        return;
+      default:
+        break;
+    }
+
+    switch (col.encoding) {
+      case INT32:
+      case INT64:
+        jgen.writeNumber(result.getLong(row, column));
+        break;
+      case FLOAT64:
+        jgen.writeNumber(result.getDouble(row, column));
+        break;
+      case BOOLEAN:
+        jgen.writeBoolean(result.getBoolean(row, column));
+        break;
+      case VARIABLE:
+        if (col.sqlType == Types.BINARY || col.sqlType == Types.VARBINARY || col.sqlType == Types.LONGVARBINARY
+            || col.sqlType == Types.BLOB) {
+          jgen.writeBinary(result.getBytes(row, column));
+        } else {
+          jgen.writeString(result.getString(row, column));
+        }
+        break;
+      case DICTIONARY:
+      default:
+        jgen.writeString(result.getString(row, column));
+        break;
+    }
+  }
+}
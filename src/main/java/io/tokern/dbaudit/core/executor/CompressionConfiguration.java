@@ -0,0 +1,82 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+import java.util.List;
+
+public class CompressionConfiguration {
+  // Query results are sent as they are when no encoding is listed
+  @NotNull
+  private List<ResultCompression.Encoding> encodings = Arrays.asList(ResultCompression.Encoding.ZSTD,
+      ResultCompression.Encoding.GZIP, ResultCompression.Encoding.DEFLATE);
+
+  // Responses smaller than this are not compressed
+  @Min(0)
+  private int minimumSizeBytes = 2048;
+
+  // Level of gzip and deflate
+  @Min(1)
+  @Max(9)
+  private int deflateLevel = 6;
+
+  @Min(1)
+  @Max(19)
+  private int zstdLevel = 3;
+
+  // Keep compressed results next to spilled results, when resultCache.spillDirectory is set
+  private boolean cacheCompressed = true;
+
+  @JsonProperty
+  public List<ResultCompression.Encoding> getEncodings() {
+    return encodings;
+  }
+
+  @JsonProperty
+  public void setEncodings(List<ResultCompression.Encoding> encodings) {
+    this.encodings = encodings;
+  }
+
+  @JsonProperty
+  public int getMinimumSizeBytes() {
+    return minimumSizeBytes;
+  }
+
+  @JsonProperty
+  public void setMinimumSizeBytes(int minimumSizeBytes) {
+    this.minimumSizeBytes = minimumSizeBytes;
+  }
+
+  @JsonProperty
+  public int getDeflateLevel() {
+    return deflateLevel;
+  }
+
+  @JsonProperty
+  public void setDeflateLevel(int deflateLevel) {
+    this.deflateLevel = deflateLevel;
+  }
+
+  @JsonProperty
+  public int getZstdLevel() {
+    return zstdLevel;
+  }
+
+  @JsonProperty
+  public void setZstdLevel(int zstdLevel) {
+    this.zstdLevel = zstdLevel;
+  }
+
+  @JsonProperty
+  public boolean isCacheCompressed() {
+    return cacheCompressed;
+  }
+
+  @JsonProperty
+  public void setCacheCompressed(boolean cacheCompressed) {
+    this.cacheCompressed = cacheCompressed;
+  }
+}
@@ -31,6 +31,10 @@ public class Connections implements Managed {
     this.encryptionSecret = encryptionSecret;
   }
 
+  public static int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
   @Override
   public void start() throws Exception {}
 
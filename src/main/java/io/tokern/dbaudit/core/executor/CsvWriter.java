@@ -0,0 +1,139 @@
+package io.tokern.dbaudit.core.executor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Base64;
+
+/**
+ * Writes rows as RFC 4180 CSV, one row at a time, so that memory use does not depend on the size of the result.
+ * The first line has the column labels. NULL is written as an empty field and binary values are Base64-encoded.
+ */
+public class CsvWriter {
+  private final Writer writer;
+  private boolean firstField = true;
+
+  public CsvWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  public CsvWriter(OutputStream output) {
+    this(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+  }
+
+  public void writeField(String value) throws IOException {
+    if (!firstField) {
+      writer.write(',');
+    }
+    firstField = false;
+    if (value == null) {
+      return;
+    }
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (quote) {
+      writer.write('"');
+      writer.write(value.replace("\"", "\"\""));
+      writer.write('"');
+    } else {
+      writer.write(value);
+    }
+  }
+
+  public void endRow() throws IOException {
+    writer.write("\r\n");
+    firstField = true;
+  }
+
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  private static boolean isBinary(int sqlType) {
+    return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY
+        || sqlType == Types.BLOB;
+  }
+
+  /**
+   * Writes the remaining rows of an open result set.
+   */
+  public void write(ResultSet rs) throws IOException, SQLException {
+    ResultSetMetaData rsmd = rs.getMetaData();
+    int numColumns = rsmd.getColumnCount();
+    boolean[] binary = new boolean[numColumns];
+    for (int i = 0; i < numColumns; i++) {
+      writeField(rsmd.getColumnLabel(i + 1));
+      binary[i] = isBinary(rsmd.getColumnType(i + 1));
+    }
+    endRow();
+
+    while (rs.next()) {
+      for (int i = 0; i < numColumns; i++) {
+        if (binary[i]) {
+          byte[] bytes = rs.getBytes(i + 1);
+          writeField(bytes != null ? Base64.getEncoder().encodeToString(bytes) : null);
+        } else {
+          writeField(JsonValues.toText(rs, i + 1));
+        }
+      }
+      endRow();
+    }
+    flush();
+  }
+
+  /**
+   * Writes the rows of a view of a stored result.
+   */
+  public void write(ResultView view) throws IOException {
+    ColumnarResult rows = view.getRows();
+    int numColumns = view.getColumnCount();
+    for (int i = 0; i < numColumns; i++) {
+      writeField(rows.getColumn(view.column(i)).label);
+    }
+    endRow();
+
+    for (int i = 0; i < view.getRowCount(); i++) {
+      int row = view.row(i);
+      for (int j = 0; j < numColumns; j++) {
+        int column = view.column(j);
+        writeField(rows.isNull(row, column) ? null : format(rows, row, column));
+      }
+      endRow();
+    }
+    flush();
+  }
+
+  static String format(ColumnarResult rows, int row, int column) {
+    ColumnarResult.Column col = rows.getColumn(column);
+    if (col.sqlType == Types.DATE) {
+      return new Date(rows.getLong(row, column)).toString();
+    } else if (col.sqlType == Types.TIMESTAMP) {
+      return new Timestamp(rows.getLong(row, column)).toString();
+    } else if (isBinary(col.sqlType)) {
+      return Base64.getEncoder().encodeToString(rows.getBytes(row, column));
+    }
+    switch (col.encoding) {
+      case INT32:
+      case INT64:
+        return Long.toString(rows.getLong(row, column));
+      case FLOAT64:
+        return Double.toString(rows.getDouble(row, column));
+      case BOOLEAN:
+        return Boolean.toString(rows.getBoolean(row, column));
+      default:
+        return rows.getString(row, column);
+    }
+  }
+}
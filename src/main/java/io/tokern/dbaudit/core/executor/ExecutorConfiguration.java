@@ -0,0 +1,72 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.tokern.dbaudit.api.User;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ExecutorConfiguration {
+  // Threads that run queries. The pool grows past this to the connections of all databases that are queried, so
+  // that every database can always use its connections.
+  @Min(1)
+  private int threads = 10;
+
+  // Number of queries that wait to start before new ones are rejected
+  @Min(1)
+  private int queueSize = 100;
+
+  // Sent in the Retry-After header when a query is rejected
+  @Min(1)
+  private int retryAfterSeconds = 5;
+
+  // Share of a database that a user gets relative to other users of the same organization. Defaults to 1.
+  @NotNull
+  private Map<User.SystemRoles, Integer> weights = new HashMap<>();
+
+  @JsonProperty
+  public int getThreads() {
+    return threads;
+  }
+
+  @JsonProperty
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  @JsonProperty
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  @JsonProperty
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  @JsonProperty
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  @JsonProperty
+  public void setRetryAfterSeconds(int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  @JsonProperty
+  public Map<User.SystemRoles, Integer> getWeights() {
+    return weights;
+  }
+
+  @JsonProperty
+  public void setWeights(Map<User.SystemRoles, Integer> weights) {
+    this.weights = weights;
+  }
+
+  public int weightOf(User.SystemRoles role) {
+    return role != null ? Math.max(1, weights.getOrDefault(role, 1)) : 1;
+  }
+}
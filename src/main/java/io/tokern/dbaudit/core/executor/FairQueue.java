@@ -0,0 +1,114 @@
+package io.tokern.dbaudit.core.executor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Deficit round-robin over organizations and then over the users of each organization.
+ * Every organization with waiting work gets an equal turn. Within an organization a user gets as many
+ * queries per turn as the weight of their role, so one user with many queued queries cannot hold back the others.
+ * Not thread-safe; callers synchronize.
+ */
+class FairQueue<T> {
+  private static class Flow {
+    final long key;
+    int weight;
+    int deficit = 0;
+
+    Flow(long key, int weight) {
+      this.key = key;
+      this.weight = weight;
+    }
+  }
+
+  private static class UserFlow<T> extends Flow {
+    final Deque<T> items = new ArrayDeque<>();
+
+    UserFlow(long key, int weight) {
+      super(key, weight);
+    }
+  }
+
+  private static class OrgFlow<T> extends Flow {
+    final Rotation<UserFlow<T>> users = new Rotation<>();
+
+    OrgFlow(long key) {
+      super(key, 1);
+    }
+  }
+
+  private static class Rotation<F extends Flow> {
+    private final Map<Long, F> flows = new HashMap<>();
+    private final Deque<F> active = new ArrayDeque<>();
+
+    F flow(long key, int weight, Function<Long, F> create) {
+      F flow = flows.get(key);
+      if (flow == null) {
+        flow = create.apply(key);
+        flows.put(key, flow);
+        active.addLast(flow);
+      } else {
+        flow.weight = Math.max(flow.weight, weight);
+      }
+      return flow;
+    }
+
+    /**
+     * The flow whose turn it is. A flow keeps its turn until it has used up its weight or runs dry.
+     */
+    F current() {
+      F flow = active.peekFirst();
+      if (flow != null && flow.deficit < 1) {
+        flow.deficit += flow.weight;
+      }
+      return flow;
+    }
+
+    void served(F flow, boolean empty) {
+      flow.deficit--;
+      if (empty) {
+        active.pollFirst();
+        flows.remove(flow.key);
+      } else if (flow.deficit < 1) {
+        active.addLast(active.pollFirst());
+      }
+    }
+
+    boolean isEmpty() {
+      return active.isEmpty();
+    }
+  }
+
+  private final Rotation<OrgFlow<T>> orgs = new Rotation<>();
+  private int size = 0;
+
+  void add(long orgId, long userId, int weight, T item) {
+    OrgFlow<T> org = orgs.flow(orgId, 1, OrgFlow::new);
+    org.users.flow(userId, weight, key -> new UserFlow<>(key, weight)).items.addLast(item);
+    size++;
+  }
+
+  T poll() {
+    OrgFlow<T> org = orgs.current();
+    if (org == null) {
+      return null;
+    }
+    UserFlow<T> user = org.users.current();
+    T item = user.items.pollFirst();
+    org.users.served(user, user.items.isEmpty());
+    orgs.served(org, org.users.isEmpty());
+    size--;
+    return item;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+}
@@ -0,0 +1,97 @@
+package io.tokern.dbaudit.core.executor;
+
+import io.tokern.dbaudit.api.Database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Creates statements that fetch rows from the database a few at a time, so that neither the driver nor the database
+ * holds the whole result. Without it the PostgreSQL and MySQL drivers read every row into memory before the first one
+ * is returned.
+ * <ul>
+ *   <li>PostgreSQL only uses a cursor outside of autocommit mode, so autocommit is turned off until the statement is
+ *   released.</li>
+ *   <li>MySQL Connector/J streams one row at a time when the fetch size is Integer.MIN_VALUE. With useCursorFetch=true
+ *   in the JDBC URL it uses a server side cursor with the fetch size instead.</li>
+ *   <li>MariaDB and H2 fetch rows in batches of the fetch size.</li>
+ * </ul>
+ * A fetch size of 0 leaves the driver defaults alone.
+ */
+public class FetchStrategy {
+  public static final FetchStrategy DEFAULT = new FetchStrategy(null, 0);
+
+  public static final Map<Database.Driver, Integer> DEFAULT_FETCH_SIZES;
+
+  static {
+    Map<Database.Driver, Integer> sizes = new EnumMap<>(Database.Driver.class);
+    sizes.put(Database.Driver.POSTGRESQL, 1000);
+    // Only used with useCursorFetch. Otherwise rows are streamed one at a time.
+    sizes.put(Database.Driver.MYSQL, 1000);
+    sizes.put(Database.Driver.MARIADB, 1000);
+    sizes.put(Database.Driver.H2, 1000);
+    DEFAULT_FETCH_SIZES = Collections.unmodifiableMap(sizes);
+  }
+
+  private static final String CURSOR_FETCH = "usecursorfetch=true";
+
+  public final Database.Driver driver;
+  public final int fetchSize;
+
+  public FetchStrategy(Database.Driver driver, int fetchSize) {
+    this.driver = driver;
+    this.fetchSize = fetchSize;
+  }
+
+  private boolean isEnabled() {
+    return driver != null && fetchSize > 0;
+  }
+
+  /**
+   * A forward only, read only statement that fetches rows incrementally. {@link #release} must be called once the
+   * statement is closed.
+   */
+  public Statement createStatement(Connection connection) throws SQLException {
+    if (!isEnabled()) {
+      return connection.createStatement();
+    }
+    if (driver == Database.Driver.POSTGRESQL && connection.getAutoCommit()) {
+      connection.setAutoCommit(false);
+    }
+    Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      if (driver == Database.Driver.MYSQL && !usesCursorFetch(connection)) {
+        statement.setFetchSize(Integer.MIN_VALUE);
+      } else {
+        statement.setFetchSize(fetchSize);
+      }
+      return statement;
+    } catch (SQLException sql_exc) {
+      statement.close();
+      release(connection);
+      throw sql_exc;
+    }
+  }
+
+  private static boolean usesCursorFetch(Connection connection) throws SQLException {
+    String url = connection.getMetaData().getURL();
+    return url != null && url.toLowerCase().contains(CURSOR_FETCH);
+  }
+
+  /**
+   * Ends the transaction that was opened for a PostgreSQL cursor, so that anything the query changed is committed
+   * as it would have been in autocommit mode, and puts the connection back in autocommit mode.
+   */
+  public void release(Connection connection) throws SQLException {
+    if (isEnabled() && driver == Database.Driver.POSTGRESQL && !connection.isClosed()
+        && !connection.getAutoCommit()) {
+      connection.commit();
+      connection.setAutoCommit(true);
+    }
+  }
+}
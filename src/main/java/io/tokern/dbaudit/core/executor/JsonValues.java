@@ -0,0 +1,193 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Writes column types that have a natural JSON form without going through Jackson's serializer lookup: JSON
+ * documents, SQL arrays and UUIDs.
+ */
+public class JsonValues {
+  private static final JsonFactory factory = new JsonFactory();
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  public static final int UUID_LENGTH = 36;
+
+  /**
+   * Columns of PostgreSQL json and jsonb types hold JSON documents that can be written as they are.
+   */
+  public static boolean isJson(int sqlType, String typeName) {
+    return sqlType == Types.OTHER && ("json".equalsIgnoreCase(typeName) || "jsonb".equalsIgnoreCase(typeName));
+  }
+
+  /**
+   * Writes a JSON document as a value. JSON output takes the text as it is. Smile and CBOR cannot embed text, so
+   * for them the document is parsed and copied token by token.
+   */
+  public static void writeJson(String json, JsonGenerator jgen) throws IOException {
+    if (!jgen.canWriteBinaryNatively()) {
+      jgen.writeRawValue(json);
+      return;
+    }
+    try (JsonParser parser = factory.createParser(json)) {
+      parser.nextToken();
+      jgen.copyCurrentStructure(parser);
+    }
+  }
+
+  /**
+   * The text of a value of a type without a JSON form of its own, like STRUCT, DISTINCT and REF. Drivers that do
+   * not support getString for the type are asked for the object instead.
+   */
+  public static String toText(ResultSet rs, int column) throws SQLException {
+    try {
+      return rs.getString(column);
+    } catch (SQLFeatureNotSupportedException exception) {
+      Object value = rs.getObject(column);
+      return value != null ? value.toString() : null;
+    }
+  }
+
+  public static boolean isUuid(int sqlType, String typeName) {
+    return sqlType == Types.OTHER && "uuid".equalsIgnoreCase(typeName);
+  }
+
+  /**
+   * Writes a UUID in its canonical form through a buffer of {@link #UUID_LENGTH} characters, so that no String is
+   * created.
+   */
+  public static void writeUuid(UUID uuid, char[] buffer, JsonGenerator jgen) throws IOException {
+    long msb = uuid.getMostSignificantBits();
+    long lsb = uuid.getLeastSignificantBits();
+    hex(msb >>> 32, buffer, 0, 8);
+    buffer[8] = '-';
+    hex(msb >>> 16, buffer, 9, 4);
+    buffer[13] = '-';
+    hex(msb, buffer, 14, 4);
+    buffer[18] = '-';
+    hex(lsb >>> 48, buffer, 19, 4);
+    buffer[23] = '-';
+    hex(lsb, buffer, 24, 12);
+    jgen.writeString(buffer, 0, UUID_LENGTH);
+  }
+
+  private static void hex(long value, char[] buffer, int offset, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      buffer[i] = HEX[(int) value & 0xF];
+      value >>>= 4;
+    }
+  }
+
+  /**
+   * Writes the elements of a SQL array as a JSON array, nested for multi-dimensional arrays. The array is freed.
+   * Dates are written by the provider, or as milliseconds since the epoch when there is none.
+   */
+  public static void writeArray(Array array, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException, SQLException {
+    if (array == null) {
+      jgen.writeNull();
+      return;
+    }
+    try {
+      writeElements(array.getArray(), jgen, provider);
+    } finally {
+      array.free();
+    }
+  }
+
+  /**
+   * A SQL array as JSON text, for results that store it as a string.
+   */
+  public static String arrayToJson(Array array) throws SQLException {
+    if (array == null) {
+      return null;
+    }
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator jgen = factory.createGenerator(writer)) {
+      writeArray(array, jgen, null);
+    } catch (IOException exception) {
+      throw new SQLException(exception);
+    }
+    return writer.toString();
+  }
+
+  private static void writeElements(Object elements, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException {
+    jgen.writeStartArray();
+    if (elements instanceof Object[]) {
+      for (Object element : (Object[]) elements) {
+        writeElement(element, jgen, provider);
+      }
+    } else if (elements instanceof int[]) {
+      for (int element : (int[]) elements) {
+        jgen.writeNumber(element);
+      }
+    } else if (elements instanceof long[]) {
+      for (long element : (long[]) elements) {
+        jgen.writeNumber(element);
+      }
+    } else if (elements instanceof double[]) {
+      for (double element : (double[]) elements) {
+        jgen.writeNumber(element);
+      }
+    } else if (elements instanceof boolean[]) {
+      for (boolean element : (boolean[]) elements) {
+        jgen.writeBoolean(element);
+      }
+    } else {
+      for (int i = 0; i < java.lang.reflect.Array.getLength(elements); i++) {
+        writeElement(java.lang.reflect.Array.get(elements, i), jgen, provider);
+      }
+    }
+    jgen.writeEndArray();
+  }
+
+  private static void writeElement(Object element, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException {
+    if (element == null) {
+      jgen.writeNull();
+    } else if (element instanceof String) {
+      jgen.writeString((String) element);
+    } else if (element instanceof Integer || element instanceof Long || element instanceof Short
+        || element instanceof Byte) {
+      jgen.writeNumber(((Number) element).longValue());
+    } else if (element instanceof Double || element instanceof Float) {
+      jgen.writeNumber(((Number) element).doubleValue());
+    } else if (element instanceof BigDecimal) {
+      jgen.writeNumber((BigDecimal) element);
+    } else if (element instanceof BigInteger) {
+      jgen.writeNumber((BigInteger) element);
+    } else if (element instanceof Boolean) {
+      jgen.writeBoolean((Boolean) element);
+    } else if (element instanceof Date) {
+      if (provider != null) {
+        provider.defaultSerializeDateValue((Date) element, jgen);
+      } else {
+        jgen.writeNumber(((Date) element).getTime());
+      }
+    } else if (element instanceof UUID) {
+      writeUuid((UUID) element, new char[UUID_LENGTH], jgen);
+    } else if (element instanceof byte[]) {
+      jgen.writeBinary((byte[]) element);
+    } else if (element.getClass().isArray()) {
+      writeElements(element, jgen, provider);
+    } else {
+      // Driver specific types, like PGobject, print their value in toString
+      jgen.writeString(element.toString());
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package io.tokern.dbaudit.core.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Streams the full value of one cell of a stored result, most usefully a BLOB or CLOB of which the result only has
+ * a preview. A value that was cut is read from the file that {@link ResultSpill} kept while the query ran, and any
+ * other value from the stored result, so the query is never run again. The value is copied in chunks of
+ * {@link #CHUNK_SIZE}.
+ */
+public class LobStream implements StreamingOutput {
+  private static Logger logger = LoggerFactory.getLogger(LobStream.class);
+
+  public static final int CHUNK_SIZE = 64 * 1024;
+
+  private final long queryId;
+  private final InputStream input;
+  private final boolean binary;
+
+  LobStream(long queryId, InputStream input, boolean binary) {
+    this.queryId = queryId;
+    this.input = input;
+    this.binary = binary;
+  }
+
+  static boolean isBinary(int sqlType) {
+    return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY
+        || sqlType == Types.BLOB;
+  }
+
+  private static boolean isLob(int sqlType) {
+    return sqlType == Types.BLOB || sqlType == Types.CLOB || sqlType == Types.NCLOB;
+  }
+
+  /**
+   * The value in a row of the result of a query. runId is the query whose run stored the result, which is another
+   * query if the result was shared. Throws IllegalArgumentException if the row or column is not in the result, and
+   * IllegalStateException if the value was cut and the whole value was not kept.
+   */
+  public static LobStream of(long queryId, long runId, ColumnarResult rows, int row, String column,
+                             ResultSpill spill, int lobPreviewLength)
+      throws IllegalArgumentException, IllegalStateException {
+    if (row < 0 || row >= rows.getRowCount()) {
+      throw new IllegalArgumentException(String.format("Query %d has no row %d", queryId, row));
+    }
+    int index = find(rows, column);
+    ColumnarResult.Column col = rows.getColumn(index);
+    boolean binary = isBinary(col.sqlType);
+
+    InputStream kept = spill != null ? spill.readLob(runId, row, index) : null;
+    if (kept != null) {
+      logger.info(String.format("Query {%d} streams kept value of column {%s} of row {%d}", queryId, column, row));
+      return new LobStream(queryId, kept, binary);
+    }
+
+    if (rows.isNull(row, index)) {
+      return new LobStream(queryId, new ByteArrayInputStream(new byte[0]), binary);
+    }
+    // Values that reach the preview length are kept whole while the query runs, unless the quota of the result was
+    // used up, so this one was cut
+    if (isLob(col.sqlType) && lobPreviewLength > 0 && (binary ? rows.getBytes(row, index).length
+        : rows.getString(row, index).length()) >= lobPreviewLength) {
+      throw new IllegalStateException(String.format("The full value of column %s in row %d of query %d was not "
+          + "kept", column, row, queryId));
+    }
+    byte[] value = binary ? rows.getBytes(row, index)
+        : CsvWriter.format(rows, row, index).getBytes(StandardCharsets.UTF_8);
+    return new LobStream(queryId, new ByteArrayInputStream(value), binary);
+  }
+
+  /**
+   * Index of the column with a label. Labels are matched case-insensitively if there is no exact match.
+   */
+  private static int find(ColumnarResult rows, String label) {
+    for (int i = 0; i < rows.getColumnCount(); i++) {
+      if (rows.getColumn(i).label.equals(label)) {
+        return i;
+      }
+    }
+    for (int i = 0; i < rows.getColumnCount(); i++) {
+      if (rows.getColumn(i).label.equalsIgnoreCase(label)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(String.format("Column %s is not in the result", label));
+  }
+
+  public MediaType getMediaType() {
+    return binary ? MediaType.APPLICATION_OCTET_STREAM_TYPE : MediaType.valueOf("text/plain; charset=UTF-8");
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    try (InputStream value = input) {
+      byte[] chunk = new byte[CHUNK_SIZE];
+      int length;
+      while ((length = value.read(chunk)) > 0) {
+        output.write(chunk, 0, length);
+        output.flush();
+      }
+    } catch (IOException exception) {
+      logger.warn(String.format("Query {%d} failed while streaming a value with message {%s}", queryId,
+          exception.getMessage()));
+      throw exception;
+    }
+  }
+
+  /**
+   * The first length bytes of a BLOB, or all of it if length is 0. The BLOB is freed.
+   */
+  public static byte[] preview(Blob blob, int length) throws SQLException {
+    if (blob == null) {
+      return null;
+    }
+    try {
+      long size = blob.length();
+      return blob.getBytes(1, (int) (length > 0 ? Math.min(size, length) : size));
+    } finally {
+      blob.free();
+    }
+  }
+
+  /**
+   * The first length characters of a CLOB, or all of it if length is 0. The CLOB is freed.
+   */
+  public static String preview(Clob clob, int length) throws SQLException {
+    if (clob == null) {
+      return null;
+    }
+    try {
+      long size = clob.length();
+      return clob.getSubString(1, (int) (length > 0 ? Math.min(size, length) : size));
+    } finally {
+      clob.free();
+    }
+  }
+
+  /**
+   * Replaces a BLOB or CLOB with its preview. Other values are returned as they are.
+   */
+  public static Object preview(Object value, int length) throws SQLException {
+    if (value instanceof Blob) {
+      return preview((Blob) value, length);
+    } else if (value instanceof Clob) {
+      return preview((Clob) value, length);
+    }
+    return value;
+  }
+}
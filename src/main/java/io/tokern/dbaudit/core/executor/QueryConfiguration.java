@@ -0,0 +1,185 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.tokern.dbaudit.api.Database;
+import io.tokern.dbaudit.api.User;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+public class QueryConfiguration {
+  // Defaults to fe.queryResultMaxRows when not set
+  @Min(1)
+  private Integer maxRows;
+
+  @Min(1)
+  private long maxResultBytes = 128L * 1024 * 1024;
+
+  // Defaults to fe.timeOutSeconds when not set
+  @Min(0)
+  private Integer timeoutSeconds;
+
+  // Defaults to fe.allowCsvDownload when not set
+  private Boolean allowCsvDownload;
+
+  // BLOB and CLOB values in results are cut to this many bytes or characters. 0 keeps them whole.
+  @Min(0)
+  private int lobPreviewLength = 8192;
+
+  // Upper bound on the memory used by results kept for reuse
+  @Min(0)
+  private long reuseCacheMaxBytes = 64L * 1024 * 1024;
+
+  // Rows fetched from the database at a time, by driver. 0 leaves it to the driver.
+  @NotNull
+  private Map<Database.Driver, Integer> fetchSizes = new EnumMap<>(FetchStrategy.DEFAULT_FETCH_SIZES);
+
+  @Valid
+  @NotNull
+  private Map<User.SystemRoles, RoleLimits> roles = new HashMap<>();
+
+  // Limits for the users of a role. They can only tighten the limits above.
+  public static class RoleLimits {
+    @Min(1)
+    private Integer maxRows;
+    @Min(1)
+    private Long maxResultBytes;
+    @Min(1)
+    private Integer timeoutSeconds;
+
+    @JsonProperty
+    public Integer getMaxRows() {
+      return maxRows;
+    }
+
+    @JsonProperty
+    public void setMaxRows(Integer maxRows) {
+      this.maxRows = maxRows;
+    }
+
+    @JsonProperty
+    public Long getMaxResultBytes() {
+      return maxResultBytes;
+    }
+
+    @JsonProperty
+    public void setMaxResultBytes(Long maxResultBytes) {
+      this.maxResultBytes = maxResultBytes;
+    }
+
+    @JsonProperty
+    public Integer getTimeoutSeconds() {
+      return timeoutSeconds;
+    }
+
+    @JsonProperty
+    public void setTimeoutSeconds(Integer timeoutSeconds) {
+      this.timeoutSeconds = timeoutSeconds;
+    }
+  }
+
+  @JsonProperty
+  public Integer getMaxRows() {
+    return maxRows;
+  }
+
+  @JsonProperty
+  public void setMaxRows(Integer maxRows) {
+    this.maxRows = maxRows;
+  }
+
+  @JsonProperty
+  public long getMaxResultBytes() {
+    return maxResultBytes;
+  }
+
+  @JsonProperty
+  public void setMaxResultBytes(long maxResultBytes) {
+    this.maxResultBytes = maxResultBytes;
+  }
+
+  @JsonProperty
+  public Integer getTimeoutSeconds() {
+    return timeoutSeconds;
+  }
+
+  @JsonProperty
+  public void setTimeoutSeconds(Integer timeoutSeconds) {
+    this.timeoutSeconds = timeoutSeconds;
+  }
+
+  @JsonProperty
+  public Boolean getAllowCsvDownload() {
+    return allowCsvDownload;
+  }
+
+  @JsonProperty
+  public void setAllowCsvDownload(Boolean allowCsvDownload) {
+    this.allowCsvDownload = allowCsvDownload;
+  }
+
+  @JsonProperty
+  public int getLobPreviewLength() {
+    return lobPreviewLength;
+  }
+
+  @JsonProperty
+  public void setLobPreviewLength(int lobPreviewLength) {
+    this.lobPreviewLength = lobPreviewLength;
+  }
+
+  @JsonProperty
+  public long getReuseCacheMaxBytes() {
+    return reuseCacheMaxBytes;
+  }
+
+  @JsonProperty
+  public void setReuseCacheMaxBytes(long reuseCacheMaxBytes) {
+    this.reuseCacheMaxBytes = reuseCacheMaxBytes;
+  }
+
+  @JsonProperty
+  public Map<Database.Driver, Integer> getFetchSizes() {
+    return fetchSizes;
+  }
+
+  /**
+   * Drivers that are not in fetchSizes keep their defaults.
+   */
+  @JsonProperty
+  public void setFetchSizes(Map<Database.Driver, Integer> fetchSizes) {
+    this.fetchSizes.putAll(fetchSizes);
+  }
+
+  @JsonProperty
+  public Map<User.SystemRoles, RoleLimits> getRoles() {
+    return roles;
+  }
+
+  @JsonProperty
+  public void setRoles(Map<User.SystemRoles, RoleLimits> roles) {
+    this.roles = roles;
+  }
+
+  /**
+   * Limits for a query by user on database. The settings of the user's role and of the database can only
+   * tighten the server defaults, never lift them.
+   */
+  public QueryLimits limitsFor(Database database, User user) {
+    int rows = maxRows != null ? maxRows : Integer.MAX_VALUE;
+    int timeout = timeoutSeconds != null ? timeoutSeconds : 0;
+    FetchStrategy fetch = new FetchStrategy(database.getDriverType(),
+        fetchSizes.getOrDefault(database.getDriverType(), 0));
+    QueryLimits limits = new QueryLimits(rows, maxResultBytes, timeout, lobPreviewLength, fetch);
+    RoleLimits roleLimits = roles.get(user.systemRole);
+    if (roleLimits != null) {
+      limits = limits.tighten(roleLimits.getMaxRows(), roleLimits.getMaxResultBytes(),
+          roleLimits.getTimeoutSeconds());
+    }
+    return limits.tighten(database.getMaxRows(), database.getMaxResultBytes(), database.getTimeoutSeconds());
+  }
+}
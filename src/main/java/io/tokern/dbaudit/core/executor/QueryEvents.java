@@ -0,0 +1,184 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.tokern.dbaudit.api.Query;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Pushes the state transitions and progress of a query to a client as server-sent events.
+ * Events are buffered per client and written by a separate thread, so neither a request thread nor the worker that
+ * runs the query waits for the client. A client that falls more than {@link #BUFFER_EVENTS} events behind is
+ * disconnected. It can still read the result from /results.
+ * The stream is closed once the query reaches a final state.
+ */
+public class QueryEvents implements ThreadPool.Work.Listener {
+  private static Logger logger = LoggerFactory.getLogger(QueryEvents.class);
+
+  static final int BUFFER_EVENTS = 64;
+
+  private static final Executor WRITERS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("query-events-%d").setDaemon(true).build());
+
+  private final long queryId;
+  private final ChunkedOutput<String> output;
+  private final ObjectMapper mapper;
+  private final boolean rows;
+  private final Executor writer;
+  private final int bufferEvents;
+  private ThreadPool.Work work;
+
+  // Guarded by this
+  private final Deque<String> buffer = new ArrayDeque<>();
+  private boolean writing = false;
+  private boolean closed = false;
+
+  QueryEvents(long queryId, ObjectMapper mapper, boolean rows, ChunkedOutput<String> output, Executor writer,
+              int bufferEvents) {
+    this.queryId = queryId;
+    this.output = output;
+    this.mapper = mapper;
+    this.rows = rows;
+    this.writer = writer;
+    this.bufferEvents = bufferEvents;
+  }
+
+  public QueryEvents(long queryId, ObjectMapper mapper, boolean rows) {
+    this(queryId, mapper, rows, new ChunkedOutput<>(String.class), WRITERS, BUFFER_EVENTS);
+  }
+
+  public ChunkedOutput<String> getOutput() {
+    return output;
+  }
+
+  /**
+   * Follows a query that is waiting or running. Sends the current state straight away.
+   */
+  public QueryEvents subscribe(ThreadPool.Work work) {
+    synchronized (this) {
+      this.work = work;
+    }
+    onState(work.addListener(queryId, this));
+    return this;
+  }
+
+  /**
+   * Sends the state of a query that is not running in this server and closes the stream.
+   */
+  public QueryEvents finished(Query.State state) {
+    send("state", ImmutableMap.of("id", queryId, "state", state));
+    close();
+    return this;
+  }
+
+  @Override
+  public void onState(Query.State state) {
+    send("state", ImmutableMap.of("id", queryId, "state", state));
+    if (state.isFinal()) {
+      close();
+    }
+  }
+
+  @Override
+  public void onProgress(long rowCount, List<Map<String, Object>> batch) {
+    send("progress", ImmutableMap.of("id", queryId, "rows", rowCount));
+    if (!batch.isEmpty()) {
+      send("rows", ImmutableMap.of("id", queryId, "rows", batch));
+    }
+  }
+
+  @Override
+  public boolean wantsRows() {
+    return rows;
+  }
+
+  private void send(String event, Object data) {
+    String chunk;
+    try {
+      chunk = String.format("event: %s\ndata: %s\n\n", event, mapper.writeValueAsString(data));
+    } catch (JsonProcessingException json_exc) {
+      logger.warn(String.format("Failed to serialize %s event for query {%d}", event, queryId), json_exc);
+      return;
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      if (buffer.size() >= bufferEvents) {
+        logger.info(String.format("Event stream for query {%d} dropped because the client is not keeping up",
+            queryId));
+        buffer.clear();
+        close();
+        return;
+      }
+      buffer.add(chunk);
+      schedule();
+    }
+  }
+
+  /**
+   * Stops taking events. The stream is closed by the writer once the events before it have been written.
+   */
+  private synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (work != null) {
+      work.removeListener(this);
+    }
+    schedule();
+  }
+
+  // Called with the lock held
+  private void schedule() {
+    if (!writing) {
+      writing = true;
+      writer.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      String chunk;
+      synchronized (this) {
+        chunk = buffer.poll();
+        if (chunk == null) {
+          writing = false;
+          if (!closed) {
+            return;
+          }
+        }
+      }
+      if (chunk == null) {
+        try {
+          output.close();
+        } catch (IOException io_exc) {
+          logger.warn(String.format("Failed to close event stream for query {%d}", queryId), io_exc);
+        }
+        return;
+      }
+      try {
+        output.write(chunk);
+      } catch (IOException io_exc) {
+        logger.info(String.format("Event stream for query {%d} closed by client", queryId));
+        synchronized (this) {
+          buffer.clear();
+        }
+        close();
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package io.tokern.dbaudit.core.executor;
+
+import io.tokern.dbaudit.api.Database;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Identifies queries that produce the same result: the same SQL on the same database with the same limits.
+ * SQL is compared after dropping comments, collapsing whitespace outside of quoted text and dropping a trailing
+ * semicolon. Case is kept because it matters inside string literals and quoted identifiers.
+ * What counts as a comment or as quoted text depends on the database:
+ * <ul>
+ *   <li>MySQL and MariaDB escape quotes with a backslash, quote identifiers with backticks and also start line
+ *   comments with #. -- only starts a comment when it is followed by whitespace.</li>
+ *   <li>PostgreSQL escapes quotes with a backslash in E'' strings, nests block comments and has dollar quoted
+ *   strings.</li>
+ *   <li>H2 also starts line comments with // and has $$ quoted strings.</li>
+ * </ul>
+ * A line comment ends at the end of the line, so the newline still separates what comes before and after it.
+ * Optimizer hints and MySQL executable comments, /*+ and /*!, are kept as they are. When the database is not known
+ * the SQL is compared exactly.
+ */
+public final class QueryKey {
+  private static final Pattern DOLLAR_TAG = Pattern.compile("\\$(?:[A-Za-z_][A-Za-z0-9_]*)?\\$");
+
+  private QueryKey() {}
+
+  public static String normalize(String sql, Database.Driver driver) {
+    if (driver == null) {
+      return sql;
+    }
+    boolean mysql = driver == Database.Driver.MYSQL || driver == Database.Driver.MARIADB;
+    boolean postgres = driver == Database.Driver.POSTGRESQL;
+    boolean h2 = driver == Database.Driver.H2;
+
+    StringBuilder builder = new StringBuilder(sql.length());
+    boolean space = false;
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = true;
+        i++;
+        continue;
+      }
+
+      int end;
+      if (isLineComment(sql, i, mysql, h2)) {
+        end = sql.indexOf('\n', i);
+        i = end < 0 ? sql.length() : end;
+        space = true;
+        continue;
+      } else if (sql.startsWith("/*", i) && !sql.startsWith("/*+", i) && !sql.startsWith("/*!", i)) {
+        i = blockCommentEnd(sql, i, postgres);
+        space = true;
+        continue;
+      } else if (sql.startsWith("/*", i)) {
+        end = blockCommentEnd(sql, i, false);
+      } else if (c == '\'' || c == '"' || (mysql && c == '`')) {
+        boolean backslash = (mysql && c != '`') || (postgres && c == '\'' && isEscapeString(sql, i));
+        end = quoteEnd(sql, i, backslash);
+      } else if (c == '$' && (postgres || h2) && (i == 0 || !Character.isJavaIdentifierPart(sql.charAt(i - 1)))) {
+        end = dollarQuoteEnd(sql, i, postgres);
+      } else {
+        end = i + 1;
+      }
+
+      if (space && builder.length() > 0) {
+        builder.append(' ');
+      }
+      space = false;
+      builder.append(sql, i, end);
+      i = end;
+    }
+
+    int length = builder.length();
+    while (length > 0 && (builder.charAt(length - 1) == ';' || builder.charAt(length - 1) == ' ')) {
+      length--;
+    }
+    builder.setLength(length);
+    return builder.toString();
+  }
+
+  private static boolean isLineComment(String sql, int i, boolean mysql, boolean h2) {
+    if (sql.startsWith("--", i)) {
+      // In MySQL 1--1 is 1 - (-1)
+      return !mysql || i + 2 == sql.length() || Character.isWhitespace(sql.charAt(i + 2))
+          || Character.isISOControl(sql.charAt(i + 2));
+    }
+    return (mysql && sql.charAt(i) == '#') || (h2 && sql.startsWith("//", i));
+  }
+
+  private static int blockCommentEnd(String sql, int i, boolean nested) {
+    int depth = 0;
+    while (i < sql.length()) {
+      if (sql.startsWith("/*", i) && (nested || depth == 0)) {
+        depth++;
+        i += 2;
+      } else if (sql.startsWith("*/", i)) {
+        i += 2;
+        if (--depth == 0) {
+          return i;
+        }
+      } else {
+        i++;
+      }
+    }
+    return sql.length();
+  }
+
+  /**
+   * E'...' in PostgreSQL, as long as the E is not the end of a longer word.
+   */
+  private static boolean isEscapeString(String sql, int i) {
+    return i > 0 && (sql.charAt(i - 1) == 'E' || sql.charAt(i - 1) == 'e')
+        && (i == 1 || !Character.isJavaIdentifierPart(sql.charAt(i - 2)));
+  }
+
+  private static int quoteEnd(String sql, int i, boolean backslash) {
+    char quote = sql.charAt(i);
+    int j = i + 1;
+    while (j < sql.length()) {
+      char c = sql.charAt(j);
+      if (backslash && c == '\\') {
+        j += 2;
+      } else if (c == quote && j + 1 < sql.length() && sql.charAt(j + 1) == quote) {
+        j += 2;
+      } else if (c == quote) {
+        return j + 1;
+      } else {
+        j++;
+      }
+    }
+    return sql.length();
+  }
+
+  private static int dollarQuoteEnd(String sql, int i, boolean tagged) {
+    Matcher matcher = DOLLAR_TAG.matcher(sql).region(i, sql.length());
+    if (!matcher.lookingAt() || (!tagged && matcher.end() - i != 2)) {
+      return i + 1;
+    }
+    String tag = matcher.group();
+    int close = sql.indexOf(tag, matcher.end());
+    return close < 0 ? sql.length() : close + tag.length();
+  }
+
+  public static String of(long dbId, Database.Driver driver, String sql, QueryLimits limits) {
+    return String.format("%d:%d:%d:%d:%s", dbId, limits.maxRows, limits.maxResultBytes, limits.timeoutSeconds,
+        normalize(sql, driver));
+  }
+}
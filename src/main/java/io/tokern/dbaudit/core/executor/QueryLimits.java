@@ -0,0 +1,60 @@
+package io.tokern.dbaudit.core.executor;
+
+/**
+ * Caps applied to a single query while it runs and its result is fetched from the target database.
+ * A timeout of 0 means the query may run for as long as it needs. BLOB and CLOB values are cut to
+ * lobPreviewLength bytes or characters, or kept whole if it is 0. Statements are created by fetch, so that rows
+ * are fetched a few at a time.
+ */
+public class QueryLimits {
+  public static final QueryLimits UNLIMITED = new QueryLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 0, 0,
+      FetchStrategy.DEFAULT);
+
+  public final int maxRows;
+  public final long maxResultBytes;
+  public final int timeoutSeconds;
+  public final int lobPreviewLength;
+  public final FetchStrategy fetch;
+
+  public QueryLimits(int maxRows, long maxResultBytes, int timeoutSeconds, int lobPreviewLength,
+                     FetchStrategy fetch) {
+    this.maxRows = maxRows;
+    this.maxResultBytes = maxResultBytes;
+    this.timeoutSeconds = timeoutSeconds;
+    this.lobPreviewLength = lobPreviewLength;
+    this.fetch = fetch;
+  }
+
+  public QueryLimits(int maxRows, long maxResultBytes, int timeoutSeconds, int lobPreviewLength) {
+    this(maxRows, maxResultBytes, timeoutSeconds, lobPreviewLength, FetchStrategy.DEFAULT);
+  }
+
+  public QueryLimits(int maxRows, long maxResultBytes, int timeoutSeconds) {
+    this(maxRows, maxResultBytes, timeoutSeconds, 0);
+  }
+
+  public QueryLimits(int maxRows, long maxResultBytes) {
+    this(maxRows, maxResultBytes, 0);
+  }
+
+  /**
+   * Returns limits that are no larger than these, tightened by the optional overrides.
+   */
+  public QueryLimits tighten(Integer maxRows, Long maxResultBytes, Integer timeoutSeconds) {
+    boolean shorterTimeout = timeoutSeconds != null && timeoutSeconds > 0
+        && (this.timeoutSeconds == 0 || timeoutSeconds < this.timeoutSeconds);
+    return new QueryLimits(
+        maxRows != null ? Math.min(this.maxRows, maxRows) : this.maxRows,
+        maxResultBytes != null ? Math.min(this.maxResultBytes, maxResultBytes) : this.maxResultBytes,
+        shorterTimeout ? timeoutSeconds : this.timeoutSeconds,
+        lobPreviewLength,
+        fetch);
+  }
+
+  /**
+   * Value for Statement.setMaxRows. One extra row is fetched so that truncation can be detected.
+   */
+  public int statementMaxRows() {
+    return maxRows < Integer.MAX_VALUE ? maxRows + 1 : 0;
+  }
+}
@@ -0,0 +1,136 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.tokern.dbaudit.api.Query;
+import io.tokern.dbaudit.db.QueryDAO;
+
+import javax.sql.DataSource;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs a query and streams the rows of the open ResultSet to the HTTP response, as JSON, Smile, CBOR, CSV or an
+ * Arrow IPC stream.
+ * Unlike the result of {@link ThreadPool.Work} no copy of the rows is kept, so memory use does not depend on their
+ * number. The query is submitted to the {@link ThreadPool} like any other, so it waits for a permit of its
+ * database, can be cancelled and is held to its timeout. The worker reads and encodes the rows and the request
+ * thread writes them to the client through a {@link ResultPipe}. Time the worker spends waiting for a slow client
+ * does not count against the timeout, so that large exports are not cut off.
+ */
+public class QueryStream extends ThreadPool.Work implements StreamingOutput {
+  private static final SmileFactory smileFactory = new SmileFactory();
+  private static final CBORFactory cborFactory = new CBORFactory();
+
+  public enum Format {
+    JSON,
+    // JSON with each row as an array of values
+    COMPACT_JSON,
+    // The JSON shape in the binary encodings of Jackson
+    SMILE,
+    CBOR,
+    CSV,
+    ARROW
+  }
+
+  private final ObjectMapper mapper;
+  private final Format format;
+  private final ResultPipe pipe;
+  // Completed by the worker once the query has been executed
+  private final CompletableFuture<Void> executed = new CompletableFuture<>();
+
+  QueryStream(Query query, QueryDAO dao, DataSource dataSource, ObjectMapper mapper, QueryLimits limits,
+              MetricRegistry metricRegistry, Format format, long idleTimeoutMillis) {
+    super(query, dao, dataSource, limits, metricRegistry);
+    this.mapper = mapper;
+    this.format = format;
+    this.pipe = new ResultPipe(idleTimeoutMillis, this::pauseDeadline, this::resumeDeadline);
+  }
+
+  public QueryStream(Query query, QueryDAO dao, DataSource dataSource, ObjectMapper mapper,
+                     QueryLimits limits, MetricRegistry metricRegistry, Format format) {
+    this(query, dao, dataSource, mapper, limits, metricRegistry, format, ResultPipe.IDLE_TIMEOUT_MILLIS);
+  }
+
+  public QueryStream(Query query, QueryDAO dao, DataSource dataSource, ObjectMapper mapper,
+                     QueryLimits limits, MetricRegistry metricRegistry) {
+    this(query, dao, dataSource, mapper, limits, metricRegistry, Format.JSON);
+  }
+
+  /**
+   * Waits until the submitted query has been executed, so that errors are reported before the response is
+   * committed. Returns the error of a query that failed or was cancelled before it returned rows, or null.
+   */
+  public Throwable awaitExecution(CompletableFuture<ThreadPool.Result> future) {
+    try {
+      CompletableFuture.anyOf(executed, future).join();
+      return executed.isDone() ? null : future.join().throwable;
+    } catch (CancellationException exception) {
+      return exception;
+    } catch (CompletionException exception) {
+      return exception.getCause();
+    }
+  }
+
+  @Override
+  protected void onCancel() {
+    pipe.fail(new CancellationException(String.format("Query %d was cancelled", query.id)));
+  }
+
+  @Override
+  protected ThreadPool.Result read(ResultLimiter limiter) throws SQLException {
+    executed.complete(null);
+    try {
+      OutputStream output = pipe.getOutputStream();
+      if (format == Format.CSV) {
+        // CSV and Arrow have no place for the truncated flag. The limits apply all the same.
+        new CsvWriter(output).write(limiter.getResultSet());
+      } else if (format == Format.ARROW) {
+        new ArrowWriter(output).write(limiter.getResultSet());
+      } else {
+        try (JsonGenerator jgen = factory().createGenerator(output)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+          new RowSetSerializer(format == Format.COMPACT_JSON, limits.lobPreviewLength).serialize(limiter.getResultSet(),
+              limiter::isTruncated, jgen, mapper.getSerializerProviderInstance());
+        }
+      }
+      pipe.finish();
+      // The rows went to the client, so there is nothing to keep
+      return new ThreadPool.Result(null, null, limiter.isTruncated());
+    } catch (IOException io_exc) {
+      pipe.fail(io_exc);
+      throw new UncheckedIOException(io_exc);
+    } catch (SQLException | RuntimeException exception) {
+      pipe.fail(exception);
+      throw exception;
+    }
+  }
+
+  private JsonFactory factory() {
+    if (format == Format.SMILE) {
+      return smileFactory;
+    } else if (format == Format.CBOR) {
+      return cborFactory;
+    }
+    return mapper.getFactory();
+  }
+
+  /**
+   * Writes the rows on the request thread as the worker produces them. Fails if the query fails or is cancelled
+   * before the last row.
+   */
+  @Override
+  public void write(OutputStream output) throws IOException {
+    pipe.copyTo(output);
+  }
+}
@@ -0,0 +1,127 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the results of recent queries until clients read them, bounded by their estimated size rather than by
+ * their number. A query that has not finished weighs {@link #PENDING_WEIGHT}. Its entry is weighed again with the
+ * size of the result once it completes.
+ * With a {@link ResultSpill}, large results and results that are evicted, either to make room or because they
+ * expired, are moved to disk, and results that are no longer in memory are read back from there.
+ */
+public class ResultCache {
+  static final int PENDING_WEIGHT = 1024;
+
+  private final Cache<Long, CompletableFuture<ThreadPool.Result>> cache;
+  private final ResultSpill spill;
+  private final long spillThresholdBytes;
+
+  public ResultCache(ResultCacheConfiguration configuration, ResultSpill spill, MetricRegistry metricRegistry) {
+    this(configuration, spill, metricRegistry, Ticker.systemTicker());
+  }
+
+  ResultCache(ResultCacheConfiguration configuration, ResultSpill spill, MetricRegistry metricRegistry,
+              Ticker ticker) {
+    this.spill = spill;
+    this.spillThresholdBytes = configuration.getSpillThresholdBytes();
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .maximumWeight(configuration.getMaxWeightBytes())
+        .ticker(ticker)
+        .recordStats();
+    if (configuration.getExpireAfterWriteSeconds() > 0) {
+      builder.expireAfterWrite(configuration.getExpireAfterWriteSeconds(), TimeUnit.SECONDS);
+    }
+    if (configuration.getExpireAfterAccessSeconds() > 0) {
+      builder.expireAfterAccess(configuration.getExpireAfterAccessSeconds(), TimeUnit.SECONDS);
+    }
+    cache = builder.weigher((Long id, CompletableFuture<ThreadPool.Result> future) ->
+        (int) Math.min(Integer.MAX_VALUE, weigh(future)))
+        .removalListener(this::onRemoval)
+        .build();
+
+    metricRegistry.register(MetricRegistry.name(ResultCache.class, "hits"),
+        (Gauge<Long>) () -> cache.stats().hitCount());
+    metricRegistry.register(MetricRegistry.name(ResultCache.class, "misses"),
+        (Gauge<Long>) () -> cache.stats().missCount());
+    metricRegistry.register(MetricRegistry.name(ResultCache.class, "evictions"),
+        (Gauge<Long>) () -> cache.stats().evictionCount());
+    metricRegistry.register(MetricRegistry.name(ResultCache.class, "hit-ratio"), new RatioGauge() {
+      @Override
+      protected Ratio getRatio() {
+        return Ratio.of(cache.stats().hitCount(), cache.stats().requestCount());
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(ResultCache.class, "size"), (Gauge<Long>) cache::size);
+    metricRegistry.register(MetricRegistry.name(ResultCache.class, "weight"), (Gauge<Long>) this::weight);
+  }
+
+  public ResultCache(ResultCacheConfiguration configuration, MetricRegistry metricRegistry) {
+    this(configuration, null, metricRegistry);
+  }
+
+  static long weigh(CompletableFuture<ThreadPool.Result> future) {
+    if (future.isDone() && !future.isCompletedExceptionally() && !future.isCancelled()) {
+      ThreadPool.Result result = future.join();
+      return PENDING_WEIGHT + (result.isSuccess() ? result.bytes : 0);
+    }
+    return PENDING_WEIGHT;
+  }
+
+  /**
+   * Where results are moved to disk, or null if they are only kept in memory.
+   */
+  public ResultSpill getSpill() {
+    return spill;
+  }
+
+  public void put(long queryId, CompletableFuture<ThreadPool.Result> future) {
+    cache.put(queryId, future);
+    // Guava weighs an entry when it is written, so write it again once the size of the result is known
+    future.thenAccept(result -> {
+      ThreadPool.Result spilled = spill != null && result.isSuccess() && result.bytes > spillThresholdBytes
+          ? spill.write(queryId, result) : null;
+      cache.asMap().replace(queryId, future,
+          spilled != null ? CompletableFuture.completedFuture(spilled) : future);
+    });
+  }
+
+  public CompletableFuture<ThreadPool.Result> getIfPresent(long queryId) {
+    CompletableFuture<ThreadPool.Result> future = cache.getIfPresent(queryId);
+    if (future == null && spill != null) {
+      // Guava may not have sent the removal of an expired entry yet, which is when it is written to disk
+      cache.cleanUp();
+      ThreadPool.Result spilled = spill.read(queryId);
+      if (spilled != null) {
+        future = CompletableFuture.completedFuture(spilled);
+        cache.asMap().putIfAbsent(queryId, future);
+      }
+    }
+    return future;
+  }
+
+  private void onRemoval(RemovalNotification<Long, CompletableFuture<ThreadPool.Result>> notification) {
+    CompletableFuture<ThreadPool.Result> future = notification.getValue();
+    // Entries evicted for size or expired are spilled. Entries that were replaced or removed on purpose are not.
+    if (spill != null && notification.wasEvicted() && future != null && future.isDone()
+        && !future.isCompletedExceptionally() && !future.isCancelled()) {
+      ThreadPool.Result result = future.join();
+      // Results that were read back from disk weigh nothing and are already spilled
+      if (result.isSuccess() && result.bytes > 0) {
+        spill.write(notification.getKey(), result);
+      }
+    }
+  }
+
+  public long weight() {
+    return cache.asMap().values().stream().mapToLong(ResultCache::weigh).sum();
+  }
+}
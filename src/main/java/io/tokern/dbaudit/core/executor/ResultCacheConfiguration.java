@@ -0,0 +1,104 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class ResultCacheConfiguration {
+  // Upper bound on the estimated memory used by the results of finished queries
+  @Min(1)
+  private long maxWeightBytes = 512L * 1024 * 1024;
+
+  // 0 disables the expiry
+  @Min(0)
+  private int expireAfterWriteSeconds = 3600;
+
+  @Min(0)
+  private int expireAfterAccessSeconds = 900;
+
+  // Directory for results that are spilled to disk. Results are only kept in memory when not set, and then the
+  // whole value of a BLOB or CLOB that is longer than its preview cannot be downloaded.
+  private String spillDirectory;
+
+  // Results larger than this are spilled as soon as they are complete
+  @Min(0)
+  private long spillThresholdBytes = 64L * 1024 * 1024;
+
+  @Min(1)
+  private int spillRetentionSeconds = 86400;
+
+  // Most bytes of whole BLOB and CLOB values that are kept on disk for one result. Values past it only keep their
+  // preview.
+  @Min(0)
+  private long spillLobMaxBytes = ResultSpill.MAX_LOB_BYTES;
+
+  @JsonProperty
+  public long getMaxWeightBytes() {
+    return maxWeightBytes;
+  }
+
+  @JsonProperty
+  public void setMaxWeightBytes(long maxWeightBytes) {
+    this.maxWeightBytes = maxWeightBytes;
+  }
+
+  @JsonProperty
+  public int getExpireAfterWriteSeconds() {
+    return expireAfterWriteSeconds;
+  }
+
+  @JsonProperty
+  public void setExpireAfterWriteSeconds(int expireAfterWriteSeconds) {
+    this.expireAfterWriteSeconds = expireAfterWriteSeconds;
+  }
+
+  @JsonProperty
+  public int getExpireAfterAccessSeconds() {
+    return expireAfterAccessSeconds;
+  }
+
+  @JsonProperty
+  public void setExpireAfterAccessSeconds(int expireAfterAccessSeconds) {
+    this.expireAfterAccessSeconds = expireAfterAccessSeconds;
+  }
+
+  @JsonProperty
+  public String getSpillDirectory() {
+    return spillDirectory;
+  }
+
+  @JsonProperty
+  public void setSpillDirectory(String spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+
+  @JsonProperty
+  public long getSpillThresholdBytes() {
+    return spillThresholdBytes;
+  }
+
+  @JsonProperty
+  public void setSpillThresholdBytes(long spillThresholdBytes) {
+    this.spillThresholdBytes = spillThresholdBytes;
+  }
+
+  @JsonProperty
+  public int getSpillRetentionSeconds() {
+    return spillRetentionSeconds;
+  }
+
+  @JsonProperty
+  public void setSpillRetentionSeconds(int spillRetentionSeconds) {
+    this.spillRetentionSeconds = spillRetentionSeconds;
+  }
+
+  @JsonProperty
+  public long getSpillLobMaxBytes() {
+    return spillLobMaxBytes;
+  }
+
+  @JsonProperty
+  public void setSpillLobMaxBytes(long spillLobMaxBytes) {
+    this.spillLobMaxBytes = spillLobMaxBytes;
+  }
+}
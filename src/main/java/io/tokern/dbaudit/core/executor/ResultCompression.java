@@ -0,0 +1,301 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses query results with the first encoding of the configuration that the client accepts. zstd is only
+ * used when the client names it in Accept-Encoding. A response is held back until it reaches the minimum size, and
+ * is sent as it is if it ends before that.
+ * Once a query has finished its result does not change, so with a {@link ResultSpill} the compressed response is
+ * kept on disk and sent again as it is to the next client that asks for the same variant of the result.
+ */
+@CompressedResult
+public class ResultCompression implements WriterInterceptor {
+  private static final Logger logger = LoggerFactory.getLogger(ResultCompression.class);
+  private static final String ANY = "*";
+
+  public enum Encoding {
+    ZSTD("zstd"),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    public final String token;
+
+    Encoding(String token) {
+      this.token = token;
+    }
+  }
+
+  private final List<Encoding> encodings;
+  private final int minimumSizeBytes;
+  private final int deflateLevel;
+  private final int zstdLevel;
+  private final ResultSpill spill;
+  private final Meter compressed;
+  private final Meter cached;
+
+  @Context
+  private HttpHeaders headers;
+
+  @Context
+  private UriInfo uriInfo;
+
+  public ResultCompression(CompressionConfiguration configuration, ResultSpill spill,
+                           MetricRegistry metricRegistry) {
+    this.encodings = configuration.getEncodings();
+    this.minimumSizeBytes = configuration.getMinimumSizeBytes();
+    this.deflateLevel = configuration.getDeflateLevel();
+    this.zstdLevel = configuration.getZstdLevel();
+    this.spill = configuration.isCacheCompressed() ? spill : null;
+    this.compressed = metricRegistry.meter(MetricRegistry.name(ResultCompression.class, "compressed"));
+    this.cached = metricRegistry.meter(MetricRegistry.name(ResultCompression.class, "cached"));
+  }
+
+  /**
+   * The first of the encodings that Accept-Encoding allows, or null if it allows none of them.
+   */
+  Encoding negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    Map<String, Float> accepted = new HashMap<>();
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      float quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(parameter.substring(2));
+          } catch (NumberFormatException exception) {
+            quality = 0;
+          }
+        }
+      }
+      accepted.put(parts[0].trim().toLowerCase(Locale.ROOT), quality);
+    }
+    for (Encoding encoding : encodings) {
+      Float quality = accepted.get(encoding.token);
+      if (quality == null && encoding != Encoding.ZSTD) {
+        quality = accepted.get(ANY);
+      }
+      if (quality != null && quality > 0) {
+        return encoding;
+      }
+    }
+    return null;
+  }
+
+  OutputStream compress(Encoding encoding, OutputStream output) throws IOException {
+    switch (encoding) {
+      case ZSTD:
+        return new ZstdOutputStream(output, zstdLevel);
+      case GZIP:
+        return new GZIPOutputStream(output) {
+          {
+            def.setLevel(deflateLevel);
+          }
+        };
+      default:
+        return new DeflaterOutputStream(output, new Deflater(deflateLevel)) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              def.end();
+            }
+          }
+        };
+    }
+  }
+
+  /**
+   * Errors and queries that have not finished are not kept.
+   */
+  static boolean isFinal(Object entity) {
+    if (entity instanceof ThreadPool.Result) {
+      return ((ThreadPool.Result) entity).isSuccess();
+    }
+    return entity != null && !(entity instanceof String) && !(entity instanceof Throwable);
+  }
+
+  /**
+   * Tells apart the responses made from one result by the request path and parameters, the media type and the
+   * encoding.
+   */
+  private String variant(WriterInterceptorContext context, Encoding encoding) {
+    String request = uriInfo.getPath() + "?" + uriInfo.getRequestUri().getRawQuery() + " " + context.getMediaType()
+        + " " + encoding.token;
+    return Hashing.sha256().hashString(request, StandardCharsets.UTF_8).toString().substring(0, 32);
+  }
+
+  private Long queryId() {
+    String queryId = uriInfo.getPathParameters().getFirst("queryId");
+    try {
+      return queryId != null ? Long.valueOf(queryId) : null;
+    } catch (NumberFormatException exception) {
+      return null;
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+    MultivaluedMap<String, Object> responseHeaders = context.getHeaders();
+    responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    Encoding encoding = negotiate(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+    if (encoding == null || responseHeaders.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+      context.proceed();
+      return;
+    }
+
+    Long queryId = spill != null && isFinal(context.getEntity()) ? queryId() : null;
+    String variant = queryId != null ? variant(context, encoding) : null;
+    if (variant != null) {
+      try (InputStream input = spill.readCompressed(queryId, variant)) {
+        if (input != null) {
+          responseHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, encoding.token);
+          ByteStreams.copy(input, context.getOutputStream());
+          cached.mark();
+          return;
+        }
+      }
+    }
+
+    ResultSpill.SpillOutput copy = variant != null ? spill.writeCompressed(queryId, variant) : null;
+    try {
+      CompressingOutput output = new CompressingOutput(context.getOutputStream(), responseHeaders, encoding, copy);
+      context.setOutputStream(output);
+      context.proceed();
+      output.finish();
+      if (copy != null && output.isCompressed()) {
+        copy.commit();
+      }
+    } finally {
+      if (copy != null) {
+        try {
+          copy.close();
+        } catch (IOException io_exc) {
+          logger.warn(String.format("Failed to cache compressed result of query {%d}", queryId), io_exc);
+        }
+      }
+    }
+  }
+
+  /**
+   * Buffers the response until it reaches the minimum size, then sets Content-Encoding and compresses the rest of
+   * it. The compressed bytes are also written to copy when it is set.
+   */
+  private class CompressingOutput extends OutputStream {
+    private final OutputStream output;
+    private final MultivaluedMap<String, Object> responseHeaders;
+    private final Encoding encoding;
+    private final OutputStream copy;
+    private final byte[] buffer = new byte[minimumSizeBytes];
+    private int count = 0;
+    private OutputStream compressor;
+    private boolean finished = false;
+
+    CompressingOutput(OutputStream output, MultivaluedMap<String, Object> responseHeaders, Encoding encoding,
+                      OutputStream copy) {
+      this.output = output;
+      this.responseHeaders = responseHeaders;
+      this.encoding = encoding;
+      this.copy = copy;
+    }
+
+    boolean isCompressed() {
+      return compressor != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (compressor == null && count + len < buffer.length) {
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        return;
+      }
+      if (compressor == null) {
+        start();
+      }
+      compressor.write(b, off, len);
+    }
+
+    private void start() throws IOException {
+      // Nothing has been written to the response yet, so the headers can still be changed
+      responseHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, encoding.token);
+      responseHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+      compressor = compress(encoding, new FilterOutputStream(output) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          if (copy != null) {
+            copy.write(b, off, len);
+          }
+        }
+
+        @Override
+        public void close() throws IOException {
+          // The response is closed by Jersey
+          flush();
+        }
+      });
+      compressor.write(buffer, 0, count);
+      compressed.mark();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (compressor != null) {
+        compressor.flush();
+      }
+    }
+
+    void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      if (compressor != null) {
+        compressor.close();
+      } else {
+        output.write(buffer, 0, count);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
+    }
+  }
+}
@@ -0,0 +1,504 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * Wraps a ResultSet so that fetching stops once the row or byte budget of {@link QueryLimits} is used up.
+ * The byte count is an estimate of the heap used by the values read so far. It is checked before every row so a
+ * result can overshoot the budget by at most one row.
+ */
+public class ResultLimiter {
+  /**
+   * Called with the underlying ResultSet after every row that is let through.
+   */
+  public interface RowObserver {
+    void onRow(ResultSet row, long rows) throws SQLException;
+  }
+
+  private static final long PRIMITIVE_SIZE = 24;
+
+  private final ResultSet resultSet;
+  private final QueryLimits limits;
+  private final ResultSet limited;
+
+  private long rows = 0;
+  private long bytes = 0;
+  private boolean truncated = false;
+  private final RowObserver observer;
+
+  public ResultLimiter(ResultSet resultSet, QueryLimits limits, RowObserver observer) {
+    this.resultSet = resultSet;
+    this.limits = limits;
+    this.observer = observer;
+    this.limited = new LimitedResultSet(resultSet);
+  }
+
+  public ResultLimiter(ResultSet resultSet, QueryLimits limits) {
+    this(resultSet, limits, null);
+  }
+
+  public ResultSet getResultSet() {
+    return limited;
+  }
+
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Marks the truncation meters if a cap was hit.
+   */
+  public void record(MetricRegistry metricRegistry) {
+    if (truncated) {
+      metricRegistry.meter(MetricRegistry.name(ResultLimiter.class, "truncated")).mark();
+      if (rows >= limits.maxRows) {
+        metricRegistry.meter(MetricRegistry.name(ResultLimiter.class, "truncated", "rows")).mark();
+      } else {
+        metricRegistry.meter(MetricRegistry.name(ResultLimiter.class, "truncated", "bytes")).mark();
+      }
+    }
+  }
+
+  private boolean next() throws SQLException {
+    if (truncated) {
+      return false;
+    }
+    if (rows >= limits.maxRows || bytes >= limits.maxResultBytes) {
+      truncated = resultSet.next();
+      return false;
+    }
+    boolean hasNext = resultSet.next();
+    if (hasNext) {
+      rows++;
+      if (observer != null) {
+        observer.onRow(resultSet, rows);
+      }
+    }
+    return hasNext;
+  }
+
+  /**
+   * Estimates the heap used by a value. Only the first lobPreviewLength bytes or characters of a BLOB or CLOB are
+   * kept, so that is all that is counted for them.
+   */
+  static long estimateSize(Object value, int lobPreviewLength) throws SQLException {
+    if (value == null) {
+      return 8;
+    } else if (value instanceof String) {
+      return 40 + 2L * ((String) value).length();
+    } else if (value instanceof byte[]) {
+      return 16 + ((byte[]) value).length;
+    } else if (value instanceof Blob) {
+      return 16 + storedLength(((Blob) value).length(), lobPreviewLength);
+    } else if (value instanceof Clob) {
+      return 40 + 2 * storedLength(((Clob) value).length(), lobPreviewLength);
+    } else if (value instanceof Number || value instanceof Boolean || value instanceof java.util.Date) {
+      return PRIMITIVE_SIZE;
+    }
+    return 64;
+  }
+
+  private static long storedLength(long length, int lobPreviewLength) {
+    return lobPreviewLength > 0 ? Math.min(length, lobPreviewLength) : length;
+  }
+
+  /**
+   * Counts the values read through the value getters. Primitive getters add a fixed size so that they do not box.
+   */
+  private class LimitedResultSet extends DelegatingResultSet {
+    LimitedResultSet(ResultSet resultSet) {
+      super(resultSet);
+    }
+
+    private <V> V count(V value) throws SQLException {
+      bytes += estimateSize(value, limits.lobPreviewLength);
+      return value;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      return ResultLimiter.this.next();
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+      return count(resultSet.getString(columnIndex));
+    }
+
+    @Override
+    public boolean getBoolean(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getBoolean(columnIndex);
+    }
+
+    @Override
+    public byte getByte(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getByte(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getShort(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getDouble(columnIndex);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+      return count(resultSet.getBigDecimal(columnIndex, scale));
+    }
+
+    @Override
+    public byte[] getBytes(int columnIndex) throws SQLException {
+      return count(resultSet.getBytes(columnIndex));
+    }
+
+    @Override
+    public Date getDate(int columnIndex) throws SQLException {
+      return count(resultSet.getDate(columnIndex));
+    }
+
+    @Override
+    public Time getTime(int columnIndex) throws SQLException {
+      return count(resultSet.getTime(columnIndex));
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+      return count(resultSet.getTimestamp(columnIndex));
+    }
+
+    @Override
+    public InputStream getAsciiStream(int columnIndex) throws SQLException {
+      return count(resultSet.getAsciiStream(columnIndex));
+    }
+
+    @Override
+    public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+      return count(resultSet.getUnicodeStream(columnIndex));
+    }
+
+    @Override
+    public InputStream getBinaryStream(int columnIndex) throws SQLException {
+      return count(resultSet.getBinaryStream(columnIndex));
+    }
+
+    @Override
+    public String getString(String columnLabel) throws SQLException {
+      return count(resultSet.getString(columnLabel));
+    }
+
+    @Override
+    public boolean getBoolean(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getBoolean(columnLabel);
+    }
+
+    @Override
+    public byte getByte(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getByte(columnLabel);
+    }
+
+    @Override
+    public short getShort(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getShort(columnLabel);
+    }
+
+    @Override
+    public int getInt(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getInt(columnLabel);
+    }
+
+    @Override
+    public long getLong(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getLong(columnLabel);
+    }
+
+    @Override
+    public float getFloat(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getFloat(columnLabel);
+    }
+
+    @Override
+    public double getDouble(String columnLabel) throws SQLException {
+      bytes += PRIMITIVE_SIZE;
+      return resultSet.getDouble(columnLabel);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+      return count(resultSet.getBigDecimal(columnLabel, scale));
+    }
+
+    @Override
+    public byte[] getBytes(String columnLabel) throws SQLException {
+      return count(resultSet.getBytes(columnLabel));
+    }
+
+    @Override
+    public Date getDate(String columnLabel) throws SQLException {
+      return count(resultSet.getDate(columnLabel));
+    }
+
+    @Override
+    public Time getTime(String columnLabel) throws SQLException {
+      return count(resultSet.getTime(columnLabel));
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel) throws SQLException {
+      return count(resultSet.getTimestamp(columnLabel));
+    }
+
+    @Override
+    public InputStream getAsciiStream(String columnLabel) throws SQLException {
+      return count(resultSet.getAsciiStream(columnLabel));
+    }
+
+    @Override
+    public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+      return count(resultSet.getUnicodeStream(columnLabel));
+    }
+
+    @Override
+    public InputStream getBinaryStream(String columnLabel) throws SQLException {
+      return count(resultSet.getBinaryStream(columnLabel));
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+      return count(resultSet.getObject(columnIndex));
+    }
+
+    @Override
+    public Object getObject(String columnLabel) throws SQLException {
+      return count(resultSet.getObject(columnLabel));
+    }
+
+    @Override
+    public Reader getCharacterStream(int columnIndex) throws SQLException {
+      return count(resultSet.getCharacterStream(columnIndex));
+    }
+
+    @Override
+    public Reader getCharacterStream(String columnLabel) throws SQLException {
+      return count(resultSet.getCharacterStream(columnLabel));
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+      return count(resultSet.getBigDecimal(columnIndex));
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+      return count(resultSet.getBigDecimal(columnLabel));
+    }
+
+    @Override
+    public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+      return count(resultSet.getObject(columnIndex, map));
+    }
+
+    @Override
+    public Ref getRef(int columnIndex) throws SQLException {
+      return count(resultSet.getRef(columnIndex));
+    }
+
+    @Override
+    public Blob getBlob(int columnIndex) throws SQLException {
+      return count(resultSet.getBlob(columnIndex));
+    }
+
+    @Override
+    public Clob getClob(int columnIndex) throws SQLException {
+      return count(resultSet.getClob(columnIndex));
+    }
+
+    @Override
+    public Array getArray(int columnIndex) throws SQLException {
+      return count(resultSet.getArray(columnIndex));
+    }
+
+    @Override
+    public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+      return count(resultSet.getObject(columnLabel, map));
+    }
+
+    @Override
+    public Ref getRef(String columnLabel) throws SQLException {
+      return count(resultSet.getRef(columnLabel));
+    }
+
+    @Override
+    public Blob getBlob(String columnLabel) throws SQLException {
+      return count(resultSet.getBlob(columnLabel));
+    }
+
+    @Override
+    public Clob getClob(String columnLabel) throws SQLException {
+      return count(resultSet.getClob(columnLabel));
+    }
+
+    @Override
+    public Array getArray(String columnLabel) throws SQLException {
+      return count(resultSet.getArray(columnLabel));
+    }
+
+    @Override
+    public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+      return count(resultSet.getDate(columnIndex, cal));
+    }
+
+    @Override
+    public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+      return count(resultSet.getDate(columnLabel, cal));
+    }
+
+    @Override
+    public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+      return count(resultSet.getTime(columnIndex, cal));
+    }
+
+    @Override
+    public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+      return count(resultSet.getTime(columnLabel, cal));
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+      return count(resultSet.getTimestamp(columnIndex, cal));
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+      return count(resultSet.getTimestamp(columnLabel, cal));
+    }
+
+    @Override
+    public URL getURL(int columnIndex) throws SQLException {
+      return count(resultSet.getURL(columnIndex));
+    }
+
+    @Override
+    public URL getURL(String columnLabel) throws SQLException {
+      return count(resultSet.getURL(columnLabel));
+    }
+
+    @Override
+    public RowId getRowId(int columnIndex) throws SQLException {
+      return count(resultSet.getRowId(columnIndex));
+    }
+
+    @Override
+    public RowId getRowId(String columnLabel) throws SQLException {
+      return count(resultSet.getRowId(columnLabel));
+    }
+
+    @Override
+    public NClob getNClob(int columnIndex) throws SQLException {
+      return count(resultSet.getNClob(columnIndex));
+    }
+
+    @Override
+    public NClob getNClob(String columnLabel) throws SQLException {
+      return count(resultSet.getNClob(columnLabel));
+    }
+
+    @Override
+    public SQLXML getSQLXML(int columnIndex) throws SQLException {
+      return count(resultSet.getSQLXML(columnIndex));
+    }
+
+    @Override
+    public SQLXML getSQLXML(String columnLabel) throws SQLException {
+      return count(resultSet.getSQLXML(columnLabel));
+    }
+
+    @Override
+    public String getNString(int columnIndex) throws SQLException {
+      return count(resultSet.getNString(columnIndex));
+    }
+
+    @Override
+    public String getNString(String columnLabel) throws SQLException {
+      return count(resultSet.getNString(columnLabel));
+    }
+
+    @Override
+    public Reader getNCharacterStream(int columnIndex) throws SQLException {
+      return count(resultSet.getNCharacterStream(columnIndex));
+    }
+
+    @Override
+    public Reader getNCharacterStream(String columnLabel) throws SQLException {
+      return count(resultSet.getNCharacterStream(columnLabel));
+    }
+
+    @Override
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+      return count(resultSet.getObject(columnIndex, type));
+    }
+
+    @Override
+    public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+      return count(resultSet.getObject(columnLabel, type));
+    }
+  }
+}
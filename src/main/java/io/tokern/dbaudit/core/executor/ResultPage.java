@@ -0,0 +1,77 @@
+package io.tokern.dbaudit.core.executor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * A window of rows of a view of a stored result. Serialized like the full result, with the position of the
+ * window, the number of rows in the view and, if there are more rows, a cursor for the next page. The cursor is
+ * only a position, so the next page must be requested with the same operators. Compact pages write each row as an
+ * array of values.
+ */
+public class ResultPage {
+  public final long queryId;
+  public final ThreadPool.Result result;
+  public final ResultView view;
+  public final int offset;
+  public final int limit;
+  public final boolean compact;
+
+  public ResultPage(long queryId, ThreadPool.Result result, ResultView view, int offset, int limit,
+                    boolean compact) {
+    this.queryId = queryId;
+    this.result = result;
+    this.view = view;
+    this.offset = Math.min(offset, view.getRowCount());
+    this.limit = limit;
+    this.compact = compact;
+  }
+
+  public ResultPage(long queryId, ThreadPool.Result result, ResultView view, int offset, int limit) {
+    this(queryId, result, view, offset, limit, false);
+  }
+
+  public ResultPage(long queryId, ThreadPool.Result result, int offset, int limit) {
+    this(queryId, result, new ResultView(result.rows), offset, limit);
+  }
+
+  /**
+   * Index after the last row of the page.
+   */
+  public int getEnd() {
+    return (int) Math.min((long) offset + limit, view.getRowCount());
+  }
+
+  /**
+   * Cursor for the page after this one, or null if this is the last page.
+   */
+  public String getNextCursor() {
+    return getEnd() < view.getRowCount() ? cursor(queryId, getEnd()) : null;
+  }
+
+  /**
+   * Cursors are opaque to clients and only valid for the query they were issued for.
+   */
+  public static String cursor(long queryId, int offset) {
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(String.format("%d:%d", queryId, offset).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the offset a cursor points to.
+   */
+  public static int parseCursor(long queryId, String cursor) throws IllegalArgumentException {
+    String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+    try {
+      if (parts.length == 2 && Long.parseLong(parts[0]) == queryId) {
+        int offset = Integer.parseInt(parts[1]);
+        if (offset >= 0) {
+          return offset;
+        }
+      }
+    } catch (NumberFormatException exception) {
+      // Reported below
+    }
+    throw new IllegalArgumentException(String.format("Cursor %s is not valid for query %d", cursor, queryId));
+  }
+}
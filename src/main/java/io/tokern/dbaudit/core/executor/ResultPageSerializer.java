@@ -0,0 +1,33 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+public class ResultPageSerializer extends JsonSerializer<ResultPage> {
+  private final ColumnarResultSerializer rowsSerializer = new ColumnarResultSerializer();
+
+  @Override
+  public Class<ResultPage> handledType() {
+    return ResultPage.class;
+  }
+
+  @Override
+  public void serialize(ResultPage page, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+    rowsSerializer.writeStart(page.view, jgen);
+    rowsSerializer.writeRows(page.view, page.offset, page.getEnd(), page.compact, jgen, provider);
+    if (page.result.truncated) {
+      jgen.writeBooleanField("truncated", true);
+    }
+    jgen.writeNumberField("offset", page.offset);
+    jgen.writeNumberField("limit", page.limit);
+    jgen.writeNumberField("rowCount", page.view.getRowCount());
+    String nextCursor = page.getNextCursor();
+    if (nextCursor != null) {
+      jgen.writeStringField("nextCursor", nextCursor);
+    }
+    rowsSerializer.writeEnd(jgen);
+  }
+}
@@ -0,0 +1,183 @@
+package io.tokern.dbaudit.core.executor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the bytes of a streamed result from the worker that reads the rows to the request thread that writes the
+ * response. The worker waits once the pipe holds {@link #MAX_CHUNKS} chunks, so a slow client slows down the fetch
+ * instead of filling the heap.
+ * The stream ends when the worker calls {@link #finish}. After {@link #fail} the request thread gets an error
+ * instead, so that a client never mistakes a cut off result for a whole one.
+ * If the request thread takes nothing for the idle timeout, for example because the response was abandoned before
+ * it was written, the pipe fails so that the worker lets go of its connection.
+ */
+class ResultPipe {
+  static final int CHUNK_SIZE = 8192;
+  static final int MAX_CHUNKS = 16;
+  static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  private final long idleTimeoutMillis;
+  // Told when the worker starts and stops waiting for the request thread
+  private final Runnable waiting;
+  private final Runnable resumed;
+
+  // Guarded by this
+  private final Deque<byte[]> chunks = new ArrayDeque<>();
+  private boolean finished = false;
+  private Throwable failure = null;
+  private boolean closed = false;
+
+  private final OutputStream output = new OutputStream() {
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int count = 0;
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flush();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          flush();
+        }
+        int copied = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, copied);
+        count += copied;
+        off += copied;
+        len -= copied;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (count > 0) {
+        put(Arrays.copyOf(buffer, count));
+        count = 0;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  };
+
+  ResultPipe(long idleTimeoutMillis, Runnable waiting, Runnable resumed) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.waiting = waiting;
+    this.resumed = resumed;
+  }
+
+  ResultPipe() {
+    this(IDLE_TIMEOUT_MILLIS, () -> {}, () -> {});
+  }
+
+  /**
+   * The end that the worker writes to.
+   */
+  OutputStream getOutputStream() {
+    return output;
+  }
+
+  private synchronized void put(byte[] chunk) throws IOException {
+    if (chunks.size() >= MAX_CHUNKS && !closed && failure == null) {
+      waiting.run();
+      try {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        while (chunks.size() >= MAX_CHUNKS && !closed && failure == null) {
+          long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+          if (remaining <= 0) {
+            fail(new IOException(String.format("The client read nothing for %d ms", idleTimeoutMillis)));
+            break;
+          }
+          wait(remaining);
+        }
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the client");
+      } finally {
+        resumed.run();
+      }
+    }
+    if (closed) {
+      throw new IOException("The client stopped reading the result");
+    } else if (failure != null) {
+      throw new IOException(failure.getMessage(), failure);
+    }
+    chunks.add(chunk);
+    notifyAll();
+  }
+
+  /**
+   * Sends what is left in the worker's buffer and ends the stream.
+   */
+  void finish() throws IOException {
+    output.flush();
+    synchronized (this) {
+      finished = true;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Ends the stream with an error. Chunks that the request thread has not written yet are dropped.
+   */
+  synchronized void fail(Throwable throwable) {
+    if (finished || failure != null) {
+      return;
+    }
+    failure = throwable;
+    chunks.clear();
+    notifyAll();
+  }
+
+  /**
+   * Called by the request thread when it stops reading, so that a waiting worker gives up.
+   */
+  synchronized void close() {
+    closed = true;
+    chunks.clear();
+    notifyAll();
+  }
+
+  private synchronized byte[] take() throws IOException {
+    while (chunks.isEmpty() && !finished && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for rows");
+      }
+    }
+    if (failure != null) {
+      throw new IOException(failure.getMessage(), failure);
+    }
+    byte[] chunk = chunks.poll();
+    notifyAll();
+    return chunk;
+  }
+
+  /**
+   * Writes the stream to the response on the request thread until the worker finishes it.
+   */
+  void copyTo(OutputStream response) throws IOException {
+    try {
+      for (byte[] chunk = take(); chunk != null; chunk = take()) {
+        response.write(chunk);
+      }
+    } finally {
+      close();
+    }
+  }
+}
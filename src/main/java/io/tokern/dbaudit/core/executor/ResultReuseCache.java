@@ -0,0 +1,97 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.tokern.dbaudit.api.Database;
+import io.tokern.dbaudit.api.User;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves repeated queries from memory for databases that opt in with a cache TTL.
+ * Entries are keyed by the role of the caller and the {@link QueryKey} of the query, weighed by the estimated size
+ * of the result and expire after the TTL of their database.
+ */
+public class ResultReuseCache {
+  private static class Entry {
+    final ThreadPool.Result result;
+    final long queryId;
+    final long expiresAt;
+
+    Entry(ThreadPool.Result result, long queryId, long expiresAt) {
+      this.result = result;
+      this.queryId = queryId;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  public static class Hit {
+    public final ThreadPool.Result result;
+    // The query that produced the result
+    public final long queryId;
+
+    Hit(ThreadPool.Result result, long queryId) {
+      this.result = result;
+      this.queryId = queryId;
+    }
+  }
+
+  private final Cache<String, Entry> cache;
+  private final Meter hits;
+  private final Meter misses;
+
+  public ResultReuseCache(long maxWeightBytes, MetricRegistry metricRegistry) {
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxWeightBytes)
+        .weigher((String key, Entry entry) ->
+            (int) Math.min(Integer.MAX_VALUE, entry.result.bytes + 2L * key.length()))
+        .build();
+    hits = metricRegistry.meter(MetricRegistry.name(ResultReuseCache.class, "hits"));
+    misses = metricRegistry.meter(MetricRegistry.name(ResultReuseCache.class, "misses"));
+    metricRegistry.register(MetricRegistry.name(ResultReuseCache.class, "hit-ratio"), new RatioGauge() {
+      @Override
+      protected Ratio getRatio() {
+        return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(ResultReuseCache.class, "weight"), (Gauge<Long>) () ->
+        cache.asMap().values().stream().mapToLong(entry -> entry.result.bytes).sum());
+  }
+
+  public static boolean isEnabled(Database database) {
+    return database.getCacheTtlSeconds() != null && database.getCacheTtlSeconds() > 0;
+  }
+
+  public static String key(User.SystemRoles role, String queryKey) {
+    return String.format("%s:%s", role, queryKey);
+  }
+
+  /**
+   * Returns a cached result that has not expired, or null. The off-heap rows of the result are shared with the
+   * cache and with every other caller that gets the same entry, so callers must treat the result as read-only.
+   */
+  public Hit get(String key) {
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null && entry.expiresAt <= System.nanoTime()) {
+      cache.asMap().remove(key, entry);
+      entry = null;
+    }
+    if (entry == null) {
+      misses.mark();
+      return null;
+    }
+    hits.mark();
+    return new Hit(entry.result, entry.queryId);
+  }
+
+  public void put(Database database, String key, long queryId, ThreadPool.Result result) {
+    if (isEnabled(database) && result.isSuccess()) {
+      long ttl = TimeUnit.SECONDS.toNanos(database.getCacheTtlSeconds());
+      cache.put(key, new Entry(result, queryId, System.nanoTime() + ttl));
+    }
+  }
+}
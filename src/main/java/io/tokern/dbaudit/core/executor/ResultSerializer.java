@@ -0,0 +1,26 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+public class ResultSerializer extends JsonSerializer<ThreadPool.Result> {
+  private final ColumnarResultSerializer rowsSerializer = new ColumnarResultSerializer();
+
+  @Override
+  public Class<ThreadPool.Result> handledType() {
+    return ThreadPool.Result.class;
+  }
+
+  @Override
+  public void serialize(ThreadPool.Result result, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException {
+    if (result.isSuccess()) {
+      rowsSerializer.serialize(result.rows, result.truncated, jgen, provider);
+    } else {
+      provider.defaultSerializeValue(result.throwable, jgen);
+    }
+  }
+}
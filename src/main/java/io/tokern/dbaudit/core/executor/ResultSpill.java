@@ -0,0 +1,448 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps results in segment files, one per query, so that they outlive the result cache and restarts of the
+ * server. A segment is read back with {@link FileChannel#map}, so its rows are paged in by the operating system
+ * instead of being copied to memory. Compressed responses made from a result can be kept next to its segment, so
+ * that downloading the result again does not compress it again. BLOB and CLOB values that results only keep a
+ * preview of are written whole while the query runs, into one file per result and up to a quota, so that they can
+ * be downloaded later without running the query again. All of these files are deleted once they are older than the
+ * retention time.
+ */
+public class ResultSpill implements Managed {
+  private static final Logger logger = LoggerFactory.getLogger(ResultSpill.class);
+  private static final String SUFFIX = ".result";
+  private static final String COMPRESSED_SUFFIX = ".compressed";
+  private static final String LOB_SUFFIX = ".lobs";
+  // Row, column, offset and length of a value
+  private static final int LOB_ENTRY_SIZE = 24;
+  // Offset of the index and number of values
+  private static final int LOB_TRAILER_SIZE = 12;
+  static final long MAX_LOB_BYTES = 256L * 1024 * 1024;
+  private static final int HEADER_SIZE = 8;
+  private static final int TRUNCATED = 1;
+
+  private final Path directory;
+  private final long retentionMillis;
+  private final ScheduledExecutorService purger;
+  private final Meter writes;
+  private final Meter reads;
+  private final Meter lobsDropped;
+  private final long maxLobBytes;
+
+  public ResultSpill(Path directory, int retentionSeconds, long maxLobBytes, MetricRegistry metricRegistry) {
+    this.directory = directory;
+    this.retentionMillis = TimeUnit.SECONDS.toMillis(retentionSeconds);
+    this.maxLobBytes = maxLobBytes;
+    this.purger = Executors.newSingleThreadScheduledExecutor();
+    this.writes = metricRegistry.meter(MetricRegistry.name(ResultSpill.class, "writes"));
+    this.reads = metricRegistry.meter(MetricRegistry.name(ResultSpill.class, "reads"));
+    this.lobsDropped = metricRegistry.meter(MetricRegistry.name(ResultSpill.class, "lobs", "dropped"));
+  }
+
+  public ResultSpill(Path directory, int retentionSeconds, MetricRegistry metricRegistry) {
+    this(directory, retentionSeconds, MAX_LOB_BYTES, metricRegistry);
+  }
+
+  public ResultSpill(ResultCacheConfiguration configuration, MetricRegistry metricRegistry) {
+    this(Paths.get(configuration.getSpillDirectory()), configuration.getSpillRetentionSeconds(),
+        configuration.getSpillLobMaxBytes(), metricRegistry);
+  }
+
+  @Override
+  public void start() throws Exception {
+    Files.createDirectories(directory);
+    purger.scheduleWithFixedDelay(this::purge, 0, 1, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    purger.shutdownNow();
+  }
+
+  private Path segment(long queryId) {
+    return directory.resolve(queryId + SUFFIX);
+  }
+
+  /**
+   * Writes the rows of a successful result to the segment of the query. Returns the result read back from the
+   * segment, or null if it could not be written.
+   */
+  public ThreadPool.Result write(long queryId, ThreadPool.Result result) {
+    if (!result.isSuccess()) {
+      return null;
+    }
+    Path segment = segment(queryId);
+    try {
+      Path temporary = Files.createTempFile(directory, queryId + "-", SUFFIX);
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(result.truncated ? TRUNCATED : 0).putInt(0).flip();
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        ByteBuffer rows = result.rows.getBuffer();
+        while (rows.hasRemaining()) {
+          channel.write(rows);
+        }
+        channel.force(false);
+      }
+      Files.move(temporary, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      writes.mark();
+      logger.info(String.format("Query {%d} result spilled to %s", queryId, segment));
+      return read(queryId);
+    } catch (IOException io_exc) {
+      logger.warn(String.format("Failed to spill result of query {%d}", queryId), io_exc);
+      return null;
+    }
+  }
+
+  /**
+   * Maps the segment of a query. Returns null if there is none.
+   */
+  public ThreadPool.Result read(long queryId) {
+    try (FileChannel channel = FileChannel.open(segment(queryId), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // Read the whole header
+      }
+      header.flip();
+      boolean truncated = (header.getInt() & TRUNCATED) != 0;
+      // The mapping stays valid after the channel is closed
+      MappedByteBuffer rows = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, channel.size() - HEADER_SIZE);
+      reads.mark();
+      // Mapped rows do not take up memory of their own, so they do not count against the result cache
+      return new ThreadPool.Result(new ColumnarResult(rows), null, truncated, 0);
+    } catch (NoSuchFileException exception) {
+      return null;
+    } catch (IOException | RuntimeException exception) {
+      logger.warn(String.format("Failed to read spilled result of query {%d}", queryId), exception);
+      return null;
+    }
+  }
+
+  private Path compressed(long queryId, String variant) {
+    return directory.resolve(queryId + "-" + variant + COMPRESSED_SUFFIX);
+  }
+
+  /**
+   * Opens a compressed response of a query. The variant tells apart the responses that can be made from one
+   * result. Returns null if there is none.
+   */
+  public InputStream readCompressed(long queryId, String variant) {
+    try {
+      return Files.newInputStream(compressed(queryId, variant));
+    } catch (NoSuchFileException exception) {
+      return null;
+    } catch (IOException io_exc) {
+      logger.warn(String.format("Failed to read compressed result of query {%d}", queryId), io_exc);
+      return null;
+    }
+  }
+
+  /**
+   * Starts writing a compressed response of a query. It is kept only if {@link SpillOutput#commit} is called
+   * before the stream is closed. Returns null if the file could not be created.
+   */
+  public SpillOutput writeCompressed(long queryId, String variant) {
+    try {
+      // Named like a compressed response, so that the purge deletes it if it is left behind
+      Path temporary = Files.createTempFile(directory, queryId + "-", COMPRESSED_SUFFIX);
+      return new SpillOutput(temporary, compressed(queryId, variant));
+    } catch (IOException io_exc) {
+      logger.warn(String.format("Failed to cache compressed result of query {%d}", queryId), io_exc);
+      return null;
+    }
+  }
+
+  private Path lobs(long queryId) {
+    return directory.resolve(queryId + LOB_SUFFIX);
+  }
+
+  /**
+   * Opens the whole value of a cell that was kept by {@link #writeLobs}. The value of a CLOB is UTF-8 text.
+   * Returns null if there is none.
+   */
+  public InputStream readLob(long queryId, int row, int column) {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(lobs(queryId), StandardOpenOption.READ);
+    } catch (NoSuchFileException exception) {
+      return null;
+    } catch (IOException io_exc) {
+      logger.warn(String.format("Failed to read values of query {%d}", queryId), io_exc);
+      return null;
+    }
+    try {
+      long size = channel.size();
+      ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - LOB_TRAILER_SIZE, LOB_TRAILER_SIZE);
+      long indexOffset = trailer.getLong();
+      int entries = trailer.getInt();
+      ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) entries * LOB_ENTRY_SIZE);
+      // Entries are in the order the values were fetched, by row and then by column
+      int low = 0;
+      int high = entries - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int entry = middle * LOB_ENTRY_SIZE;
+        int compare = index.getInt(entry) != row ? Integer.compare(index.getInt(entry), row)
+            : Integer.compare(index.getInt(entry + 4), column);
+        if (compare < 0) {
+          low = middle + 1;
+        } else if (compare > 0) {
+          high = middle - 1;
+        } else {
+          channel.position(index.getLong(entry + 8));
+          return ByteStreams.limit(Channels.newInputStream(channel), index.getLong(entry + 16));
+        }
+      }
+      channel.close();
+      return null;
+    } catch (IOException | RuntimeException exception) {
+      logger.warn(String.format("Failed to read value of row {%d} column {%d} of query {%d}", row, column,
+          queryId), exception);
+      try {
+        channel.close();
+      } catch (IOException io_exc) {
+        logger.warn(String.format("Failed to close values of query {%d}", queryId), io_exc);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Starts keeping the BLOB and CLOB values of a query that are cut to a preview.
+   */
+  public LobOutput writeLobs(long queryId) {
+    return new LobOutput(queryId);
+  }
+
+  /**
+   * Writes the whole BLOB and CLOB values of one result. The values are appended to one file, followed by an
+   * index of where each of them starts and a trailer that points to the index. Once the values of the result
+   * would go past the quota no more are kept, and those values only have their preview. The file is created with
+   * the first value, and it is kept only if {@link #commit} is called before it is closed.
+   */
+  public class LobOutput implements ColumnarResult.LobSink, Closeable {
+    private final long queryId;
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+    private Path temporary;
+    private CountingOutputStream output;
+    private int entries = 0;
+    private boolean full = false;
+    private boolean failed = false;
+    private boolean committed = false;
+
+    LobOutput(long queryId) {
+      this.queryId = queryId;
+    }
+
+    /**
+     * Whether a value of length bytes still fits in the quota. The file is opened for the first value.
+     */
+    private boolean fits(long length) throws IOException {
+      if (full || failed) {
+        return false;
+      }
+      if ((output != null ? output.getCount() : 0) + length > maxLobBytes) {
+        full = true;
+        lobsDropped.mark();
+        logger.info(String.format("Values of query {%d} past %d bytes only keep their preview", queryId,
+            maxLobBytes));
+        return false;
+      }
+      if (output == null) {
+        // Named like kept values, so that the purge deletes it if it is left behind
+        temporary = Files.createTempFile(directory, queryId + "-", LOB_SUFFIX);
+        output = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+      }
+      return true;
+    }
+
+    private void add(int row, int column, long start) throws IOException {
+      index.writeInt(row);
+      index.writeInt(column);
+      index.writeLong(start);
+      index.writeLong(output.getCount() - start);
+      entries++;
+    }
+
+    private void fail(int row, int column, IOException exception) {
+      failed = true;
+      logger.warn(String.format("Failed to keep value of row {%d} column {%d} of query {%d}", row, column,
+          queryId), exception);
+    }
+
+    @Override
+    public void keep(int row, int column, Blob blob) throws SQLException {
+      try {
+        if (!fits(blob.length())) {
+          return;
+        }
+        long start = output.getCount();
+        try (InputStream input = blob.getBinaryStream()) {
+          byte[] chunk = new byte[LobStream.CHUNK_SIZE];
+          int length;
+          while ((length = input.read(chunk)) > 0) {
+            output.write(chunk, 0, length);
+          }
+        }
+        add(row, column, start);
+      } catch (IOException io_exc) {
+        fail(row, column, io_exc);
+      }
+    }
+
+    @Override
+    public void keep(int row, int column, Clob clob) throws SQLException {
+      try {
+        // UTF-8 takes at most 3 bytes for a char
+        if (!fits(3 * clob.length())) {
+          return;
+        }
+        long start = output.getCount();
+        try (Reader input = clob.getCharacterStream()) {
+          Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+          char[] chunk = new char[LobStream.CHUNK_SIZE];
+          int length;
+          while ((length = input.read(chunk)) > 0) {
+            writer.write(chunk, 0, length);
+          }
+          writer.flush();
+        }
+        add(row, column, start);
+      } catch (IOException io_exc) {
+        fail(row, column, io_exc);
+      }
+    }
+
+    public void commit() {
+      committed = true;
+    }
+
+    @Override
+    public void close() {
+      if (output == null) {
+        return;
+      }
+      try {
+        boolean keep = committed && !failed && entries > 0;
+        if (keep) {
+          long indexOffset = output.getCount();
+          index.flush();
+          indexBytes.writeTo(output);
+          DataOutputStream trailer = new DataOutputStream(output);
+          trailer.writeLong(indexOffset);
+          trailer.writeInt(entries);
+          trailer.flush();
+        }
+        output.close();
+        if (keep) {
+          Files.move(temporary, lobs(queryId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          logger.info(String.format("Query {%d} kept %d values in %s", queryId, entries, lobs(queryId)));
+        }
+      } catch (IOException io_exc) {
+        logger.warn(String.format("Failed to keep values of query {%d}", queryId), io_exc);
+      } finally {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException io_exc) {
+          logger.warn(String.format("Failed to delete %s", temporary), io_exc);
+        }
+      }
+    }
+  }
+
+  /**
+   * A file that is written under a temporary name and moved into place once it is complete.
+   */
+  public class SpillOutput extends FilterOutputStream {
+    private final Path temporary;
+    private final Path target;
+    private boolean committed = false;
+
+    SpillOutput(Path temporary, Path target) throws IOException {
+      super(Files.newOutputStream(temporary));
+      this.temporary = temporary;
+      this.target = target;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    public void commit() {
+      committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+        if (committed) {
+          Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    }
+  }
+
+  /**
+   * Deletes segments, compressed responses and values that are older than the retention time.
+   */
+  void purge() {
+    long oldest = System.currentTimeMillis() - retentionMillis;
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory,
+        "*{" + SUFFIX + "," + COMPRESSED_SUFFIX + "," + LOB_SUFFIX + "}")) {
+      for (Path segment : segments) {
+        if (Files.getLastModifiedTime(segment).toMillis() < oldest) {
+          Files.deleteIfExists(segment);
+        }
+      }
+    } catch (IOException io_exc) {
+      logger.warn(String.format("Failed to purge spilled results in %s", directory), io_exc);
+    }
+  }
+}
@@ -0,0 +1,332 @@
+package io.tokern.dbaudit.core.executor;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Rows and columns of a stored result after filters, sorting, top-N and projection have been applied. The stored
+ * result is not copied: a view only holds the indices of its rows and columns.
+ */
+public class ResultView {
+  public enum Operator {
+    EQ, NE, LT, LE, GT, GE, CONTAINS, ISNULL, NOTNULL
+  }
+
+  private final ColumnarResult rows;
+  private final int[] columns;
+  // Null when the view has every row in stored order
+  private final int[] index;
+
+  private ResultView(ColumnarResult rows, int[] columns, int[] index) {
+    this.rows = rows;
+    this.columns = columns;
+    this.index = index;
+  }
+
+  /**
+   * A view of every row and column.
+   */
+  public ResultView(ColumnarResult rows) {
+    this(rows, IntStream.range(0, rows.getColumnCount()).toArray(), null);
+  }
+
+  public ColumnarResult getRows() {
+    return rows;
+  }
+
+  public int getRowCount() {
+    return index != null ? index.length : rows.getRowCount();
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  /**
+   * Index in the stored result of a row of the view.
+   */
+  public int row(int row) {
+    return index != null ? index[row] : row;
+  }
+
+  /**
+   * Index in the stored result of a column of the view.
+   */
+  public int column(int column) {
+    return columns[column];
+  }
+
+  /**
+   * Applies the operators in the order filter, sort, top-N and projection. Every argument is optional.
+   *
+   * @param filters predicates of the form column:operator[:value], that must all hold
+   * @param sort comma-separated column labels, each prefixed with - for descending order
+   * @param top the number of rows to keep after sorting
+   * @param projection comma-separated labels of the columns to keep
+   */
+  public static ResultView of(ColumnarResult rows, List<String> filters, String sort, Integer top,
+                              String projection) throws IllegalArgumentException {
+    ResultView view = new ResultView(rows);
+    if (filters != null && !filters.isEmpty()) {
+      List<IntPredicate> predicates = new ArrayList<>();
+      for (String filter : filters) {
+        String[] parts = filter.split(":", 3);
+        if (parts.length < 2) {
+          throw new IllegalArgumentException(String.format("Filter %s is not of the form column:operator:value",
+              filter));
+        }
+        Operator operator;
+        try {
+          operator = Operator.valueOf(parts[1].toUpperCase());
+        } catch (IllegalArgumentException exception) {
+          throw new IllegalArgumentException(String.format("Filter operator %s is not one of %s", parts[1],
+              Arrays.toString(Operator.values())));
+        }
+        predicates.add(view.predicate(view.find(parts[0]), operator, parts.length > 2 ? parts[2] : null));
+      }
+      view = view.filter(row -> predicates.stream().allMatch(predicate -> predicate.test(row)));
+    }
+    if (sort != null && !sort.isEmpty()) {
+      Comparator<Integer> comparator = null;
+      for (String key : sort.split(",")) {
+        boolean descending = key.startsWith("-");
+        Comparator<Integer> next = view.comparator(view.find(descending ? key.substring(1) : key));
+        if (descending) {
+          next = next.reversed();
+        }
+        comparator = comparator == null ? next : comparator.thenComparing(next);
+      }
+      view = view.sort(comparator, top);
+    } else if (top != null) {
+      view = view.limit(top);
+    }
+    if (projection != null && !projection.isEmpty()) {
+      view = view.project(Arrays.stream(projection.split(",")).mapToInt(view::find).toArray());
+    }
+    return view;
+  }
+
+  /**
+   * Index in the stored result of the column with a label. Labels are matched case-insensitively if there is
+   * no exact match.
+   */
+  int find(String label) throws IllegalArgumentException {
+    for (int column : columns) {
+      if (rows.getColumn(column).label.equals(label)) {
+        return column;
+      }
+    }
+    for (int column : columns) {
+      if (rows.getColumn(column).label.equalsIgnoreCase(label)) {
+        return column;
+      }
+    }
+    throw new IllegalArgumentException(String.format("Column %s is not in the result", label));
+  }
+
+  public ResultView filter(IntPredicate predicate) {
+    return new ResultView(rows, columns, IntStream.range(0, getRowCount()).map(this::row).filter(predicate)
+        .toArray());
+  }
+
+  /**
+   * Sorts the rows. With top set only the first rows are kept, which are found without sorting the whole result.
+   */
+  public ResultView sort(Comparator<Integer> comparator, Integer top) {
+    int count = getRowCount();
+    if (top == null || top >= count) {
+      return new ResultView(rows, columns, IntStream.range(0, count).map(this::row).boxed().sorted(comparator)
+          .mapToInt(Integer::intValue).toArray());
+    }
+    if (top <= 0) {
+      return new ResultView(rows, columns, new int[0]);
+    }
+    // Keeps the smallest rows seen so far, with the largest of them at the head
+    PriorityQueue<Integer> smallest = new PriorityQueue<>(top + 1, comparator.reversed());
+    for (int i = 0; i < count; i++) {
+      smallest.add(row(i));
+      if (smallest.size() > top) {
+        smallest.poll();
+      }
+    }
+    return new ResultView(rows, columns, smallest.stream().sorted(comparator).mapToInt(Integer::intValue)
+        .toArray());
+  }
+
+  public ResultView limit(int top) {
+    return new ResultView(rows, columns, IntStream.range(0, Math.max(0, Math.min(top, getRowCount())))
+        .map(this::row).toArray());
+  }
+
+  public ResultView project(int[] columns) {
+    return new ResultView(rows, columns, index);
+  }
+
+  private static boolean isDecimal(ColumnarResult.Column column) {
+    return column.sqlType == Types.DECIMAL || column.sqlType == Types.NUMERIC;
+  }
+
+  private static boolean isBinary(ColumnarResult.Column column) {
+    return column.encoding == ColumnarResult.Encoding.VARIABLE && (column.sqlType == Types.BINARY
+        || column.sqlType == Types.VARBINARY || column.sqlType == Types.LONGVARBINARY
+        || column.sqlType == Types.BLOB);
+  }
+
+  /**
+   * Orders the rows of the stored result by a column. NULL sorts before any value.
+   */
+  Comparator<Integer> comparator(int column) {
+    ColumnarResult.Column col = rows.getColumn(column);
+    Comparator<Integer> values;
+    if (isDecimal(col)) {
+      values = Comparator.comparing(row -> new BigDecimal(rows.getString(row, column)));
+    } else if (isBinary(col)) {
+      values = (left, right) -> Arrays.compareUnsigned(rows.getBytes(left, column), rows.getBytes(right, column));
+    } else {
+      switch (col.encoding) {
+        case INT32:
+        case INT64:
+          values = Comparator.comparingLong(row -> rows.getLong(row, column));
+          break;
+        case FLOAT64:
+          values = Comparator.comparingDouble(row -> rows.getDouble(row, column));
+          break;
+        case BOOLEAN:
+          values = Comparator.comparing(row -> rows.getBoolean(row, column));
+          break;
+        case DICTIONARY:
+          // Strings are compared once per dictionary entry instead of once per pair of rows
+          int[] ranks = ranks(column);
+          values = Comparator.comparingInt(row -> ranks[rows.getCode(row, column)]);
+          break;
+        default:
+          values = Comparator.comparing(row -> rows.getString(row, column));
+          break;
+      }
+    }
+    Comparator<Integer> compareValues = values;
+    return (left, right) -> {
+      boolean leftNull = rows.isNull(left, column);
+      boolean rightNull = rows.isNull(right, column);
+      if (leftNull || rightNull) {
+        return Boolean.compare(!leftNull, !rightNull);
+      }
+      return compareValues.compare(left, right);
+    };
+  }
+
+  private int[] ranks(int column) {
+    int size = rows.getDictionarySize(column);
+    String[] values = new String[size];
+    for (int code = 0; code < size; code++) {
+      values[code] = rows.getDictionaryValue(column, code);
+    }
+    Integer[] codes = IntStream.range(0, size).boxed().toArray(Integer[]::new);
+    Arrays.sort(codes, Comparator.comparing(code -> values[code]));
+    int[] ranks = new int[size];
+    for (int rank = 0; rank < size; rank++) {
+      ranks[codes[rank]] = rank;
+    }
+    return ranks;
+  }
+
+  /**
+   * Tests rows of the stored result. Except for ISNULL and NE, a NULL value never matches, as in SQL.
+   */
+  IntPredicate predicate(int column, Operator operator, String value) throws IllegalArgumentException {
+    if (operator == Operator.ISNULL) {
+      return row -> rows.isNull(row, column);
+    } else if (operator == Operator.NOTNULL) {
+      return row -> !rows.isNull(row, column);
+    }
+    if (value == null) {
+      throw new IllegalArgumentException(String.format("Filter operator %s needs a value", operator));
+    }
+
+    ColumnarResult.Column col = rows.getColumn(column);
+    if (operator == Operator.CONTAINS) {
+      if (isBinary(col)) {
+        throw new IllegalArgumentException(String.format("Column %s cannot be searched", col.label));
+      }
+      String needle = value.toLowerCase();
+      return row -> !rows.isNull(row, column) && rows.getString(row, column).toLowerCase().contains(needle);
+    }
+
+    IntPredicate notNull = row -> !rows.isNull(row, column);
+    if (col.encoding == ColumnarResult.Encoding.DICTIONARY && !isDecimal(col)
+        && (operator == Operator.EQ || operator == Operator.NE)) {
+      // Equality is decided once per dictionary entry
+      boolean[] matches = new boolean[rows.getDictionarySize(column)];
+      for (int code = 0; code < matches.length; code++) {
+        matches[code] = rows.getDictionaryValue(column, code).equals(value) == (operator == Operator.EQ);
+      }
+      return notNull.and(row -> matches[rows.getCode(row, column)]);
+    }
+
+    IntUnaryOperator toValue = compareToValue(column, col, value);
+    return notNull.and(row -> matches(operator, toValue.applyAsInt(row)));
+  }
+
+  private static boolean matches(Operator operator, int comparison) {
+    switch (operator) {
+      case EQ:
+        return comparison == 0;
+      case NE:
+        return comparison != 0;
+      case LT:
+        return comparison < 0;
+      case LE:
+        return comparison <= 0;
+      case GT:
+        return comparison > 0;
+      case GE:
+        return comparison >= 0;
+      default:
+        throw new IllegalArgumentException(operator.name());
+    }
+  }
+
+  /**
+   * Compares the value of a row with a constant.
+   */
+  private IntUnaryOperator compareToValue(int column, ColumnarResult.Column col, String value)
+      throws IllegalArgumentException {
+    if (isBinary(col)) {
+      throw new IllegalArgumentException(String.format("Column %s can only be tested for NULL", col.label));
+    }
+    try {
+      if (isDecimal(col)) {
+        BigDecimal decimal = new BigDecimal(value);
+        return row -> new BigDecimal(rows.getString(row, column)).compareTo(decimal);
+      }
+      switch (col.encoding) {
+        case INT32:
+        case INT64:
+          long number = col.sqlType == Types.DATE && value.contains("-") ? Date.valueOf(value).getTime()
+              : col.sqlType == Types.TIMESTAMP && value.contains("-") ? Timestamp.valueOf(value).getTime()
+              : Long.parseLong(value);
+          return row -> Long.compare(rows.getLong(row, column), number);
+        case FLOAT64:
+          double real = Double.parseDouble(value);
+          return row -> Double.compare(rows.getDouble(row, column), real);
+        case BOOLEAN:
+          boolean bool = Boolean.parseBoolean(value);
+          return row -> Boolean.compare(rows.getBoolean(row, column), bool);
+        default:
+          return row -> rows.getString(row, column).compareTo(value);
+      }
+    } catch (IllegalArgumentException exception) {
+      throw new IllegalArgumentException(String.format("%s is not a valid value for column %s", value, col.label));
+    }
+  }
+}
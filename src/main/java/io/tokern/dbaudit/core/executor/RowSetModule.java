@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.util.VersionUtil;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import javax.sql.RowSet;
+import java.sql.ResultSet;
 
 public class RowSetModule extends SimpleModule {
   private static final String NAME = "RowSetModule";
@@ -11,5 +12,9 @@ public class RowSetModule extends SimpleModule {
   public RowSetModule() {
     super(NAME, VersionUtil.versionFor(RowSetModule.class));
     addSerializer(RowSet.class, new RowSetSerializer());
+    addSerializer(ResultSet.class, new RowSetSerializer());
+    addSerializer(ColumnarResult.class, new ColumnarResultSerializer());
+    addSerializer(ThreadPool.Result.class, new ResultSerializer());
+    addSerializer(ResultPage.class, new ResultPageSerializer());
   }
 }
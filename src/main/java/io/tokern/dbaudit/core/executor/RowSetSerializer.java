@@ -5,12 +5,32 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 
-import javax.sql.RowSet;
 import java.io.IOException;
 import java.sql.*;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
 
 // Credit: https://stackoverflow.com/a/8120442
-public class RowSetSerializer extends JsonSerializer<RowSet> {
+// Serializes any ResultSet, so the same code path handles cached RowSets as well as open cursors that are
+// streamed straight from the target database.
+public class RowSetSerializer extends JsonSerializer<ResultSet> {
+  // Rows are written as arrays of values in the order of fields instead of objects keyed by column label
+  private final boolean compact;
+  // BLOB and CLOB values are cut to this many bytes or characters, or written whole if it is 0
+  private final int lobPreviewLength;
+
+  public RowSetSerializer(boolean compact, int lobPreviewLength) {
+    this.compact = compact;
+    this.lobPreviewLength = lobPreviewLength;
+  }
+
+  public RowSetSerializer(boolean compact) {
+    this(compact, 0);
+  }
+
+  public RowSetSerializer() {
+    this(false);
+  }
 
   public static class ResultSetSerializerException extends JsonProcessingException {
     private static final long serialVersionUID = -914957626413580734L;
@@ -21,19 +41,217 @@ public class RowSetSerializer extends JsonSerializer<RowSet> {
   }
 
   @Override
-  public Class<RowSet> handledType() {
-    return RowSet.class;
+  public Class<ResultSet> handledType() {
+    return ResultSet.class;
   }
 
   @Override
-  public void serialize(RowSet rs, JsonGenerator jgen, SerializerProvider provider)
+  public void serialize(ResultSet rs, JsonGenerator jgen, SerializerProvider provider)
+      throws IOException, JsonProcessingException {
+    serialize(rs, () -> false, jgen, provider);
+  }
+
+  /**
+   * Writes the value of one column of the current row. One writer is chosen per column from ResultSetMetaData
+   * before the first row, so that the type of a column is looked up once instead of once per cell.
+   */
+  private interface ColumnWriter {
+    void write(ResultSet rs, JsonGenerator jgen, SerializerProvider provider) throws IOException, SQLException;
+  }
+
+  /**
+   * Writes values of types without a dedicated writer with the Jackson serializer for their class. The
+   * serializer is looked up again only when the class of the value changes.
+   */
+  private static class ObjectWriter implements ColumnWriter {
+    private final int column;
+    private Class<?> type;
+    private JsonSerializer<Object> serializer;
+
+    ObjectWriter(int column) {
+      this.column = column;
+    }
+
+    @Override
+    public void write(ResultSet rs, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException, SQLException {
+      Object value = rs.getObject(column);
+      if (value == null) {
+        provider.defaultSerializeNull(jgen);
+        return;
+      }
+      if (value.getClass() != type) {
+        type = value.getClass();
+        serializer = provider.findTypedValueSerializer(type, true, null);
+      }
+      serializer.serialize(value, jgen, provider);
+    }
+  }
+
+  /**
+   * Writes UUIDs through a buffer that is reused for every row.
+   */
+  private static class UuidWriter implements ColumnWriter {
+    private final int column;
+    private final char[] buffer = new char[JsonValues.UUID_LENGTH];
+
+    UuidWriter(int column) {
+      this.column = column;
+    }
+
+    @Override
+    public void write(ResultSet rs, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException, SQLException {
+      Object value = rs.getObject(column);
+      if (value == null) {
+        jgen.writeNull();
+      } else if (value instanceof UUID) {
+        JsonValues.writeUuid((UUID) value, buffer, jgen);
+      } else {
+        jgen.writeString(value.toString());
+      }
+    }
+  }
+
+  /**
+   * Chooses the writer for the column at the 0-based index i.
+   */
+  private ColumnWriter writer(int i, int columnType, String typeName) {
+    if (JsonValues.isJson(columnType, typeName)) {
+      // The database has already checked the document, so JSON output takes it without parsing it again
+      return (rs, jgen, provider) -> {
+        String json = rs.getString(i + 1);
+        if (json == null) {
+          jgen.writeNull();
+        } else {
+          JsonValues.writeJson(json, jgen);
+        }
+      };
+    } else if (JsonValues.isUuid(columnType, typeName)) {
+      return new UuidWriter(i + 1);
+    } else if (columnType == Types.OTHER) {
+      // Driver objects, like PGobject for inet and cidr, print their value in getString
+      return (rs, jgen, provider) -> jgen.writeString(rs.getString(i + 1));
+    }
+
+    switch (columnType) {
+
+      case Types.INTEGER:
+        return (rs, jgen, provider) -> {
+          int l = rs.getInt(i + 1);
+          if (rs.wasNull()) {
+            jgen.writeNull();
+          } else {
+            jgen.writeNumber(l);
+          }
+        };
+
+      case Types.BIGINT:
+        return (rs, jgen, provider) -> {
+          long l = rs.getLong(i + 1);
+          if (rs.wasNull()) {
+            jgen.writeNull();
+          } else {
+            jgen.writeNumber(l);
+          }
+        };
+
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return (rs, jgen, provider) -> jgen.writeNumber(rs.getBigDecimal(i + 1));
+
+      case Types.FLOAT:
+      case Types.REAL:
+      case Types.DOUBLE:
+        return (rs, jgen, provider) -> {
+          double d = rs.getDouble(i + 1);
+          if (rs.wasNull()) {
+            jgen.writeNull();
+          } else {
+            jgen.writeNumber(d);
+          }
+        };
+
+      case Types.NVARCHAR:
+      case Types.VARCHAR:
+      case Types.LONGNVARCHAR:
+      case Types.LONGVARCHAR:
+        return (rs, jgen, provider) -> jgen.writeString(rs.getString(i + 1));
+
+      case Types.BOOLEAN:
+      case Types.BIT:
+        return (rs, jgen, provider) -> {
+          boolean b = rs.getBoolean(i + 1);
+          if (rs.wasNull()) {
+            jgen.writeNull();
+          } else {
+            jgen.writeBoolean(b);
+          }
+        };
+
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        return (rs, jgen, provider) -> jgen.writeBinary(rs.getBytes(i + 1));
+
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        return (rs, jgen, provider) -> {
+          short l = rs.getShort(i + 1);
+          if (rs.wasNull()) {
+            jgen.writeNull();
+          } else {
+            jgen.writeNumber(l);
+          }
+        };
+
+      case Types.DATE:
+        return (rs, jgen, provider) -> provider.defaultSerializeDateValue(rs.getDate(i + 1), jgen);
+
+      case Types.TIMESTAMP:
+        return (rs, jgen, provider) -> provider.defaultSerializeDateValue(rs.getTimestamp(i + 1), jgen);
+
+      case Types.BLOB:
+        return (rs, jgen, provider) -> {
+          byte[] bytes = LobStream.preview(rs.getBlob(i + 1), lobPreviewLength);
+          if (bytes == null) {
+            jgen.writeNull();
+          } else {
+            jgen.writeBinary(bytes);
+          }
+        };
+
+      case Types.CLOB:
+      case Types.NCLOB:
+        return (rs, jgen, provider) -> jgen.writeString(LobStream.preview(rs.getClob(i + 1), lobPreviewLength));
+
+      case Types.ARRAY:
+        return (rs, jgen, provider) -> JsonValues.writeArray(rs.getArray(i + 1), jgen, provider);
+
+      case Types.STRUCT:
+      case Types.DISTINCT:
+      case Types.REF:
+        // Written as text, like Types.OTHER
+        return (rs, jgen, provider) -> jgen.writeString(JsonValues.toText(rs, i + 1));
+
+      case Types.JAVA_OBJECT:
+      default:
+        return new ObjectWriter(i + 1);
+    }
+  }
+
+  /**
+   * Serializes the rows of the result set. The truncated flag is read after the last row so that it can be
+   * supplied by a {@link ResultLimiter} that is wrapping an open cursor.
+   */
+  public void serialize(ResultSet rs, BooleanSupplier truncated, JsonGenerator jgen, SerializerProvider provider)
       throws IOException, JsonProcessingException {
 
     try {
       ResultSetMetaData rsmd = rs.getMetaData();
       int numColumns = rsmd.getColumnCount();
       String[] columnNames = new String[numColumns];
-      int[] columnTypes = new int[numColumns];
+      ColumnWriter[] writers = new ColumnWriter[numColumns];
 
       jgen.writeStartObject();
       jgen.writeFieldName("queryResult");
@@ -48,7 +266,7 @@ public class RowSetSerializer extends JsonSerializer<RowSet> {
         jgen.writeNumber(rsmd.getPrecision(i + 1));
         jgen.writeEndObject();
         columnNames[i] = rsmd.getColumnLabel(i + 1);
-        columnTypes[i] = rsmd.getColumnType(i + 1);
+        writers[i] = writer(i, rsmd.getColumnType(i + 1), rsmd.getColumnTypeName(i + 1));
       }
       jgen.writeEndObject();
 
@@ -63,128 +281,26 @@ public class RowSetSerializer extends JsonSerializer<RowSet> {
       jgen.writeStartArray();
 
       while (rs.next()) {
-
-        boolean b;
-        long l;
-        double d;
-
-        jgen.writeStartObject();
-
-        for (int i = 0; i < columnNames.length; i++) {
-
-          jgen.writeFieldName(columnNames[i]);
-          switch (columnTypes[i]) {
-
-            case Types.INTEGER:
-              l = rs.getInt(i + 1);
-              if (rs.wasNull()) {
-                jgen.writeNull();
-              } else {
-                jgen.writeNumber(l);
-              }
-              break;
-
-            case Types.BIGINT:
-              l = rs.getLong(i + 1);
-              if (rs.wasNull()) {
-                jgen.writeNull();
-              } else {
-                jgen.writeNumber(l);
-              }
-              break;
-
-            case Types.DECIMAL:
-            case Types.NUMERIC:
-              jgen.writeNumber(rs.getBigDecimal(i + 1));
-              break;
-
-            case Types.FLOAT:
-            case Types.REAL:
-            case Types.DOUBLE:
-              d = rs.getDouble(i + 1);
-              if (rs.wasNull()) {
-                jgen.writeNull();
-              } else {
-                jgen.writeNumber(d);
-              }
-              break;
-
-            case Types.NVARCHAR:
-            case Types.VARCHAR:
-            case Types.LONGNVARCHAR:
-            case Types.LONGVARCHAR:
-              jgen.writeString(rs.getString(i + 1));
-              break;
-
-            case Types.BOOLEAN:
-            case Types.BIT:
-              b = rs.getBoolean(i + 1);
-              if (rs.wasNull()) {
-                jgen.writeNull();
-              } else {
-                jgen.writeBoolean(b);
-              }
-              break;
-
-            case Types.BINARY:
-            case Types.VARBINARY:
-            case Types.LONGVARBINARY:
-              jgen.writeBinary(rs.getBytes(i + 1));
-              break;
-
-            case Types.TINYINT:
-            case Types.SMALLINT:
-              l = rs.getShort(i + 1);
-              if (rs.wasNull()) {
-                jgen.writeNull();
-              } else {
-                jgen.writeNumber(l);
-              }
-              break;
-
-            case Types.DATE:
-              provider.defaultSerializeDateValue(rs.getDate(i + 1), jgen);
-              break;
-
-            case Types.TIMESTAMP:
-              provider.defaultSerializeDateValue(rs.getTime(i + 1), jgen);
-              break;
-
-            case Types.BLOB:
-              Blob blob = rs.getBlob(i);
-              provider.defaultSerializeValue(blob.getBinaryStream(), jgen);
-              blob.free();
-              break;
-
-            case Types.CLOB:
-              Clob clob = rs.getClob(i);
-              provider.defaultSerializeValue(clob.getCharacterStream(), jgen);
-              clob.free();
-              break;
-
-            case Types.ARRAY:
-              throw new RuntimeException("ResultSetSerializer not yet implemented for SQL type ARRAY");
-
-            case Types.STRUCT:
-              throw new RuntimeException("ResultSetSerializer not yet implemented for SQL type STRUCT");
-
-            case Types.DISTINCT:
-              throw new RuntimeException("ResultSetSerializer not yet implemented for SQL type DISTINCT");
-
-            case Types.REF:
-              throw new RuntimeException("ResultSetSerializer not yet implemented for SQL type REF");
-
-            case Types.JAVA_OBJECT:
-            default:
-              provider.defaultSerializeValue(rs.getObject(i + 1), jgen);
-              break;
+        if (compact) {
+          jgen.writeStartArray();
+          for (ColumnWriter writer : writers) {
+            writer.write(rs, jgen, provider);
+          }
+          jgen.writeEndArray();
+        } else {
+          jgen.writeStartObject();
+          for (int i = 0; i < writers.length; i++) {
+            jgen.writeFieldName(columnNames[i]);
+            writers[i].write(rs, jgen, provider);
           }
+          jgen.writeEndObject();
         }
-
-        jgen.writeEndObject();
       }
 
       jgen.writeEndArray();
+      if (truncated.getAsBoolean()) {
+        jgen.writeBooleanField("truncated", true);
+      }
       jgen.writeEndObject();
       jgen.writeEndObject();
 
@@ -1,31 +1,102 @@
 package io.tokern.dbaudit.core.executor;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import io.dropwizard.lifecycle.Managed;
 import io.tokern.dbaudit.api.Query;
+import io.tokern.dbaudit.api.User;
 import io.tokern.dbaudit.db.QueryDAO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.sql.rowset.CachedRowSet;
-import javax.sql.rowset.RowSetProvider;
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ThreadPool implements Managed {
-  private final ExecutorService service;
+  private static Logger logger = LoggerFactory.getLogger(ThreadPool.class);
+
+  private final ThreadPoolExecutor service;
+  private final ScheduledExecutorService watchdog;
+  private final Map<Long, Work> submitted = new ConcurrentHashMap<>();
+  private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+  // Permits of all lanes. Guarded by service.
+  private int lanePermits = 0;
+  // Waiting or running work that identical queries may attach to, by QueryKey
+  private final Map<String, Work> shared = new ConcurrentHashMap<>();
+  private final Map<Long, Follower> followers = new ConcurrentHashMap<>();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final int queueSize;
+  private final int retryAfterSeconds;
+  private final ExecutorConfiguration configuration;
+  private final Map<String, AtomicInteger> tenantDepth = new ConcurrentHashMap<>();
+  private final MetricRegistry metricRegistry;
+  private final Timer waitTimer;
+  private final Meter rejectedMeter;
+
+  /**
+   * Work for one database. At most as many queries as the connection pool holds run against it at the same time.
+   * The rest wait here without a thread or a connection, so a slow database cannot take over the executor.
+   * Waiting work is taken in {@link FairQueue} order.
+   */
+  private static class Lane {
+    private final FairQueue<Runnable> queue = new FairQueue<>();
+    private int permits;
+
+    Lane(int permits) {
+      this.permits = permits;
+    }
+  }
+
+  /**
+   * Threads shared by per-database lanes. A lane runs as many queries at a time as its database has connections,
+   * and the pool grows to the permits of all lanes, so that slow databases can never hold the threads that the
+   * others need. Once the number of queries that have not started yet reaches the queue size new work is rejected,
+   * so that a burst of queries cannot pile up without limit.
+   */
+  public ThreadPool(ExecutorConfiguration configuration, MetricRegistry metricRegistry) {
+    service = new ThreadPoolExecutor(configuration.getThreads(), configuration.getThreads(), 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>());
+    service.allowCoreThreadTimeOut(true);
+    watchdog = Executors.newSingleThreadScheduledExecutor();
+    queueSize = configuration.getQueueSize();
+    retryAfterSeconds = configuration.getRetryAfterSeconds();
+    this.configuration = configuration;
+    this.metricRegistry = metricRegistry;
+
+    metricRegistry.register(MetricRegistry.name(ThreadPool.class, "queue", "depth"), (Gauge<Integer>) waiting::get);
+    metricRegistry.register(MetricRegistry.name(ThreadPool.class, "active"),
+        (Gauge<Integer>) service::getActiveCount);
+    waitTimer = metricRegistry.timer(MetricRegistry.name(ThreadPool.class, "wait"));
+    rejectedMeter = metricRegistry.meter(MetricRegistry.name(ThreadPool.class, "rejected"));
+  }
 
   public ThreadPool() {
-    service = new ThreadPoolExecutor(10, 100, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    this(new ExecutorConfiguration(), new MetricRegistry());
   }
 
   @Override
-  public void start() throws Exception {}
+  public void start() throws Exception {
+    watchdog.scheduleWithFixedDelay(this::checkDeadlines, 1, 1, TimeUnit.SECONDS);
+  }
 
   @Override
   public void stop() throws Exception {
+    watchdog.shutdownNow();
     if (!service.isShutdown()) {
       service.shutdown();
       if (!service.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -38,54 +109,594 @@ public class ThreadPool implements Managed {
     return service;
   }
 
-  public static class Work implements Callable<Result> {
-    private static Logger logger = LoggerFactory.getLogger(Work.class);
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * Submits work and keeps a handle on it until it finishes so that it can be cancelled.
+   * The returned future is completed by the worker thread once the state of the query has been recorded.
+   * Throws RejectedExecutionException if the queue is full. The query stays WAITING while it is queued.
+   * Queries that wait for the same database are served fairly across organizations and then users, weighted by
+   * the role of the user.
+   */
+  public CompletableFuture<Result> submit(Work work, User.SystemRoles role, String key) {
+    if (waiting.incrementAndGet() > queueSize) {
+      waiting.decrementAndGet();
+      rejectedMeter.mark();
+      throw new RejectedExecutionException(String.format("Query %d rejected, %d queries are waiting",
+          work.query.id, queueSize));
+    }
+
+    CompletableFuture<Result> future = new CompletableFuture<>();
+    work.future = future;
+    // A dependent future for shared work, so that cancelling this query does not cancel the run of the others
+    work.ownFuture = key != null ? future.thenApply(result -> result) : future;
+    submitted.put(work.query.id, work);
+    if (key != null) {
+      shared.putIfAbsent(key, work);
+    }
+    long submittedAt = System.nanoTime();
+    Lane lane = lanes.computeIfAbsent(work.query.dbId, this::newLane);
+    String org = MetricRegistry.name(ThreadPool.class, "tenant", "org", Long.toString(work.query.orgId));
+    String user = MetricRegistry.name(org, "user", Long.toString(work.query.userId));
+    tenantDepth(org).incrementAndGet();
+    tenantDepth(user).incrementAndGet();
+    Runnable task = () -> {
+      long waited = System.nanoTime() - submittedAt;
+      waiting.decrementAndGet();
+      tenantDepth(org).decrementAndGet();
+      tenantDepth(user).decrementAndGet();
+      waitTimer.update(waited, TimeUnit.NANOSECONDS);
+      metricRegistry.timer(MetricRegistry.name(org, "wait")).update(waited, TimeUnit.NANOSECONDS);
+      metricRegistry.timer(MetricRegistry.name(user, "wait")).update(waited, TimeUnit.NANOSECONDS);
+      try {
+        future.complete(work.call());
+      } catch (Throwable throwable) {
+        future.completeExceptionally(throwable);
+      } finally {
+        submitted.remove(work.query.id);
+        if (key != null) {
+          shared.remove(key, work);
+        }
+        release(lane);
+      }
+    };
 
+    synchronized (lane) {
+      if (lane.permits > 0) {
+        lane.permits--;
+      } else {
+        lane.queue.add(work.query.orgId, work.query.userId, configuration.weightOf(role), task);
+        return work.ownFuture;
+      }
+    }
+    service.execute(task);
+    return work.ownFuture;
+  }
+
+  public CompletableFuture<Result> submit(Work work, User.SystemRoles role) {
+    return submit(work, role, null);
+  }
+
+  public CompletableFuture<Result> submit(Work work) {
+    return submit(work, null, null);
+  }
+
+  /**
+   * Attaches a query to waiting or running work that was submitted with the same key, instead of running it
+   * again. The query row is linked to the shared run and its state follows it. Returns null if there is nothing
+   * to attach to.
+   */
+  public CompletableFuture<Result> join(String key, Query query, QueryDAO queryDAO) {
+    Work leader = shared.get(key);
+    if (leader == null) {
+      return null;
+    }
+    Follower follower = new Follower(query, queryDAO, leader);
+    followers.put(query.id, follower);
+    Query.State state = leader.addListener(query.id, follower);
+    if (state.isFinal() || !leader.share(query.id)) {
+      leader.removeListener(follower);
+      followers.remove(query.id);
+      return null;
+    }
+    queryDAO.updateSharedWith(query.id, query.orgId, leader.query.id);
+    if (state != query.state) {
+      follower.onState(state);
+    }
+    // A dependent future, so that cancelling the follower does not cancel the shared run
+    follower.future = leader.future.thenApply(result -> result);
+    logger.info(String.format("Query {%d} attached to query {%d}", query.id, leader.query.id));
+    return follower.future;
+  }
+
+  private class Follower implements Work.Listener {
     private final Query query;
     private final QueryDAO queryDAO;
-    private final Connection connection;
+    private final Work leader;
+    private CompletableFuture<Result> future;
 
-    public Work(Query query, QueryDAO dao, Connection connection) {
+    Follower(Query query, QueryDAO queryDAO, Work leader) {
+      this.query = query;
+      this.queryDAO = queryDAO;
+      this.leader = leader;
+    }
+
+    @Override
+    public void onState(Query.State state) {
+      queryDAO.updateState(query.id, query.orgId, state);
+      if (state.isFinal()) {
+        followers.remove(query.id, this);
+      }
+    }
+
+  }
+
+  private AtomicInteger tenantDepth(String tenant) {
+    return tenantDepth.computeIfAbsent(tenant, name -> {
+      AtomicInteger depth = new AtomicInteger();
+      metricRegistry.register(MetricRegistry.name(name, "queue", "depth"), (Gauge<Integer>) depth::get);
+      return depth;
+    });
+  }
+
+  private Lane newLane(long dbId) {
+    Lane lane = new Lane(Connections.getMaxPoolSize());
+    synchronized (service) {
+      lanePermits += lane.permits;
+      int threads = Math.max(configuration.getThreads(), lanePermits);
+      if (threads > service.getMaximumPoolSize()) {
+        service.setMaximumPoolSize(threads);
+        service.setCorePoolSize(threads);
+      }
+    }
+    metricRegistry.register(MetricRegistry.name(ThreadPool.class, "queue", "depth", Long.toString(dbId)),
+        (Gauge<Integer>) () -> {
+          synchronized (lane) {
+            return lane.queue.size();
+          }
+        });
+    return lane;
+  }
+
+  /**
+   * Hands the permit of a finished query to the next one waiting for the same database.
+   */
+  private void release(Lane lane) {
+    Runnable next;
+    synchronized (lane) {
+      next = lane.queue.poll();
+      if (next == null) {
+        lane.permits++;
+        return;
+      }
+    }
+    service.execute(next);
+  }
+
+  /**
+   * Returns the work for a query that is waiting or running, or null.
+   */
+  public Work getWork(long queryId) {
+    return submitted.get(queryId);
+  }
+
+  /**
+   * Cancels a submitted or attached query. Returns false if the query is not known or has already finished.
+   * A run that is shared with other queries keeps running for them.
+   */
+  public boolean cancel(long queryId) {
+    Work work = submitted.get(queryId);
+    if (work != null) {
+      return work.cancel();
+    }
+    Follower follower = followers.get(queryId);
+    if (follower == null || !follower.leader.cancel(queryId)) {
+      return false;
+    }
+    if (follower.future != null) {
+      follower.future.cancel(false);
+    }
+    return true;
+  }
+
+  /**
+   * Cancels running queries that are past their deadline and records them as ERROR. Drivers do not enforce
+   * Statement.setQueryTimeout in every phase of a query, so this makes sure a connection is never pinned forever.
+   */
+  void checkDeadlines() {
+    long now = System.nanoTime();
+    submitted.values().forEach(work -> {
+      if (work.isPastDeadline(now) && work.cancel(Query.State.ERROR)) {
+        logger.warn(String.format("Query {%d} cancelled after exceeding its timeout of %d seconds",
+            work.query.id, work.limits.timeoutSeconds));
+      }
+    });
+  }
+
+  public static class Work implements Callable<Result> {
+    private static Logger logger = LoggerFactory.getLogger(Work.class);
+    private static final int ROW_BATCH_SIZE = 500;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * Receives state transitions and progress of a query. Callbacks run on the thread that caused them and
+     * must not block.
+     */
+    public interface Listener {
+      void onState(Query.State state);
+
+      /**
+       * Called at most every 500 ms, or every 500 rows if rows are requested, while rows are fetched.
+       * The batch holds the rows fetched since the last call and is empty unless {@link #wantsRows()}.
+       */
+      default void onProgress(long rows, List<Map<String, Object>> batch) {}
+
+      default boolean wantsRows() {
+        return false;
+      }
+    }
+
+    protected final Query query;
+    protected final QueryDAO queryDAO;
+    private final DataSource dataSource;
+    private CompletableFuture<Result> future;
+    // The future returned for the query of this work
+    private CompletableFuture<Result> ownFuture;
+    protected final QueryLimits limits;
+    // Keeps the BLOB and CLOB values that the result only has a preview of, if it is set
+    private final ResultSpill spill;
+    protected final MetricRegistry metricRegistry;
+
+    /**
+     * The connection is taken from the data source on the worker thread, once the query is allowed to run.
+     */
+    public Work(Query query, QueryDAO dao, DataSource dataSource, QueryLimits limits, ResultSpill spill,
+                MetricRegistry metricRegistry) {
       this.query = query;
       this.queryDAO = dao;
-      this.connection = connection;
+      this.dataSource = dataSource;
+      this.limits = limits;
+      this.spill = spill;
+      this.metricRegistry = metricRegistry;
+      this.state = query.state;
+      this.subscribers.add(query.id);
+    }
+
+    public Work(Query query, QueryDAO dao, DataSource dataSource, QueryLimits limits, MetricRegistry metricRegistry) {
+      this(query, dao, dataSource, limits, null, metricRegistry);
+    }
+
+    public Work(Query query, QueryDAO dao, DataSource dataSource) {
+      this(query, dao, dataSource, QueryLimits.UNLIMITED, new MetricRegistry());
+    }
+
+    // Guards the hand-off between the worker thread and a caller of cancel()
+    private final Object lock = new Object();
+    private boolean started = false;
+    private boolean finished = false;
+    private Query.State cancelledState = null;
+    private long startedAt;
+    // Time the worker spent waiting on something other than the database. Only the worker writes these.
+    private volatile long pausedSince = 0;
+    private volatile long pausedNanos = 0;
+    private Statement statement = null;
+    // The queries that share this run: the query it was submitted for, unless that was cancelled, and the queries
+    // attached to it. The statement is only cancelled once none is left.
+    private final Set<Long> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Listeners by the query they report for
+    private final Map<Listener, Long> listeners = new ConcurrentHashMap<>();
+    private volatile Query.State state;
+    private List<Map<String, Object>> batch = new ArrayList<>();
+    private long lastProgress;
+    private long reportedRows = 0;
+
+    /**
+     * Adds a listener for one of the queries that share this run and returns the current state, which the
+     * listener will not be told about.
+     */
+    public Query.State addListener(long queryId, Listener listener) {
+      listeners.put(listener, queryId);
+      return state;
+    }
+
+    public void removeListener(Listener listener) {
+      listeners.remove(listener);
+    }
+
+    /**
+     * Lets another query share this run. Returns false if the run has finished or was cancelled.
+     */
+    boolean share(long queryId) {
+      synchronized (lock) {
+        if (finished || cancelledState != null) {
+          return false;
+        }
+        subscribers.add(queryId);
+        return true;
+      }
+    }
+
+    private void updateState(Query.State state) {
+      // The query of this work is not updated any more once it has been cancelled on its own
+      if (subscribers.contains(query.id)) {
+        queryDAO.updateState(query.id, query.orgId, state);
+      }
+      this.state = state;
+      for (Listener listener : listeners.keySet()) {
+        try {
+          listener.onState(state);
+        } catch (RuntimeException exception) {
+          logger.warn(String.format("Listener failed for query {%d}", query.id), exception);
+        }
+      }
+    }
+
+    private void onRow(ResultSet row, long rows) throws SQLException {
+      if (listeners.isEmpty()) {
+        return;
+      }
+      if (listeners.keySet().stream().anyMatch(Listener::wantsRows)) {
+        ResultSetMetaData metaData = row.getMetaData();
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+          values.put(metaData.getColumnLabel(i), LobStream.preview(row.getObject(i), limits.lobPreviewLength));
+        }
+        batch.add(values);
+      }
+      if (batch.size() >= ROW_BATCH_SIZE || System.nanoTime() - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+        reportProgress(rows);
+      }
+    }
+
+    private void reportProgress(long rows) {
+      List<Map<String, Object>> rowBatch = batch;
+      batch = new ArrayList<>();
+      lastProgress = System.nanoTime();
+      reportedRows = rows;
+      for (Listener listener : listeners.keySet()) {
+        try {
+          listener.onProgress(rows, listener.wantsRows() ? rowBatch : Collections.emptyList());
+        } catch (RuntimeException exception) {
+          logger.warn(String.format("Listener failed for query {%d}", query.id), exception);
+        }
+      }
+    }
+
+    /**
+     * Cancels the query of this work. A running statement is cancelled in the driver and a query that has not
+     * started yet will not run. The query is recorded as CANCELLED.
+     */
+    public boolean cancel() {
+      return cancel(query.id);
+    }
+
+    /**
+     * Cancels one of the queries that share this run. It is recorded as CANCELLED and its listeners are told and
+     * removed. The statement is only cancelled when no other query is left, otherwise it keeps running for them.
+     */
+    boolean cancel(long queryId) {
+      boolean last;
+      synchronized (lock) {
+        if (finished || cancelledState != null || !subscribers.remove(queryId)) {
+          return false;
+        }
+        last = subscribers.isEmpty();
+        if (last) {
+          cancelStatement(Query.State.CANCELLED);
+        }
+      }
+      if (queryId == query.id) {
+        queryDAO.updateState(query.id, query.orgId, Query.State.CANCELLED);
+        if (!last && ownFuture != null && ownFuture != future) {
+          ownFuture.cancel(false);
+        }
+      }
+      if (last) {
+        this.state = Query.State.CANCELLED;
+      }
+      listeners.forEach((listener, listenerQueryId) -> {
+        if (last || listenerQueryId == queryId) {
+          listeners.remove(listener);
+          try {
+            listener.onState(Query.State.CANCELLED);
+          } catch (RuntimeException exception) {
+            logger.warn(String.format("Listener failed for query {%d}", queryId), exception);
+          }
+        }
+      });
+      if (last) {
+        logger.info(String.format("Query {%d} cancelled", query.id));
+      } else {
+        logger.info(String.format("Query {%d} detached from query {%d}", queryId, query.id));
+      }
+      return true;
+    }
+
+    boolean isPastDeadline(long now) {
+      long since = pausedSince;
+      long paused = pausedNanos + (since != 0 ? now - since : 0);
+      synchronized (lock) {
+        return started && !finished && limits.timeoutSeconds > 0
+            && now - startedAt - paused > TimeUnit.SECONDS.toNanos(limits.timeoutSeconds);
+      }
+    }
+
+    /**
+     * Stops the clock of the deadline while the worker waits for something other than the database, like a client
+     * that reads a streamed result. Called on the worker thread, without holding any lock of the work.
+     */
+    protected void pauseDeadline() {
+      if (pausedSince == 0) {
+        pausedSince = System.nanoTime();
+      }
+    }
+
+    protected void resumeDeadline() {
+      long since = pausedSince;
+      if (since != 0) {
+        pausedNanos += System.nanoTime() - since;
+        pausedSince = 0;
+      }
+    }
+
+    /**
+     * Cancels the run for every query that shares it and records them all with the given state.
+     */
+    boolean cancel(Query.State state) {
+      synchronized (lock) {
+        if (!cancelStatement(state)) {
+          return false;
+        }
+      }
+      updateState(state);
+      logger.info(String.format("Query {%d} cancelled", query.id));
+      return true;
+    }
+
+    // Called with the lock held
+    private boolean cancelStatement(Query.State state) {
+      if (finished || cancelledState != null) {
+        return false;
+      }
+      cancelledState = state;
+      try {
+        if (statement != null) {
+          statement.cancel();
+        }
+      } catch (SQLException sql_exc) {
+        logger.warn(String.format("Failed to cancel query {%d}", query.id), sql_exc);
+      }
+      onCancel();
+      return true;
+    }
+
+    /**
+     * Called when the query is cancelled, with the lock held. Subclasses that hand rows to another thread stop
+     * that hand-off here, since a worker that waits for it does not notice the cancelled statement.
+     */
+    protected void onCancel() {}
+
+    /**
+     * Reads the rows of the executed query. By default they are kept in a {@link ColumnarResult}.
+     */
+    protected Result read(ResultLimiter limiter) throws SQLException {
+      try (ResultSpill.LobOutput lobs = spill != null ? spill.writeLobs(query.id) : null) {
+        ColumnarResult rows = ColumnarResult.of(limiter.getResultSet(), limits.lobPreviewLength, lobs);
+        if (lobs != null) {
+          lobs.commit();
+        }
+        return new Result(rows, null, limiter.isTruncated());
+      }
+    }
+
+    private Result cancelledResult() {
+      if (cancelledState == Query.State.ERROR) {
+        return new Result(null, new SQLTimeoutException(
+            String.format("Query %d exceeded the timeout of %d seconds", query.id, limits.timeoutSeconds)));
+      }
+      return new Result(null, new CancellationException(String.format("Query %d was cancelled", query.id)));
     }
 
     @Override
     public Result call() throws Exception {
-      queryDAO.updateState(query.id, query.orgId, Query.State.RUNNING);
-      try (
-          Statement statement = this.connection.createStatement();
-          ResultSet resultSet = statement.executeQuery(query.sql);
-          ){
-        CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
-        rowSet.populate(resultSet);
-        queryDAO.updateState(query.id, query.orgId, Query.State.SUCCESS);
-        logger.info(String.format("Query {%d} completed successfully", query.id));
-        return new Result(rowSet, null);
-      } catch (SQLException sql_exc) {
-        queryDAO.updateState(query.id, query.orgId, Query.State.ERROR);
-        logger.warn(String.format("Query {%d} failed with message {%s}", query.id, sql_exc.getMessage()));
-        return new Result(null, sql_exc);
+      synchronized (lock) {
+        if (cancelledState != null) {
+          return cancelledResult();
+        }
+        started = true;
+        startedAt = System.nanoTime();
+      }
+      updateState(Query.State.RUNNING);
+      Connection connection = null;
+      try {
+        connection = dataSource.getConnection();
+        try (Statement statement = limits.fetch.createStatement(connection)) {
+          synchronized (lock) {
+            if (cancelledState != null) {
+              return cancelledResult();
+            }
+            this.statement = statement;
+          }
+          statement.setMaxRows(limits.statementMaxRows());
+          statement.setQueryTimeout(limits.timeoutSeconds);
+          try (ResultSet resultSet = statement.executeQuery(query.sql)) {
+            ResultLimiter limiter = new ResultLimiter(resultSet, limits, this::onRow);
+            lastProgress = System.nanoTime();
+            Result result = read(limiter);
+            if (limiter.getRows() > reportedRows || !batch.isEmpty()) {
+              reportProgress(limiter.getRows());
+            }
+            synchronized (lock) {
+              if (cancelledState != null) {
+                return cancelledResult();
+              }
+              finished = true;
+            }
+            limiter.record(metricRegistry);
+            updateState(Query.State.SUCCESS);
+            logger.info(String.format("Query {%d} completed successfully", query.id));
+            return result;
+          }
+        }
+      } catch (SQLException | RuntimeException exception) {
+        // Runtime exceptions, like a failure to store or encode a value, fail the query instead of leaving it
+        // RUNNING
+        synchronized (lock) {
+          if (cancelledState != null) {
+            return cancelledResult();
+          }
+          finished = true;
+        }
+        updateState(Query.State.ERROR);
+        if (exception instanceof SQLException) {
+          logger.warn(String.format("Query {%d} failed with message {%s}", query.id, exception.getMessage()));
+        } else {
+          logger.warn(String.format("Query {%d} failed with message {%s}", query.id, exception.getMessage()),
+              exception);
+        }
+        return new Result(null, exception);
       } finally {
+        synchronized (lock) {
+          this.statement = null;
+        }
         if (connection != null) {
-          connection.close();
+          try {
+            limits.fetch.release(connection);
+          } finally {
+            connection.close();
+          }
         }
       }
     }
   }
 
   public static class Result {
-    public final CachedRowSet resultSet;
+    public final ColumnarResult rows;
     public final Throwable throwable;
+    public final boolean truncated;
+    // Size of the stored rows
+    public final long bytes;
 
-    public Result(CachedRowSet resultSet, Throwable throwable) {
-      this.resultSet = resultSet;
+    public Result(ColumnarResult rows, Throwable throwable, boolean truncated, long bytes) {
+      this.rows = rows;
       this.throwable = throwable;
+      this.truncated = truncated;
+      this.bytes = bytes;
+    }
+
+    public Result(ColumnarResult rows, Throwable throwable, boolean truncated) {
+      this(rows, throwable, truncated, rows != null ? rows.getSizeInBytes() : 0);
+    }
+
+    public Result(ColumnarResult rows, Throwable throwable) {
+      this(rows, throwable, false);
     }
 
     public boolean isSuccess() {
-      return resultSet != null;
+      return rows != null;
     }
   }
 }
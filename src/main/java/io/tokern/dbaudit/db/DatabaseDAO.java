@@ -11,33 +11,41 @@ import java.util.List;
 
 public interface DatabaseDAO {
   @GetGeneratedKeys
-  @SqlUpdate("insert into dbs(jdbc_url, name, user_name, password, type, org_id) " +
-      "values(:jdbcUrl, :name, :userName, :password, :driver::db_type, :orgId)")
+  @SqlUpdate("insert into dbs(jdbc_url, name, user_name, password, type, org_id, max_rows, max_result_bytes, " +
+      "timeout_seconds, coalesce_queries, cache_ttl_seconds) values(:jdbcUrl, :name, :userName, :password, " +
+      ":driver::db_type, :orgId, :maxRows, :maxResultBytes, :timeoutSeconds, :coalesceQueries, :cacheTtlSeconds)")
   Long insert(@BindBean Database database);
 
   @SqlUpdate("update dbs set name=:name, jdbc_url=:jdbcUrl, user_name = :userName, password=:password, " +
-      "type=:driver::db_type where id = :id")
+      "type=:driver::db_type, max_rows = :maxRows, max_result_bytes = :maxResultBytes, " +
+      "timeout_seconds = :timeoutSeconds, coalesce_queries = :coalesceQueries, " +
+      "cache_ttl_seconds = :cacheTtlSeconds where id = :id")
   void update(@BindBean Database database);
 
-  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id from dbs")
+  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id, " +
+      "max_rows, max_result_bytes, timeout_seconds, coalesce_queries, cache_ttl_seconds from dbs")
   @RegisterConstructorMapper(Database.class)
   List<Database> listAll();
 
-  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id from dbs where org_id = ?")
+  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id, " +
+      "max_rows, max_result_bytes, timeout_seconds, coalesce_queries, cache_ttl_seconds from dbs where org_id = ?")
   @RegisterConstructorMapper(Database.class)
   List<Database> listByOrgId(int orgId);
 
-  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id from dbs " +
+  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id, " +
+      "max_rows, max_result_bytes, timeout_seconds, coalesce_queries, cache_ttl_seconds from dbs " +
       "where id = ? and org_id = ?")
   @RegisterConstructorMapper(Database.class)
   Database getById(long id, int orgId);
 
-  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id from dbs " +
+  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id, " +
+      "max_rows, max_result_bytes, timeout_seconds, coalesce_queries, cache_ttl_seconds from dbs " +
       "where jdbc_url = ? and org_id = ?")
   @RegisterConstructorMapper(Database.class)
   Database getByUrl(String jdbcUrl, int orgId);
 
-  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id from dbs " +
+  @SqlQuery("select id, name, jdbc_url, user_name, password, type as driver, org_id, " +
+      "max_rows, max_result_bytes, timeout_seconds, coalesce_queries, cache_ttl_seconds from dbs " +
       "where name = ? and org_id = ?")
   @RegisterConstructorMapper(Database.class)
   Database getByName(String name, int orgId);
@@ -19,15 +19,18 @@ public interface QueryDAO {
   @SqlUpdate("update queries set state=:state::query_state where id = :id and org_id = :orgId")
   void updateState(@Bind("id") long id, @Bind("orgId") long orgId, @Bind("state") Query.State state);
 
-  @SqlQuery("select id, sql, user_id, db_id, org_id, state from queries where org_id = ?")
+  @SqlUpdate("update queries set shared_with=:sharedWith where id = :id and org_id = :orgId")
+  void updateSharedWith(@Bind("id") long id, @Bind("orgId") long orgId, @Bind("sharedWith") long sharedWith);
+
+  @SqlQuery("select id, sql, user_id, db_id, org_id, state, shared_with from queries where org_id = ?")
   @RegisterConstructorMapper(Query.class)
   List<Query> listByOrg(long orgId);
 
-  @SqlQuery("select id, sql, user_id, db_id, org_id, state from queries where user_id = ? and org_id = ?")
+  @SqlQuery("select id, sql, user_id, db_id, org_id, state, shared_with from queries where user_id = ? and org_id = ?")
   @RegisterConstructorMapper(Query.class)
   List<Query> listByUser(long userId, long orgId);
 
-  @SqlQuery("select id, sql, user_id, db_id, org_id, state from queries where id = ? and org_id = ?")
+  @SqlQuery("select id, sql, user_id, db_id, org_id, state, shared_with from queries where id = ? and org_id = ?")
   @RegisterConstructorMapper(Query.class)
   Query getById(long id, long orgId);
 
@@ -1,6 +1,8 @@
 package io.tokern.dbaudit.resources;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
 import io.tokern.dbaudit.api.BootstrapResponse;
 import io.tokern.dbaudit.api.GitState;
 import io.tokern.dbaudit.api.Organization;
@@ -15,7 +17,8 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 @Consumes(MediaType.APPLICATION_JSON)
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+    CBORMediaTypes.APPLICATION_JACKSON_CBOR})
 @Path("/bootstrap")
 public class BootstrapResource {
   private final Jdbi jdbi;
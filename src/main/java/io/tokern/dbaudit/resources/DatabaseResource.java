@@ -1,5 +1,7 @@
 package io.tokern.dbaudit.resources;
 
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
 import io.dropwizard.auth.Auth;
 import io.tokern.dbaudit.api.Database;
 import io.tokern.dbaudit.api.Error;
@@ -21,7 +23,8 @@ import java.sql.SQLException;
 import java.util.Arrays;
 
 @Path("/databases")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+    CBORMediaTypes.APPLICATION_JACKSON_CBOR})
 @RolesAllowed({"ADMIN", "DBADMIN"})
 public class DatabaseResource {
   private static final Logger logger = LoggerFactory.getLogger(DatabaseResource.class);
@@ -75,7 +78,12 @@ public class DatabaseResource {
           database.getId(), database.getName(), database.getJdbcUrl(),
           database.getUserName(),
           Database.encryptPassword(database.getPassword(), this.encryptionSecret),
-          database.getDriverType(), principal.orgId);
+          database.getDriverType(), principal.orgId, database.getMaxRows(), database.getMaxResultBytes(),
+          database.getTimeoutSeconds(), database.isCoalesceQueries(), database.getCacheTtlSeconds());
+      String invalid = invalidLimits(updated);
+      if (invalid != null) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(new Error(invalid)).build();
+      }
 
       Long id = dao.insert(updated);
       Database created = dao.getById(id, principal.orgId);
@@ -110,8 +118,17 @@ public class DatabaseResource {
           request.getPassword() != null ? Database.encryptPassword(request.getPassword(), this.encryptionSecret)
               : inDb.getPassword(),
           request.getType() != null ? Database.Driver.valueOf(request.getType()) : inDb.getDriverType(),
-          inDb.getOrgId()
+          inDb.getOrgId(),
+          request.getMaxRows() != null ? request.getMaxRows() : inDb.getMaxRows(),
+          request.getMaxResultBytes() != null ? request.getMaxResultBytes() : inDb.getMaxResultBytes(),
+          request.getTimeoutSeconds() != null ? request.getTimeoutSeconds() : inDb.getTimeoutSeconds(),
+          request.getCoalesceQueries() != null ? request.getCoalesceQueries() : inDb.isCoalesceQueries(),
+          request.getCacheTtlSeconds() != null ? request.getCacheTtlSeconds() : inDb.getCacheTtlSeconds()
       );
+      String invalid = invalidLimits(updated);
+      if (invalid != null) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(new Error(invalid)).build();
+      }
       jdbi.useExtension(DatabaseDAO.class, dao -> dao.update(updated));
       try {
         connections.deleteDataSource(updated.getId());
@@ -125,4 +142,24 @@ public class DatabaseResource {
     }
     return Response.status(Response.Status.NOT_FOUND).build();
   }
+
+  /**
+   * Returns why the limits of database cannot be stored, or null if they are valid. Limits that are not set fall
+   * back to the server defaults.
+   */
+  private static String invalidLimits(Database database) {
+    if (database.getMaxRows() != null && database.getMaxRows() <= 0) {
+      return "maxRows must be greater than 0";
+    }
+    if (database.getMaxResultBytes() != null && database.getMaxResultBytes() <= 0) {
+      return "maxResultBytes must be greater than 0";
+    }
+    if (database.getTimeoutSeconds() != null && database.getTimeoutSeconds() <= 0) {
+      return "timeoutSeconds must be greater than 0";
+    }
+    if (database.getCacheTtlSeconds() != null && database.getCacheTtlSeconds() < 0) {
+      return "cacheTtlSeconds must not be negative";
+    }
+    return null;
+  }
 }
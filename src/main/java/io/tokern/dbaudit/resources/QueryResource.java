@@ -1,14 +1,31 @@
 package io.tokern.dbaudit.resources;
 
-import com.google.common.cache.Cache;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
 import io.dropwizard.auth.Auth;
 import io.tokern.dbaudit.api.Database;
 import io.tokern.dbaudit.api.Query;
 import io.tokern.dbaudit.api.User;
+import io.tokern.dbaudit.core.executor.ArrowWriter;
+import io.tokern.dbaudit.core.executor.CompressedResult;
 import io.tokern.dbaudit.core.executor.Connections;
+import io.tokern.dbaudit.core.executor.CsvWriter;
+import io.tokern.dbaudit.core.executor.LobStream;
+import io.tokern.dbaudit.core.executor.QueryConfiguration;
+import io.tokern.dbaudit.core.executor.QueryEvents;
+import io.tokern.dbaudit.core.executor.QueryKey;
+import io.tokern.dbaudit.core.executor.QueryLimits;
+import io.tokern.dbaudit.core.executor.QueryStream;
+import io.tokern.dbaudit.core.executor.ResultCache;
+import io.tokern.dbaudit.core.executor.ResultPage;
+import io.tokern.dbaudit.core.executor.ResultReuseCache;
+import io.tokern.dbaudit.core.executor.ResultView;
 import io.tokern.dbaudit.core.executor.ThreadPool;
 import io.tokern.dbaudit.db.DatabaseDAO;
 import io.tokern.dbaudit.db.QueryDAO;
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,31 +33,53 @@ import javax.annotation.security.PermitAll;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.sql.SQLException;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 @Path("/queries")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+    CBORMediaTypes.APPLICATION_JACKSON_CBOR})
 @PermitAll
 public class QueryResource {
   private static final Logger logger = LoggerFactory.getLogger(QueryResource.class);
+  private static final String SERVER_SENT_EVENTS = "text/event-stream";
+  private static final String CSV = "text/csv";
+  private static final String TRUNCATED = "X-Result-Truncated";
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+  private static final int MAX_PAGE_SIZE = 10000;
   private final QueryDAO queryDAO;
   private final DatabaseDAO databaseDAO;
   private final Connections connections;
   private final ThreadPool threadPool;
-  private final Cache<Long, Future<ThreadPool.Result>> resultCache;
+  private final ResultCache resultCache;
+  private final ResultReuseCache reuseCache;
+  private final ObjectMapper objectMapper;
+  private final QueryConfiguration queryConfiguration;
+  private final MetricRegistry metricRegistry;
 
   public QueryResource(QueryDAO queryDAO, DatabaseDAO databaseDAO, Connections connections, ThreadPool threadPool,
-                       Cache<Long, Future<ThreadPool.Result>> resultCache) {
+                       ResultCache resultCache, ResultReuseCache reuseCache,
+                       ObjectMapper objectMapper, QueryConfiguration queryConfiguration,
+                       MetricRegistry metricRegistry) {
     this.queryDAO = queryDAO;
     this.databaseDAO = databaseDAO;
     this.connections = connections;
     this.threadPool = threadPool;
     this.resultCache = resultCache;
+    this.reuseCache = reuseCache;
+    this.objectMapper = objectMapper;
+    this.queryConfiguration = queryConfiguration;
+    this.metricRegistry = metricRegistry;
   }
 
   @GET
@@ -54,40 +93,102 @@ public class QueryResource {
     return queryDAO.getById(queryId, principal.orgId);
   }
 
-  private Long startQuery(User principal, Query.RunQueryRequest request) throws NotFoundException, SQLException {
+  private Database getDatabase(User principal, Query.RunQueryRequest request) throws NotFoundException {
     Database database = databaseDAO.getById(request.dbId, principal.orgId);
     if (database == null) {
       throw new NotFoundException(String.format("Database with id = %d not found", request.dbId));
     }
+    return database;
+  }
+
+  private Query insertQuery(User principal, Database database, Query.RunQueryRequest request) {
     Query query = new Query(request.sql, principal.id, database.getId(), principal.orgId);
     Long id = queryDAO.insert(query);
-    Query saved = queryDAO.getById(id, principal.orgId);
-    Future<ThreadPool.Result> future = threadPool.getService().submit(
-        new ThreadPool.Work(saved, queryDAO, connections.getDataSource(query.dbId).getConnection()));
-    resultCache.put(id, future);
-    return id;
+    return queryDAO.getById(id, principal.orgId);
+  }
+
+  private CompletableFuture<ThreadPool.Result> startQuery(User principal, Database database, Query saved)
+      throws NotFoundException, RejectedExecutionException {
+    QueryLimits limits = queryConfiguration.limitsFor(database, principal);
+    String queryKey = QueryKey.of(database.getId(), database.getDriverType(), saved.sql, limits);
+    String reuseKey = ResultReuseCache.isEnabled(database)
+        ? ResultReuseCache.key(principal.systemRole, queryKey) : null;
+
+    if (reuseKey != null) {
+      ResultReuseCache.Hit hit = reuseCache.get(reuseKey);
+      if (hit != null) {
+        // The access is still audited: the query row is linked to the run that produced the result
+        queryDAO.updateSharedWith(saved.id, saved.orgId, hit.queryId);
+        queryDAO.updateState(saved.id, saved.orgId, Query.State.SUCCESS);
+        logger.info(String.format("Query {%d} served from the result of query {%d}", saved.id, hit.queryId));
+        CompletableFuture<ThreadPool.Result> future = CompletableFuture.completedFuture(hit.result);
+        resultCache.put(saved.id, future);
+        return future;
+      }
+    }
+
+    String key = database.isCoalesceQueries() ? queryKey : null;
+    CompletableFuture<ThreadPool.Result> future = key != null ? threadPool.join(key, saved, queryDAO) : null;
+    if (future == null) {
+      future = submit(principal, saved, new ThreadPool.Work(saved, queryDAO, connections.getDataSource(saved.dbId),
+          limits, resultCache.getSpill(), metricRegistry), key);
+      if (reuseKey != null) {
+        future.thenAccept(result -> reuseCache.put(database, reuseKey, saved.id, result));
+      }
+    }
+    resultCache.put(saved.id, future);
+    return future;
+  }
+
+  private CompletableFuture<ThreadPool.Result> submit(User principal, Query saved, ThreadPool.Work work, String key)
+      throws RejectedExecutionException {
+    try {
+      return threadPool.submit(work, principal.systemRole, key);
+    } catch (RejectedExecutionException exception) {
+      queryDAO.updateState(saved.id, saved.orgId, Query.State.ERROR);
+      logger.warn(String.format("Query {%d} rejected because the executor queue is full", saved.id));
+      throw exception;
+    }
+  }
+
+  private Response tooManyRequests() {
+    return Response.status(429).header(HttpHeaders.RETRY_AFTER, threadPool.getRetryAfterSeconds())
+        .type(MediaType.APPLICATION_JSON_TYPE)
+        .entity("Too many queries are waiting to run. Try again later.").build();
+  }
+
+  private Response getQueryResult(User principal, long queryId) {
+    return getQueryResult(principal, queryId, null);
   }
 
-  private Response getQueryResult(User principal, long queryId, boolean isBlocking) throws InterruptedException {
+  /**
+   * The result of a query that has finished, or null if it is no longer kept.
+   */
+  private ThreadPool.Result getStoredResult(Query query) {
+    CompletableFuture<ThreadPool.Result> future = resultCache.getIfPresent(query.id);
+    try {
+      if (future != null) {
+        return future.get();
+      }
+    } catch (InterruptedException | ExecutionException | CancellationException exception) {
+      logger.warn(String.format("Exception when getting result for %d", query.id), exception);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the whole result as JSON, or the response that render makes of a successful result when it is set.
+   */
+  private Response getQueryResult(User principal, long queryId, Function<ThreadPool.Result, Response> render) {
     Query query = queryDAO.getById(queryId, principal.orgId);
     if (query != null) {
-      if (isBlocking) {
-        while (query.state == Query.State.WAITING || query.state == Query.State.RUNNING) {
-          Thread.sleep(200);
-          query = queryDAO.getById(queryId, principal.orgId);
-        }
-      }
       if (query.state == Query.State.WAITING || query.state == Query.State.RUNNING) {
         return Response.status(202).entity(
             String.format("Query %d is in %s state", query.id, query.state.name())).build();
+      } else if (query.state == Query.State.CANCELLED) {
+        return Response.status(400).entity(String.format("Query %d was cancelled", query.id)).build();
       } else {
-        Future<ThreadPool.Result> future = resultCache.getIfPresent(query.id);
-        ThreadPool.Result result = null;
-        try {
-          result = future.get();
-        } catch (InterruptedException | ExecutionException exception) {
-          logger.warn(String.format("Exception when getting result for %d", query.id), exception);
-        }
+        ThreadPool.Result result = getStoredResult(query);
 
         int responseCode = 0;
         Object responseObject = null;
@@ -97,7 +198,13 @@ public class QueryResource {
           responseObject = result != null ? result.throwable : "Query had an ERROR and results are not available";
         } else {
           responseCode = 200;
-          responseObject = result != null ? result.resultSet : "Query succeeded but results are not available";
+          if (result == null) {
+            responseObject = "Query succeeded but results are not available";
+          } else if (result.isSuccess() && render != null) {
+            return render.apply(result);
+          } else {
+            responseObject = result;
+          }
         }
 
         return Response.status(responseCode).entity(responseObject).build();
@@ -107,23 +214,196 @@ public class QueryResource {
   }
 
 
+  /**
+   * Without parameters the whole result is returned. The stored result can be filtered, sorted, cut to the top
+   * rows and projected to some columns without running the query again. With offset and limit, or with a cursor
+   * from the previous page, only a page of rows is returned. With format=compact each row is an array of values
+   * in the order of fields.
+   */
   @GET
   @Path("{queryId}/results")
-  public Response getResults(@Auth User principal, @PathParam("queryId") final long queryId) {
+  @CompressedResult
+  public Response getResults(@Auth User principal, @PathParam("queryId") final long queryId,
+                             @QueryParam("offset") Integer offset, @QueryParam("limit") Integer limit,
+                             @QueryParam("cursor") String cursor, @QueryParam("filter") List<String> filters,
+                             @QueryParam("sort") String sort, @QueryParam("top") Integer top,
+                             @QueryParam("columns") String columns, @QueryParam("format") String format) {
     try {
-      return this.getQueryResult(principal, queryId, false);
-    } catch (InterruptedException | NotFoundException exception) {
+      boolean compact = isCompact(format);
+      if (cursor != null) {
+        if (offset != null) {
+          throw new IllegalArgumentException("offset and cursor cannot be used together");
+        }
+        offset = ResultPage.parseCursor(queryId, cursor);
+      }
+      if (offset != null && offset < 0) {
+        throw new IllegalArgumentException(String.format("offset %d is negative", offset));
+      }
+      if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+        throw new IllegalArgumentException(String.format("limit %d is not between 1 and %d", limit, MAX_PAGE_SIZE));
+      }
+      if (top != null && top < 1) {
+        throw new IllegalArgumentException(String.format("top %d is not positive", top));
+      }
+
+      boolean paged = offset != null || limit != null;
+      boolean operators = !filters.isEmpty() || sort != null || top != null || columns != null;
+      Function<ThreadPool.Result, Response> render = null;
+      if (paged || operators || compact) {
+        int from = offset != null ? offset : 0;
+        render = result -> {
+          ResultView view = ResultView.of(result.rows, filters, sort, top, columns);
+          return Response.ok(new ResultPage(queryId, result, view, from,
+              limit != null ? limit : paged ? DEFAULT_PAGE_SIZE : Math.max(1, view.getRowCount()), compact)).build();
+        };
+      }
+      return this.getQueryResult(principal, queryId, render);
+    } catch (NotFoundException | IllegalArgumentException exception) {
       return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE)
           .entity(exception.getMessage()).build();
     }
   }
 
+  /**
+   * The full value of one cell of a successful query, for BLOB and CLOB values that results only have a preview
+   * of. The value is streamed in chunks from what was stored when the query ran. Values longer than the preview
+   * need a spill directory with room in the quota of the result. Binary values are written as bytes and everything
+   * else as UTF-8 text.
+   */
+  @GET
+  @Path("{queryId}/results/{row}/{column}")
+  @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.TEXT_PLAIN})
+  public Response getValue(@Auth User principal, @PathParam("queryId") final long queryId,
+                           @PathParam("row") final int row, @PathParam("column") final String column) {
+    Query query = queryDAO.getById(queryId, principal.orgId);
+    if (query == null) {
+      return Response.status(404).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity(String.format("Query %d not found.", queryId)).build();
+    }
+    try {
+      if (query.state != Query.State.SUCCESS) {
+        throw new IllegalArgumentException(String.format("Query %d is in %s state", query.id, query.state.name()));
+      }
+      if (row < 0) {
+        throw new IllegalArgumentException(String.format("row %d is negative", row));
+      }
+      ThreadPool.Result result = getStoredResult(query);
+      if (result == null || !result.isSuccess()) {
+        throw new IllegalStateException(String.format("Result of query %d is not available", query.id));
+      }
+      LobStream stream = LobStream.of(query.id, query.sharedWith != null ? query.sharedWith : query.id,
+          result.rows, row, column, resultCache.getSpill(), queryConfiguration.getLobPreviewLength());
+      return Response.ok(stream, stream.getMediaType()).build();
+    } catch (IllegalArgumentException exception) {
+      return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity(exception.getMessage()).build();
+    } catch (IllegalStateException exception) {
+      return Response.status(404).type(MediaType.TEXT_PLAIN_TYPE).entity(exception.getMessage()).build();
+    }
+  }
+
+  /**
+   * Rows are objects keyed by column label unless format is compact.
+   */
+  private static boolean isCompact(String format) throws IllegalArgumentException {
+    if (format == null || format.equals("rows")) {
+      return false;
+    } else if (format.equals("compact")) {
+      return true;
+    }
+    throw new IllegalArgumentException(String.format("format %s is not one of rows, compact", format));
+  }
+
+  private Response csvNotAllowed() {
+    return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE)
+        .entity("CSV download is not allowed").build();
+  }
+
+  private static String csvFileName(long queryId) {
+    return String.format("attachment; filename=\"query-%d.csv\"", queryId);
+  }
+
+  /**
+   * The stored result as CSV, written row by row. Accepts the same operators as /results.
+   */
+  @GET
+  @Path("{queryId}/results.csv")
+  @CompressedResult
+  @Produces(CSV)
+  public Response getResultsCsv(@Auth User principal, @PathParam("queryId") final long queryId,
+                                @QueryParam("filter") List<String> filters, @QueryParam("sort") String sort,
+                                @QueryParam("top") Integer top, @QueryParam("columns") String columns) {
+    if (!queryConfiguration.getAllowCsvDownload()) {
+      return csvNotAllowed();
+    }
+    try {
+      return this.getQueryResult(principal, queryId, result -> {
+        ResultView view = ResultView.of(result.rows, filters, sort, top, columns);
+        StreamingOutput output = stream -> new CsvWriter(stream).write(view);
+        return Response.ok(output, CSV)
+            .header(HttpHeaders.CONTENT_DISPOSITION, csvFileName(queryId))
+            .header(TRUNCATED, result.truncated)
+            .build();
+      });
+    } catch (NotFoundException | IllegalArgumentException exception) {
+      return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity(exception.getMessage()).build();
+    }
+  }
+
+  /**
+   * Server-sent events with the state of a query, periodic row counts and, with rows=true, the rows as they
+   * are fetched. The result itself is read from /results once the state is SUCCESS.
+   */
+  @GET
+  @Path("{queryId}/events")
+  @Produces(SERVER_SENT_EVENTS)
+  public ChunkedOutput<String> getEvents(@Auth User principal, @PathParam("queryId") final long queryId,
+                                         @QueryParam("rows") @DefaultValue("false") boolean rows) {
+    Query query = queryDAO.getById(queryId, principal.orgId);
+    if (query == null) {
+      throw new NotFoundException(String.format("Query %d not found.", queryId));
+    }
+    QueryEvents events = new QueryEvents(query.id, objectMapper, rows);
+    // A coalesced query reports the progress of the run it shares
+    ThreadPool.Work work = threadPool.getWork(query.sharedWith != null ? query.sharedWith : query.id);
+    // A query that was cancelled while the run it started goes on for others is already final
+    if (work != null && !query.state.isFinal()) {
+      events.subscribe(work);
+    } else {
+      events.finished(query.state);
+    }
+    return events.getOutput();
+  }
+
+  @DELETE
+  @Path("{queryId}")
+  public Response cancelQuery(@Auth User principal, @PathParam("queryId") final long queryId) {
+    Query query = queryDAO.getById(queryId, principal.orgId);
+    if (query == null) {
+      return Response.status(404).entity(String.format("Query %d not found.", queryId)).build();
+    }
+    if (!threadPool.cancel(query.id)) {
+      return Response.status(Response.Status.CONFLICT).entity(
+          String.format("Query %d is in %s state and cannot be cancelled", query.id, query.state.name())).build();
+    }
+    CompletableFuture<ThreadPool.Result> future = resultCache.getIfPresent(query.id);
+    if (future != null) {
+      future.cancel(false);
+    }
+    return Response.ok(queryDAO.getById(query.id, principal.orgId)).build();
+  }
+
   @POST
   public Response createQuery(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request) {
     try {
-      Long id = startQuery(principal, request);
-      return Response.ok(queryDAO.getById(id, principal.orgId)).build();
-    } catch (NotFoundException | SQLException exception) {
+      Database database = getDatabase(principal, request);
+      Query saved = insertQuery(principal, database, request);
+      startQuery(principal, database, saved);
+      return Response.ok(queryDAO.getById(saved.id, principal.orgId)).build();
+    } catch (RejectedExecutionException exception) {
+      return tooManyRequests();
+    } catch (NotFoundException exception) {
       return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE)
           .entity(exception.getMessage()).build();
     }
@@ -131,13 +411,106 @@ public class QueryResource {
 
   @POST
   @Path("/run")
-  public Response runQuery(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request) {
+  public void runQuery(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request,
+                       @Suspended final AsyncResponse asyncResponse) {
+    try {
+      Database database = getDatabase(principal, request);
+      Query saved = insertQuery(principal, database, request);
+      // The request thread is released here. The response is sent when the worker finishes the query.
+      startQuery(principal, database, saved).whenComplete((result, throwable) ->
+          asyncResponse.resume(this.getQueryResult(principal, saved.id)));
+    } catch (RejectedExecutionException exception) {
+      asyncResponse.resume(tooManyRequests());
+    } catch (NotFoundException exception) {
+      asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE)
+        .entity(exception.getMessage()).build());
+    }
+  }
+
+  @POST
+  @Path("/stream")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response streamQuery(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request,
+                              @QueryParam("format") String format) {
+    boolean compact;
     try {
-      Long id = startQuery(principal, request);
-      return this.getQueryResult(principal, id, true);
-    } catch (InterruptedException | NotFoundException | SQLException exception) {
+      compact = isCompact(format);
+    } catch (IllegalArgumentException exception) {
       return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE)
-        .entity(exception.getMessage()).build();
+          .entity(exception.getMessage()).build();
+    }
+    return stream(principal, request, compact ? QueryStream.Format.COMPACT_JSON : QueryStream.Format.JSON,
+        MediaType.APPLICATION_JSON_TYPE);
+  }
+
+  /**
+   * Streams the rows as Arrow record batches, for clients that ask for them in the Accept header.
+   */
+  @POST
+  @Path("/stream")
+  @Produces(ArrowWriter.MEDIA_TYPE)
+  public Response streamQueryArrow(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request) {
+    return stream(principal, request, QueryStream.Format.ARROW, MediaType.valueOf(ArrowWriter.MEDIA_TYPE));
+  }
+
+  /**
+   * Streams the rows as Smile, for clients that ask for it in the Accept header.
+   */
+  @POST
+  @Path("/stream")
+  @Produces(SmileMediaTypes.APPLICATION_JACKSON_SMILE)
+  public Response streamQuerySmile(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request) {
+    return stream(principal, request, QueryStream.Format.SMILE, SmileMediaTypes.APPLICATION_JACKSON_SMILE_TYPE);
+  }
+
+  /**
+   * Streams the rows as CBOR, for clients that ask for it in the Accept header.
+   */
+  @POST
+  @Path("/stream")
+  @Produces(CBORMediaTypes.APPLICATION_JACKSON_CBOR)
+  public Response streamQueryCbor(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request) {
+    return stream(principal, request, QueryStream.Format.CBOR, CBORMediaTypes.APPLICATION_JACKSON_CBOR_TYPE);
+  }
+
+  /**
+   * Runs a query and streams its rows as CSV without keeping a copy of the result.
+   */
+  @POST
+  @Path("/run.csv")
+  @Produces(CSV)
+  public Response runQueryCsv(@Auth User principal, @Valid @NotNull Query.RunQueryRequest request) {
+    if (!queryConfiguration.getAllowCsvDownload()) {
+      return csvNotAllowed();
+    }
+    return stream(principal, request, QueryStream.Format.CSV, MediaType.valueOf(CSV));
+  }
+
+  /**
+   * Runs the query in the thread pool like any other and streams its rows once it has been executed. Errors up to
+   * that point are returned as a bad request.
+   */
+  private Response stream(User principal, Query.RunQueryRequest request, QueryStream.Format format,
+                          MediaType type) {
+    MediaType errorType = type.equals(MediaType.APPLICATION_JSON_TYPE) ? type : MediaType.TEXT_PLAIN_TYPE;
+    try {
+      Database database = getDatabase(principal, request);
+      Query saved = insertQuery(principal, database, request);
+      QueryStream stream = new QueryStream(saved, queryDAO, connections.getDataSource(saved.dbId), objectMapper,
+          queryConfiguration.limitsFor(database, principal), metricRegistry, format);
+      Throwable failure = stream.awaitExecution(submit(principal, saved, stream, null));
+      if (failure != null) {
+        return Response.status(Response.Status.BAD_REQUEST).type(errorType).entity(failure.getMessage()).build();
+      }
+      Response.ResponseBuilder response = Response.ok(stream, type);
+      if (format == QueryStream.Format.CSV) {
+        response.header(HttpHeaders.CONTENT_DISPOSITION, csvFileName(saved.id));
+      }
+      return response.build();
+    } catch (RejectedExecutionException exception) {
+      return tooManyRequests();
+    } catch (NotFoundException exception) {
+      return Response.status(Response.Status.BAD_REQUEST).type(errorType).entity(exception.getMessage()).build();
     }
   }
 }
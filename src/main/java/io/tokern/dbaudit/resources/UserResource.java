@@ -1,5 +1,7 @@
 package io.tokern.dbaudit.resources;
 
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
 import io.dropwizard.auth.Auth;
 import io.tokern.dbaudit.api.LoginRequest;
 import io.tokern.dbaudit.api.LoginResponse;
@@ -21,7 +23,8 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 @Path("/users")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+    CBORMediaTypes.APPLICATION_JACKSON_CBOR})
 public class UserResource {
   private static final Logger logger = LoggerFactory.getLogger(UserResource.class);
 
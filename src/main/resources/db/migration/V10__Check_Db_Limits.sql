@@ -0,0 +1,9 @@
+UPDATE dbs SET max_rows = NULL WHERE max_rows <= 0;
+UPDATE dbs SET max_result_bytes = NULL WHERE max_result_bytes <= 0;
+UPDATE dbs SET timeout_seconds = NULL WHERE timeout_seconds <= 0;
+UPDATE dbs SET cache_ttl_seconds = NULL WHERE cache_ttl_seconds < 0;
+
+ALTER TABLE dbs ADD CONSTRAINT dbs_max_rows_check CHECK (max_rows > 0);
+ALTER TABLE dbs ADD CONSTRAINT dbs_max_result_bytes_check CHECK (max_result_bytes > 0);
+ALTER TABLE dbs ADD CONSTRAINT dbs_timeout_seconds_check CHECK (timeout_seconds > 0);
+ALTER TABLE dbs ADD CONSTRAINT dbs_cache_ttl_seconds_check CHECK (cache_ttl_seconds >= 0);
@@ -0,0 +1,3 @@
+ALTER TABLE dbs
+    ADD COLUMN max_rows INTEGER,
+    ADD COLUMN max_result_bytes BIGINT;
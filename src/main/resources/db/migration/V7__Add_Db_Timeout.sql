@@ -0,0 +1,2 @@
+ALTER TABLE dbs
+    ADD COLUMN timeout_seconds INTEGER;
@@ -0,0 +1,5 @@
+ALTER TABLE dbs
+    ADD COLUMN coalesce_queries BOOLEAN NOT NULL DEFAULT FALSE;
+
+ALTER TABLE queries
+    ADD COLUMN shared_with INTEGER REFERENCES queries(id);
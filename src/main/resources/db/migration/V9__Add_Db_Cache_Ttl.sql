@@ -0,0 +1,2 @@
+ALTER TABLE dbs
+    ADD COLUMN cache_ttl_seconds INTEGER;
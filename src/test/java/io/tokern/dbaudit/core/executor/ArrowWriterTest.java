@@ -0,0 +1,81 @@
+package io.tokern.dbaudit.core.executor;
+
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArrowWriterTest {
+  private static byte[] write(String sql, int batchSize) throws Exception {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE EVENTS(ID BIGINT, NAME VARCHAR(20), AMOUNT DECIMAL(10, 2), SCORE DOUBLE, "
+          + "ACTIVE BOOLEAN, DAY DATE, CREATED TIMESTAMP, DATA BINARY(2))");
+      statement.execute("INSERT INTO EVENTS VALUES(1, 'open', 12.50, 0.5, TRUE, '2019-12-01', "
+          + "'2019-12-01 10:15:00', X'CAFE'), (2, NULL, NULL, NULL, NULL, NULL, NULL, NULL), (3, 'close', -1, 2, "
+          + "FALSE, '2020-01-31', '2020-01-31 23:59:59', X'0001')");
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      new ArrowWriter(output, batchSize).write(statement.executeQuery(sql));
+      return output.toByteArray();
+    }
+  }
+
+  @Test
+  void writesSchemaAndBatches() throws Exception {
+    byte[] stream = write("SELECT * FROM EVENTS ORDER BY ID", 2);
+    try (RootAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+         ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(stream), allocator)) {
+      VectorSchemaRoot root = reader.getVectorSchemaRoot();
+      Schema schema = root.getSchema();
+      assertEquals(new ArrowType.Int(64, true), schema.findField("ID").getType());
+      assertEquals(ArrowType.Utf8.INSTANCE, schema.findField("NAME").getType());
+      assertEquals(new ArrowType.Decimal(10, 2), schema.findField("AMOUNT").getType());
+      assertEquals(ArrowType.Bool.INSTANCE, schema.findField("ACTIVE").getType());
+      assertEquals(ArrowType.Binary.INSTANCE, schema.findField("DATA").getType());
+
+      assertTrue(reader.loadNextBatch());
+      assertEquals(2, root.getRowCount());
+      assertEquals(1L, root.getVector("ID").getObject(0));
+      assertEquals("open", root.getVector("NAME").getObject(0).toString());
+      assertEquals(new BigDecimal("12.50"), root.getVector("AMOUNT").getObject(0));
+      assertEquals(0.5, root.getVector("SCORE").getObject(0));
+      assertEquals(true, root.getVector("ACTIVE").getObject(0));
+      assertEquals((int) LocalDate.of(2019, 12, 1).toEpochDay(), root.getVector("DAY").getObject(0));
+      assertEquals(LocalDateTime.of(2019, 12, 1, 10, 15), root.getVector("CREATED").getObject(0));
+      assertArrayEquals(new byte[]{(byte) 0xCA, (byte) 0xFE}, (byte[]) root.getVector("DATA").getObject(0));
+      for (String column : new String[]{"NAME", "AMOUNT", "SCORE", "ACTIVE", "DAY", "CREATED", "DATA"}) {
+        assertTrue(root.getVector(column).isNull(1), column);
+      }
+
+      assertTrue(reader.loadNextBatch());
+      assertEquals(1, root.getRowCount());
+      assertEquals(3L, root.getVector("ID").getObject(0));
+      assertFalse(reader.loadNextBatch());
+    }
+  }
+
+  @Test
+  void writesEmptyResult() throws Exception {
+    byte[] stream = write("SELECT ID, NAME FROM EVENTS WHERE ID < 0", 2);
+    try (RootAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+         ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(stream), allocator)) {
+      assertEquals(2, reader.getVectorSchemaRoot().getSchema().getFields().size());
+      assertTrue(reader.loadNextBatch());
+      assertEquals(0, reader.getVectorSchemaRoot().getRowCount());
+      assertFalse(reader.loadNextBatch());
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ColumnarResultTest {
+  private static Connection connection;
+
+  @BeforeAll
+  static void setUpDb() throws SQLException {
+    connection = DriverManager.getConnection("jdbc:h2:mem:columnarDb;DB_CLOSE_DELAY=-1", "", "");
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE VALUES_TEST(ID INT, BIG BIGINT, PRICE DOUBLE, NAME VARCHAR(20), "
+          + "ACTIVE BOOLEAN, AMOUNT DECIMAL(10, 2), CREATED DATE, DATA BINARY(2))");
+      statement.execute("INSERT INTO VALUES_TEST VALUES(1, 10000000000, 1.5, 'first', TRUE, 10.25, "
+          + "'2019-01-01', X'0102')");
+      statement.execute("INSERT INTO VALUES_TEST VALUES(2, NULL, NULL, 'second', FALSE, NULL, NULL, NULL)");
+      statement.execute("INSERT INTO VALUES_TEST VALUES(NULL, 3, 2.5, 'first', NULL, 0.5, '2019-02-01', X'03')");
+      statement.execute("INSERT INTO VALUES_TEST VALUES(4, 4, 3.5, NULL, TRUE, 1, '2019-03-01', X'04')");
+    }
+  }
+
+  @AfterAll
+  static void tearDownDb() throws SQLException {
+    connection.close();
+  }
+
+  private static ColumnarResult query(String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery(sql)) {
+      return ColumnarResult.of(resultSet);
+    }
+  }
+
+  @Test
+  void readValues() throws SQLException {
+    ColumnarResult result = query("SELECT * FROM VALUES_TEST ORDER BY BIG");
+    assertEquals(4, result.getRowCount());
+    assertEquals(8, result.getColumnCount());
+    assertEquals("NAME", result.getColumn(3).label);
+    assertEquals(ColumnarResult.Encoding.INT32, result.getColumn(0).encoding);
+    assertEquals(ColumnarResult.Encoding.DICTIONARY, result.getColumn(3).encoding);
+
+    // NULL sorts first
+    assertTrue(result.isNull(0, 1));
+    assertTrue(result.isNull(0, 2));
+    assertNull(result.getString(0, 5));
+    assertEquals(2, result.getLong(0, 0));
+    assertFalse(result.getBoolean(0, 4));
+
+    assertTrue(result.isNull(1, 0));
+    assertEquals(3, result.getLong(1, 1));
+    assertEquals(2.5, result.getDouble(1, 2));
+    assertEquals("first", result.getString(1, 3));
+    assertTrue(result.isNull(1, 4));
+    assertEquals("0.50", result.getString(1, 5));
+    assertArrayEquals(new byte[]{3}, result.getBytes(1, 7));
+
+    assertNull(result.getString(2, 3));
+    assertEquals(10000000000L, result.getLong(3, 1));
+    assertEquals("first", result.getString(3, 3));
+    assertTrue(result.getBoolean(3, 4));
+    assertArrayEquals(new byte[]{1, 2}, result.getBytes(3, 7));
+  }
+
+  @Test
+  void sameJsonAsRowSetSerializer() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new RowSetModule());
+
+    // RowSetSerializer cannot write a NULL date
+    String sql = "SELECT * FROM VALUES_TEST WHERE CREATED IS NOT NULL ORDER BY ID";
+    CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+    try (Statement statement = connection.createStatement()) {
+      rowSet.populate(statement.executeQuery(sql));
+    }
+    assertEquals(mapper.writeValueAsString(rowSet), mapper.writeValueAsString(query(sql)));
+  }
+
+  @Test
+  void readFromCopiedBuffer() throws SQLException {
+    ColumnarResult result = query("SELECT ID, NAME FROM VALUES_TEST ORDER BY ID");
+    ByteBuffer copy = ByteBuffer.allocate((int) result.getSizeInBytes());
+    copy.put(result.getBuffer());
+
+    ColumnarResult read = new ColumnarResult(copy);
+    assertEquals(result.getRowCount(), read.getRowCount());
+    assertEquals("second", read.getString(2, 1));
+    assertEquals(4, read.getLong(3, 0));
+  }
+
+  @Test
+  void largeDictionary() throws SQLException {
+    int rows = ColumnarResult.MAX_DICTIONARY_SIZE + 100;
+    ColumnarResult result = query("SELECT CASE WHEN MOD(X, 1000) = 0 THEN NULL ELSE 'value ' || X END "
+        + "FROM SYSTEM_RANGE(1, " + rows + ")");
+    assertEquals(rows, result.getRowCount());
+    assertEquals(ColumnarResult.Encoding.VARIABLE, result.getColumn(0).encoding);
+    assertEquals("value 1", result.getString(0, 0));
+    assertNull(result.getString(999, 0));
+    assertEquals("value " + rows, result.getString(rows - 1, 0));
+  }
+
+  @Test
+  void arrays() throws Exception {
+    String sql = "SELECT (1, 2) AS NUMBERS, ('a', NULL, (TRUE, 1.5)) AS MIXED, CAST(NULL AS ARRAY) AS EMPTY";
+    ColumnarResult result = query(sql);
+    assertEquals("[1,2]", result.getString(0, 0));
+    assertEquals("[\"a\",null,[true,1.5]]", result.getString(0, 1));
+    assertTrue(result.isNull(0, 2));
+
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new RowSetModule());
+    String json = mapper.writeValueAsString(result);
+    // CachedRowSet cannot hold arrays, so the open result set is serialized
+    try (Statement statement = connection.createStatement()) {
+      assertEquals(mapper.writeValueAsString(statement.executeQuery(sql)), json);
+    }
+    assertTrue(json.contains("\"rows\":[{\"NUMBERS\":[1,2],\"MIXED\":[\"a\",null,[true,1.5]],"
+        + "\"EMPTY\":null}]"));
+  }
+
+  @Test
+  void timestampsKeepTheDate() throws Exception {
+    String sql = "SELECT TIMESTAMP '2019-03-04 05:06:07.5' AS CREATED";
+    ColumnarResult result = query(sql);
+    long millis = Timestamp.valueOf("2019-03-04 05:06:07.5").getTime();
+    assertEquals(millis, result.getLong(0, 0));
+
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new RowSetModule());
+    String json = mapper.writeValueAsString(result);
+    try (Statement statement = connection.createStatement()) {
+      assertEquals(mapper.writeValueAsString(statement.executeQuery(sql)), json);
+    }
+    assertTrue(json.contains("\"rows\":[{\"CREATED\":" + millis + "}]"));
+  }
+
+  @Test
+  void structsAsText() throws Exception {
+    ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+    when(rsmd.getColumnCount()).thenReturn(1);
+    when(rsmd.getColumnLabel(1)).thenReturn("ADDRESS");
+    when(rsmd.getColumnName(1)).thenReturn("ADDRESS");
+    when(rsmd.getColumnTypeName(1)).thenReturn("address");
+    when(rsmd.getColumnType(1)).thenReturn(Types.STRUCT);
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getMetaData()).thenReturn(rsmd);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getString(1)).thenThrow(new SQLFeatureNotSupportedException());
+    when(resultSet.getObject(1)).thenReturn("(1 Main St,Springfield)", (Object) null);
+
+    ColumnarResult result = ColumnarResult.of(resultSet);
+    assertEquals("(1 Main St,Springfield)", result.getString(0, 0));
+    assertTrue(result.isNull(1, 0));
+  }
+}
@@ -0,0 +1,67 @@
+package io.tokern.dbaudit.core.executor;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvWriterTest {
+  private static final String EXPECTED = "ID,NAME,SCORE\r\n"
+      + "1,Ann,7.5\r\n"
+      + "2,\"Bob, Jr.\",\r\n"
+      + "3,\"say \"\"hi\"\"\",2.0\r\n";
+
+  private static ResultSet people(Statement statement) throws SQLException {
+    statement.execute("CREATE TABLE PEOPLE(ID INT, NAME VARCHAR(20), SCORE DOUBLE)");
+    statement.execute("INSERT INTO PEOPLE VALUES(1, 'Ann', 7.5), (2, 'Bob, Jr.', NULL), (3, 'say \"hi\"', 2.0)");
+    return statement.executeQuery("SELECT * FROM PEOPLE ORDER BY ID");
+  }
+
+  @Test
+  void quotesFields() throws Exception {
+    StringWriter output = new StringWriter();
+    CsvWriter writer = new CsvWriter(output);
+    writer.writeField("plain");
+    writer.writeField("two\nlines");
+    writer.writeField(null);
+    writer.writeField("");
+    writer.endRow();
+    writer.flush();
+    assertEquals("plain,\"two\nlines\",,\r\n", output.toString());
+  }
+
+  @Test
+  void writesResultSet() throws Exception {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement();
+         ResultSet rs = people(statement)) {
+      StringWriter output = new StringWriter();
+      new CsvWriter(output).write(rs);
+      assertEquals(EXPECTED, output.toString());
+    }
+  }
+
+  @Test
+  void writesView() throws Exception {
+    ColumnarResult rows;
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement()) {
+      rows = ColumnarResult.of(people(statement));
+    }
+    StringWriter output = new StringWriter();
+    new CsvWriter(output).write(new ResultView(rows));
+    assertEquals(EXPECTED, output.toString());
+
+    output = new StringWriter();
+    new CsvWriter(output).write(ResultView.of(rows, Collections.singletonList("SCORE:notnull"), "-ID", null,
+        "NAME"));
+    assertEquals("NAME\r\n\"say \"\"hi\"\"\"\r\nAnn\r\n", output.toString());
+  }
+}
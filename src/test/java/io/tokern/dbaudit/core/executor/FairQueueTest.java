@@ -0,0 +1,56 @@
+package io.tokern.dbaudit.core.executor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FairQueueTest {
+  private static List<String> drain(FairQueue<String> queue) {
+    List<String> order = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      order.add(queue.poll());
+    }
+    return order;
+  }
+
+  @Test
+  void roundRobinAcrossOrgsAndUsers() {
+    FairQueue<String> queue = new FairQueue<>();
+    for (int i = 1; i <= 4; i++) {
+      queue.add(1, 10, 1, "a" + i);
+    }
+    queue.add(1, 11, 1, "b1");
+    queue.add(2, 20, 1, "c1");
+    queue.add(2, 20, 1, "c2");
+
+    assertEquals(7, queue.size());
+    assertEquals(Arrays.asList("a1", "c1", "b1", "c2", "a2", "a3", "a4"), drain(queue));
+    assertNull(queue.poll());
+  }
+
+  @Test
+  void weightedUsers() {
+    FairQueue<String> queue = new FairQueue<>();
+    for (int i = 1; i <= 4; i++) {
+      queue.add(1, 10, 1, "user" + i);
+      queue.add(1, 11, 3, "admin" + i);
+    }
+
+    assertEquals(Arrays.asList("user1", "admin1", "admin2", "admin3", "user2", "admin4", "user3", "user4"),
+        drain(queue));
+  }
+
+  @Test
+  void addWhileDraining() {
+    FairQueue<String> queue = new FairQueue<>();
+    queue.add(1, 10, 1, "a1");
+    queue.add(1, 10, 1, "a2");
+    assertEquals("a1", queue.poll());
+    queue.add(2, 20, 1, "b1");
+    assertEquals(Arrays.asList("a2", "b1"), drain(queue));
+  }
+}
@@ -0,0 +1,83 @@
+package io.tokern.dbaudit.core.executor;
+
+import io.tokern.dbaudit.api.Database;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FetchStrategyTest {
+  private static Connection connection(String url, Statement statement) throws SQLException {
+    Connection connection = mock(Connection.class);
+    DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+    when(metaData.getURL()).thenReturn(url);
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(statement);
+    return connection;
+  }
+
+  @Test
+  void postgresUsesCursor() throws SQLException {
+    Statement statement = mock(Statement.class);
+    Connection connection = connection("jdbc:postgresql://localhost/db", statement);
+    FetchStrategy fetch = new FetchStrategy(Database.Driver.POSTGRESQL, 500);
+
+    assertSame(statement, fetch.createStatement(connection));
+    verify(connection).setAutoCommit(false);
+    verify(statement).setFetchSize(500);
+
+    when(connection.getAutoCommit()).thenReturn(false);
+    fetch.release(connection);
+    verify(connection).commit();
+    verify(connection).setAutoCommit(true);
+  }
+
+  @Test
+  void mysqlStreamsRows() throws SQLException {
+    Statement statement = mock(Statement.class);
+    Connection connection = connection("jdbc:mysql://localhost/db", statement);
+    new FetchStrategy(Database.Driver.MYSQL, 500).createStatement(connection);
+    verify(statement).setFetchSize(Integer.MIN_VALUE);
+    verify(connection, never()).setAutoCommit(anyBoolean());
+
+    Statement cursor = mock(Statement.class);
+    new FetchStrategy(Database.Driver.MYSQL, 500).createStatement(
+        connection("jdbc:mysql://localhost/db?useCursorFetch=true", cursor));
+    verify(cursor).setFetchSize(500);
+  }
+
+  @Test
+  void zeroKeepsDriverDefaults() throws SQLException {
+    Connection connection = mock(Connection.class);
+    new FetchStrategy(Database.Driver.POSTGRESQL, 0).createStatement(connection);
+    FetchStrategy.DEFAULT.createStatement(connection);
+    verify(connection, times(2)).createStatement();
+    verify(connection, never()).setAutoCommit(anyBoolean());
+  }
+
+  @Test
+  void h2FetchesInBatches() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:", "", "")) {
+      FetchStrategy fetch = new FetchStrategy(Database.Driver.H2, 100);
+      try (Statement statement = fetch.createStatement(connection);
+           ResultSet resultSet = statement.executeQuery("SELECT X FROM SYSTEM_RANGE(1, 1000)")) {
+        assertEquals(100, statement.getFetchSize());
+        int rows = 0;
+        while (resultSet.next()) {
+          rows++;
+        }
+        assertEquals(1000, rows);
+      }
+      fetch.release(connection);
+      assertTrue(connection.getAutoCommit());
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.tokern.dbaudit.api.Query;
+import io.tokern.dbaudit.db.QueryDAO;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class LobStreamTest {
+  private static final String URL = "jdbc:h2:mem:LobStreamTest;DB_CLOSE_DELAY=-1";
+  private static final String SQL = "SELECT * FROM DOCUMENTS ORDER BY ID";
+  private static final int SIZE = 3 * LobStream.CHUNK_SIZE + 5;
+  private static final int PREVIEW = 100;
+
+  private static String text;
+  private static byte[] data;
+
+  @BeforeAll
+  static void setUp() throws SQLException {
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < SIZE) {
+      builder.append("{\"key\": \"välue\"} ");
+    }
+    text = builder.substring(0, SIZE);
+    data = new byte[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      data[i] = (byte) i;
+    }
+    try (Connection conn = DriverManager.getConnection(URL, "", "");
+         Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE DOCUMENTS(ID INT, BODY CLOB, DATA BLOB)");
+      statement.execute("INSERT INTO DOCUMENTS VALUES(1, NULL, NULL)");
+      statement.execute("INSERT INTO DOCUMENTS VALUES(3, 'short', X'0102')");
+      try (PreparedStatement insert = conn.prepareStatement("INSERT INTO DOCUMENTS VALUES(2, ?, ?)")) {
+        insert.setString(1, text);
+        insert.setBytes(2, data);
+        insert.execute();
+      }
+    }
+  }
+
+  private static ColumnarResult store(ResultSpill spill) throws SQLException {
+    try (Connection conn = DriverManager.getConnection(URL, "", "");
+         Statement statement = conn.createStatement()) {
+      if (spill == null) {
+        return ColumnarResult.of(statement.executeQuery(SQL), PREVIEW);
+      }
+      try (ResultSpill.LobOutput lobs = spill.writeLobs(1)) {
+        ColumnarResult rows = ColumnarResult.of(statement.executeQuery(SQL), PREVIEW, lobs);
+        lobs.commit();
+        return rows;
+      }
+    }
+  }
+
+  private static ByteArrayOutputStream stream(ColumnarResult rows, ResultSpill spill, int row, String column)
+      throws Exception {
+    LobStream stream = LobStream.of(2, 1, rows, row, column, spill, PREVIEW);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    stream.write(output);
+    return output;
+  }
+
+  @Test
+  void streamsKeptValue() throws Exception {
+    Path directory = Files.createTempDirectory("LobStreamTest");
+    ResultSpill spill = new ResultSpill(directory, 60, new MetricRegistry());
+    ColumnarResult rows = store(spill);
+    // All the values of a result are kept in one file
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(1, files.count());
+    }
+    assertEquals(text, stream(rows, spill, 1, "BODY").toString(StandardCharsets.UTF_8));
+    assertArrayEquals(data, stream(rows, spill, 1, "data").toByteArray());
+    assertEquals(0, stream(rows, spill, 0, "BODY").size());
+    // Values shorter than the preview are whole in the stored result
+    assertNull(spill.readLob(1, 2, 1));
+    assertEquals("short", stream(rows, spill, 2, "BODY").toString(StandardCharsets.UTF_8));
+    assertArrayEquals(new byte[] {1, 2}, stream(rows, spill, 2, "DATA").toByteArray());
+    assertEquals("3", stream(rows, spill, 2, "ID").toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void cutValueNotKept() throws Exception {
+    ColumnarResult rows = store(null);
+    assertThrows(IllegalStateException.class, () -> stream(rows, null, 1, "BODY"));
+    assertThrows(IllegalStateException.class, () -> stream(rows, null, 1, "DATA"));
+    assertEquals("short", stream(rows, null, 2, "BODY").toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void stopsKeepingAtQuota() throws Exception {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ResultSpill spill = new ResultSpill(Files.createTempDirectory("LobStreamTest"), 60, 2L * SIZE, metricRegistry);
+    ColumnarResult rows = store(spill);
+    assertThrows(IllegalStateException.class, () -> stream(rows, spill, 1, "BODY"));
+    assertThrows(IllegalStateException.class, () -> stream(rows, spill, 1, "DATA"));
+    assertEquals("short", stream(rows, spill, 2, "BODY").toString(StandardCharsets.UTF_8));
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(ResultSpill.class, "lobs", "dropped")).getCount());
+  }
+
+  @Test
+  void missingRowOrColumn() throws Exception {
+    ColumnarResult rows = store(null);
+    assertThrows(IllegalArgumentException.class, () -> stream(rows, null, 3, "BODY"));
+    assertThrows(IllegalArgumentException.class, () -> stream(rows, null, -1, "BODY"));
+    assertThrows(IllegalArgumentException.class, () -> stream(rows, null, 1, "TITLE"));
+  }
+
+  @Test
+  void keptWhileRunning() throws Exception {
+    ResultSpill spill = new ResultSpill(Files.createTempDirectory("LobStreamTest"), 60, new MetricRegistry());
+    JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL(URL);
+    Query query = new Query(7, SQL, 1, 1, 1, Query.State.WAITING);
+    ThreadPool threadPool = new ThreadPool();
+    try {
+      ThreadPool.Result result = threadPool.submit(new ThreadPool.Work(query, mock(QueryDAO.class), dataSource,
+          new QueryLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 0, PREVIEW), spill, new MetricRegistry())).get();
+      assertEquals(text.substring(0, PREVIEW), result.rows.getString(1, 1));
+      LobStream stream = LobStream.of(7, 7, result.rows, 1, "BODY", spill, PREVIEW);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      stream.write(output);
+      assertEquals(text, output.toString(StandardCharsets.UTF_8));
+    } finally {
+      threadPool.stop();
+    }
+  }
+
+  @Test
+  void storesPreview() throws SQLException {
+    try (Connection conn = DriverManager.getConnection(URL, "", "");
+         Statement statement = conn.createStatement()) {
+      ColumnarResult rows = ColumnarResult.of(statement.executeQuery(SQL), PREVIEW);
+      assertTrue(rows.isNull(0, 1));
+      assertEquals(text.substring(0, PREVIEW), rows.getString(1, 1));
+      assertArrayEquals(Arrays.copyOf(data, PREVIEW), rows.getBytes(1, 2));
+    }
+  }
+
+  @Test
+  void serializesPreview() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (Connection conn = DriverManager.getConnection(URL, "", "");
+         Statement statement = conn.createStatement();
+         JsonGenerator jgen = mapper.getFactory().createGenerator(output)) {
+      new RowSetSerializer(false, 10).serialize(statement.executeQuery(SQL), () -> false, jgen,
+          mapper.getSerializerProviderInstance());
+    }
+    JsonNode rows = mapper.readTree(output.toByteArray()).get("queryResult").get("rows");
+    assertTrue(rows.get(0).get("BODY").isNull());
+    assertTrue(rows.get(0).get("DATA").isNull());
+    assertEquals(text.substring(0, 10), rows.get(1).get("BODY").asText());
+    assertEquals(Base64.getEncoder().encodeToString(Arrays.copyOf(data, 10)), rows.get(1).get("DATA").asText());
+  }
+}
@@ -0,0 +1,61 @@
+package io.tokern.dbaudit.core.executor;
+
+import io.tokern.dbaudit.api.Database;
+import io.tokern.dbaudit.api.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryConfigurationTest {
+  private final Database database = new Database(1, "db", "jdbc:h2:mem:test", "", "", Database.Driver.H2, 1);
+  private final User user = new User("user", "user@example.com", new byte[0], User.SystemRoles.USER, 1);
+  private final QueryConfiguration configuration = new QueryConfiguration();
+
+  @BeforeEach
+  void setUp() {
+    configuration.setMaxRows(1000);
+    configuration.setMaxResultBytes(1024);
+    configuration.setTimeoutSeconds(60);
+  }
+
+  private static QueryConfiguration.RoleLimits role(Integer maxRows, Long maxResultBytes, Integer timeoutSeconds) {
+    QueryConfiguration.RoleLimits limits = new QueryConfiguration.RoleLimits();
+    limits.setMaxRows(maxRows);
+    limits.setMaxResultBytes(maxResultBytes);
+    limits.setTimeoutSeconds(timeoutSeconds);
+    return limits;
+  }
+
+  @Test
+  void roleTightensDefaults() {
+    configuration.setRoles(Map.of(User.SystemRoles.USER, role(10, 100L, 5)));
+
+    QueryLimits limits = configuration.limitsFor(database, user);
+    assertEquals(10, limits.maxRows);
+    assertEquals(100, limits.maxResultBytes);
+    assertEquals(5, limits.timeoutSeconds);
+  }
+
+  @Test
+  void roleCannotLiftDefaults() {
+    configuration.setRoles(Map.of(User.SystemRoles.USER, role(5000, 4096L, 0)));
+
+    QueryLimits limits = configuration.limitsFor(database, user);
+    assertEquals(1000, limits.maxRows);
+    assertEquals(1024, limits.maxResultBytes);
+    assertEquals(60, limits.timeoutSeconds);
+  }
+
+  @Test
+  void otherRolesKeepDefaults() {
+    configuration.setRoles(Map.of(User.SystemRoles.ADMIN, role(10, 100L, 5)));
+
+    QueryLimits limits = configuration.limitsFor(database, user);
+    assertEquals(1000, limits.maxRows);
+    assertEquals(1024, limits.maxResultBytes);
+    assertEquals(60, limits.timeoutSeconds);
+  }
+}
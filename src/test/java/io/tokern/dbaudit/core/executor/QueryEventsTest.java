@@ -0,0 +1,93 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.tokern.dbaudit.api.Query;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryEventsTest {
+  private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+  /**
+   * Records the chunks and the threads that wrote them, and blocks every write until the client is released.
+   */
+  private static class Client extends ChunkedOutput<String> {
+    final List<String> chunks = new CopyOnWriteArrayList<>();
+    final List<Thread> threads = new CopyOnWriteArrayList<>();
+    final CountDownLatch reading;
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    Client(CountDownLatch reading) {
+      super(String.class);
+      this.reading = reading;
+    }
+
+    @Override
+    public void write(String chunk) throws IOException {
+      threads.add(Thread.currentThread());
+      try {
+        reading.await();
+      } catch (InterruptedException exception) {
+        throw new IOException(exception);
+      }
+      chunks.add(chunk);
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      closed.countDown();
+    }
+  }
+
+  @AfterEach
+  void stopWriter() {
+    writer.shutdownNow();
+  }
+
+  @Test
+  void writesOffTheCallingThread() throws Exception {
+    Client client = new Client(new CountDownLatch(0));
+    QueryEvents events = new QueryEvents(1, new ObjectMapper(), false, client, writer, 4);
+    events.onState(Query.State.RUNNING);
+    events.onProgress(10, Collections.emptyList());
+    events.onState(Query.State.SUCCESS);
+
+    assertTrue(client.closed.await(5, TimeUnit.SECONDS));
+    assertEquals(3, client.chunks.size());
+    assertTrue(client.chunks.get(0).startsWith("event: state\n"));
+    assertTrue(client.chunks.get(2).contains("SUCCESS"));
+    assertFalse(client.threads.contains(Thread.currentThread()));
+  }
+
+  @Test
+  void dropsSlowClient() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    Client client = new Client(reading);
+    QueryEvents events = new QueryEvents(2, new ObjectMapper(), false, client, writer, 4);
+
+    // The worker is never held up by the client, which is stuck on its first event
+    for (int i = 0; i < 100; i++) {
+      events.onProgress(i, Collections.emptyList());
+    }
+    events.onState(Query.State.SUCCESS);
+    assertTrue(client.threads.size() <= 1);
+
+    reading.countDown();
+    assertTrue(client.closed.await(5, TimeUnit.SECONDS));
+    assertTrue(client.chunks.size() <= 5);
+    assertFalse(client.chunks.stream().anyMatch(chunk -> chunk.contains("SUCCESS")));
+  }
+}
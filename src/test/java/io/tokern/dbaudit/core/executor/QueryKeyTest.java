@@ -0,0 +1,76 @@
+package io.tokern.dbaudit.core.executor;
+
+import io.tokern.dbaudit.api.Database;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryKeyTest {
+  private static final Database.Driver POSTGRESQL = Database.Driver.POSTGRESQL;
+  private static final Database.Driver MYSQL = Database.Driver.MYSQL;
+
+  @Test
+  void normalizeWhitespace() {
+    assertEquals("SELECT a FROM t WHERE b = 1",
+        QueryKey.normalize("  SELECT a\n  FROM t\tWHERE b = 1 ;\n", POSTGRESQL));
+  }
+
+  @Test
+  void keepQuotedText() {
+    assertEquals("SELECT 'a  b', \"Col  1\" FROM t",
+        QueryKey.normalize("SELECT 'a  b',  \"Col  1\"\nFROM t", POSTGRESQL));
+    assertNotEquals(QueryKey.normalize("SELECT 'a  b'", POSTGRESQL), QueryKey.normalize("SELECT 'a b'", POSTGRESQL));
+    assertEquals("SELECT 'it''s  -- not a comment'",
+        QueryKey.normalize("SELECT 'it''s  -- not a comment'", POSTGRESQL));
+  }
+
+  @Test
+  void lineCommentEndsAtNewline() {
+    assertEquals("SELECT 1 FROM t", QueryKey.normalize("SELECT 1 -- x\nFROM t", POSTGRESQL));
+    assertEquals("SELECT 1", QueryKey.normalize("SELECT 1 -- x FROM t", POSTGRESQL));
+    assertNotEquals(QueryKey.normalize("SELECT 1 # x\nFROM t", MYSQL),
+        QueryKey.normalize("SELECT 1 # x FROM t", MYSQL));
+    assertEquals("SELECT 1 FROM t", QueryKey.normalize("SELECT 1 // x\nFROM t", Database.Driver.H2));
+    // Not a comment in MySQL
+    assertNotEquals(QueryKey.normalize("SELECT 1--1", MYSQL), QueryKey.normalize("SELECT 1", MYSQL));
+  }
+
+  @Test
+  void dropBlockComments() {
+    assertEquals("SELECT 1 FROM t", QueryKey.normalize("SELECT /* a\n b */ 1 FROM t", POSTGRESQL));
+    assertEquals("SELECT 1", QueryKey.normalize("SELECT /* a /* nested */ b */ 1", POSTGRESQL));
+    assertEquals("SELECT /*+ SeqScan(t) */ 1", QueryKey.normalize("SELECT /*+ SeqScan(t) */ 1", POSTGRESQL));
+    assertNotEquals(QueryKey.normalize("SELECT /*!50000 1, */ 2", MYSQL), QueryKey.normalize("SELECT 2", MYSQL));
+  }
+
+  @Test
+  void backslashEscapes() {
+    assertEquals("SELECT 'a\\'  b'", QueryKey.normalize("SELECT 'a\\'  b'", MYSQL));
+    assertNotEquals(QueryKey.normalize("SELECT 'a\\'  b'", MYSQL), QueryKey.normalize("SELECT 'a\\' b'", MYSQL));
+    assertNotEquals(QueryKey.normalize("SELECT 'a\\' -- '", MYSQL), QueryKey.normalize("SELECT 'a\\'", MYSQL));
+    assertNotEquals(QueryKey.normalize("SELECT `a  b`", Database.Driver.MARIADB),
+        QueryKey.normalize("SELECT `a b`", Database.Driver.MARIADB));
+    assertNotEquals(QueryKey.normalize("SELECT E'a\\'  b'", POSTGRESQL),
+        QueryKey.normalize("SELECT E'a\\' b'", POSTGRESQL));
+  }
+
+  @Test
+  void keepDollarQuotedText() {
+    assertNotEquals(QueryKey.normalize("SELECT $$a  b$$", POSTGRESQL),
+        QueryKey.normalize("SELECT $$a b$$", POSTGRESQL));
+    assertEquals("SELECT $f$ -- a $f$", QueryKey.normalize("SELECT  $f$ -- a $f$", POSTGRESQL));
+  }
+
+  @Test
+  void exactWithoutDriver() {
+    assertEquals(" SELECT 1 -- x\n", QueryKey.normalize(" SELECT 1 -- x\n", null));
+  }
+
+  @Test
+  void keyIncludesLimits() {
+    assertNotEquals(QueryKey.of(1, POSTGRESQL, "SELECT 1", QueryLimits.UNLIMITED),
+        QueryKey.of(1, POSTGRESQL, "SELECT 1", new QueryLimits(10, Long.MAX_VALUE)));
+    assertNotEquals(QueryKey.of(1, POSTGRESQL, "SELECT 1", QueryLimits.UNLIMITED),
+        QueryKey.of(2, POSTGRESQL, "SELECT 1", QueryLimits.UNLIMITED));
+  }
+}
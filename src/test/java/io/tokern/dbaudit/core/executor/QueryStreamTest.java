@@ -0,0 +1,200 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.tokern.dbaudit.api.Database;
+import io.tokern.dbaudit.api.Query;
+import io.tokern.dbaudit.db.QueryDAO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class QueryStreamTest {
+  static Connections connections;
+  static ObjectMapper objectMapper;
+  static ThreadPool threadPool;
+
+  @BeforeAll
+  static void init() throws SQLException {
+    String encryptionSecret = "secret";
+    Database database = new Database(1, "QueryStreamTest", "jdbc:h2:mem:myDb;DB_CLOSE_DELAY=-1", "",
+        Database.encryptPassword("", encryptionSecret), Database.Driver.H2, 1);
+    connections = new Connections(new HealthCheckRegistry(), new MetricRegistry(), encryptionSecret);
+    connections.addDatabase(database);
+    System.setProperty("p6spy.config.appender", "com.p6spy.engine.spy.appender.Slf4JLogger");
+
+    objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new RowSetModule());
+    threadPool = new ThreadPool();
+  }
+
+  @AfterAll
+  static void stop() throws Exception {
+    threadPool.stop();
+  }
+
+  private static QueryStream stream(Query query, QueryDAO queryDAO, QueryLimits limits,
+                                    MetricRegistry metricRegistry) {
+    return new QueryStream(query, queryDAO, connections.getDataSource(1L), objectMapper, limits, metricRegistry);
+  }
+
+  @Test
+  void streamRows() throws SQLException, IOException {
+    Query query = new Query(1, "SELECT X FROM SYSTEM_RANGE(1, 3)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    QueryStream stream = stream(query, queryDAO, QueryLimits.UNLIMITED, new MetricRegistry());
+    CompletableFuture<ThreadPool.Result> future = threadPool.submit(stream);
+    assertNull(stream.awaitExecution(future));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    stream.write(output);
+
+    assertEquals("{\"queryResult\":{\"meta\":{\"X\":{\"dataType\":\"BIGINT\",\"maxValueLength\":19}}," +
+        "\"fields\":[\"X\"],\"rows\":[{\"X\":1},{\"X\":2},{\"X\":3}]}}",
+        output.toString(StandardCharsets.UTF_8));
+
+    future.join();
+    verify(queryDAO, times(1)).updateState(1, 1, Query.State.RUNNING);
+    verify(queryDAO, times(1)).updateState(1, 1, Query.State.SUCCESS);
+  }
+
+  @Test
+  void streamTruncated() throws SQLException, IOException {
+    Query query = new Query(3, "SELECT X FROM SYSTEM_RANGE(1, 10)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    MetricRegistry metricRegistry = new MetricRegistry();
+
+    QueryStream stream = stream(query, queryDAO, new QueryLimits(2, Long.MAX_VALUE), metricRegistry);
+    assertNull(stream.awaitExecution(threadPool.submit(stream)));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    stream.write(output);
+
+    assertEquals("{\"queryResult\":{\"meta\":{\"X\":{\"dataType\":\"BIGINT\",\"maxValueLength\":19}}," +
+            "\"fields\":[\"X\"],\"rows\":[{\"X\":1},{\"X\":2}],\"truncated\":true}}",
+        output.toString(StandardCharsets.UTF_8));
+    verify(queryDAO, timeout(5000)).updateState(3, 1, Query.State.SUCCESS);
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(ResultLimiter.class, "truncated", "rows")).getCount());
+  }
+
+  @Test
+  void executeError() {
+    Query query = new Query(2, "SELECT * FROM NO_SUCH_TABLE", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    QueryStream stream = stream(query, queryDAO, QueryLimits.UNLIMITED, new MetricRegistry());
+
+    assertTrue(stream.awaitExecution(threadPool.submit(stream)) instanceof SQLException);
+    verify(queryDAO, times(1)).updateState(2, 1, Query.State.ERROR);
+  }
+
+  @Test
+  void cancelWhileStreaming() throws Exception {
+    Query query = new Query(4, "SELECT X, SPACE(100) FROM SYSTEM_RANGE(1, 10000000)", 1, 1, 1,
+        Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    QueryStream stream = stream(query, queryDAO, QueryLimits.UNLIMITED, new MetricRegistry());
+    CompletableFuture<ThreadPool.Result> future = threadPool.submit(stream);
+    assertNull(stream.awaitExecution(future));
+
+    // The worker holds the query while the client reads, so it can be cancelled like any other
+    assertSame(stream, threadPool.getWork(4));
+    OutputStream client = new OutputStream() {
+      private long written = 0;
+
+      @Override
+      public void write(int b) {
+        written++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        written += len;
+        if (written > 1024 * 1024) {
+          threadPool.cancel(4);
+        }
+      }
+    };
+    assertThrows(IOException.class, () -> stream.write(client));
+
+    assertFalse(future.get().isSuccess());
+    verify(queryDAO, times(1)).updateState(4, 1, Query.State.CANCELLED);
+    verify(queryDAO, never()).updateState(4, 1, Query.State.SUCCESS);
+  }
+
+  @Test
+  void slowClientKeepsDeadline() throws Exception {
+    Query query = new Query(5, "SELECT X, SPACE(100) FROM SYSTEM_RANGE(1, 100000)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    QueryStream stream = stream(query, queryDAO, new QueryLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 1),
+        new MetricRegistry());
+    CompletableFuture<ThreadPool.Result> future = threadPool.submit(stream);
+    assertNull(stream.awaitExecution(future));
+
+    // The worker waits for the client, which does not count against the timeout
+    Thread.sleep(1500);
+    threadPool.checkDeadlines();
+    stream.write(new ByteArrayOutputStream());
+
+    assertNull(future.get().throwable);
+    verify(queryDAO, times(1)).updateState(5, 1, Query.State.SUCCESS);
+    verify(queryDAO, never()).updateState(5, 1, Query.State.ERROR);
+  }
+
+  @Test
+  void abandonedResponse() throws Exception {
+    Query query = new Query(6, "SELECT X, SPACE(100) FROM SYSTEM_RANGE(1, 100000)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    QueryStream stream = new QueryStream(query, queryDAO, connections.getDataSource(1L), objectMapper,
+        QueryLimits.UNLIMITED, new MetricRegistry(), QueryStream.Format.JSON, 200);
+    CompletableFuture<ThreadPool.Result> future = threadPool.submit(stream);
+    assertNull(stream.awaitExecution(future));
+
+    // Nobody writes the response, so the worker gives up its connection after the idle timeout
+    assertNotNull(future.get(5, TimeUnit.SECONDS).throwable);
+    verify(queryDAO, times(1)).updateState(6, 1, Query.State.ERROR);
+  }
+
+  @Test
+  void waitsForPermit() throws Exception {
+    ExecutorConfiguration configuration = new ExecutorConfiguration();
+    ThreadPool lanePool = new ThreadPool(configuration, new MetricRegistry());
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    int permits = Connections.getMaxPoolSize();
+
+    // Streams that nobody reads keep their permits
+    QueryStream[] streams = new QueryStream[permits];
+    for (int i = 0; i < permits; i++) {
+      streams[i] = stream(new Query(10 + i, "SELECT X, SPACE(100) FROM SYSTEM_RANGE(1, 100000)", 1, 1, 1,
+          Query.State.WAITING), queryDAO, QueryLimits.UNLIMITED, new MetricRegistry());
+      assertNull(streams[i].awaitExecution(lanePool.submit(streams[i])));
+    }
+
+    Query query = new Query(20, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    QueryStream waiting = stream(query, queryDAO, QueryLimits.UNLIMITED, new MetricRegistry());
+    CompletableFuture<ThreadPool.Result> future = lanePool.submit(waiting);
+    Thread.sleep(200);
+    verify(queryDAO, never()).updateState(20, 1, Query.State.RUNNING);
+
+    streams[0].write(new ByteArrayOutputStream());
+    assertNull(waiting.awaitExecution(future));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    waiting.write(output);
+    assertTrue(output.toString(StandardCharsets.UTF_8).contains("\"rows\":[{\"1\":1}]"));
+
+    for (int i = 1; i < permits; i++) {
+      lanePool.cancel(10 + i);
+    }
+    lanePool.stop();
+  }
+}
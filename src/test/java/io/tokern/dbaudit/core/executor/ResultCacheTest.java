@@ -0,0 +1,88 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+  private static ResultCacheConfiguration configuration(long maxWeightBytes, int expireAfterWrite,
+                                                        int expireAfterAccess) {
+    ResultCacheConfiguration configuration = new ResultCacheConfiguration();
+    configuration.setMaxWeightBytes(maxWeightBytes);
+    configuration.setExpireAfterWriteSeconds(expireAfterWrite);
+    configuration.setExpireAfterAccessSeconds(expireAfterAccess);
+    return configuration;
+  }
+
+  private static ThreadPool.Result result(long bytes) throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "")) {
+      return new ThreadPool.Result(ColumnarResult.of(conn.createStatement().executeQuery("SELECT 1")), null, false,
+          bytes);
+    }
+  }
+
+  private static Object gauge(MetricRegistry metricRegistry, String name) {
+    Gauge<?> gauge = metricRegistry.getGauges().get(MetricRegistry.name(ResultCache.class, name));
+    return gauge.getValue();
+  }
+
+  @Test
+  void weighResultOnCompletion() throws SQLException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ResultCache cache = new ResultCache(configuration(1024 * 1024, 0, 0), metricRegistry);
+    CompletableFuture<ThreadPool.Result> future = new CompletableFuture<>();
+    cache.put(1, future);
+    assertEquals((long) ResultCache.PENDING_WEIGHT, gauge(metricRegistry, "weight"));
+
+    future.complete(result(5000));
+    assertSame(future, cache.getIfPresent(1));
+    assertEquals(ResultCache.PENDING_WEIGHT + 5000L, gauge(metricRegistry, "weight"));
+
+    assertNull(cache.getIfPresent(2));
+    assertEquals(1L, gauge(metricRegistry, "hits"));
+    assertEquals(1L, gauge(metricRegistry, "misses"));
+    assertEquals(0.5, (Double) gauge(metricRegistry, "hit-ratio"), 0.001);
+  }
+
+  @Test
+  void evictLargeResult() throws SQLException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ResultCache cache = new ResultCache(configuration(64 * 1024, 0, 0), metricRegistry);
+    CompletableFuture<ThreadPool.Result> future = new CompletableFuture<>();
+    cache.put(1, future);
+    assertNotNull(cache.getIfPresent(1));
+
+    future.complete(result(1024 * 1024));
+    assertNull(cache.getIfPresent(1));
+    assertEquals(1L, gauge(metricRegistry, "evictions"));
+    assertEquals(0L, gauge(metricRegistry, "weight"));
+  }
+
+  @Test
+  void expireAfterAccess() throws Exception {
+    ResultCache cache = new ResultCache(configuration(1024 * 1024, 0, 1), new MetricRegistry());
+    cache.put(1, CompletableFuture.completedFuture(result(100)));
+    cache.put(2, CompletableFuture.completedFuture(result(100)));
+    for (int i = 0; i < 3; i++) {
+      Thread.sleep(400);
+      assertNotNull(cache.getIfPresent(1));
+    }
+    assertNull(cache.getIfPresent(2));
+  }
+
+  @Test
+  void expireAfterWrite() throws Exception {
+    ResultCache cache = new ResultCache(configuration(1024 * 1024, 1, 0), new MetricRegistry());
+    cache.put(1, CompletableFuture.completedFuture(result(100)));
+    assertNotNull(cache.getIfPresent(1));
+    Thread.sleep(1100);
+    assertNull(cache.getIfPresent(1));
+  }
+}
@@ -0,0 +1,137 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DropwizardExtensionsSupport.class)
+class ResultCompressionTest {
+  private static final AtomicInteger writes = new AtomicInteger();
+  private static final ResultCompression compression = compression();
+
+  private static final ResourceExtension resources = ResourceExtension.builder()
+      .addResource(new Results())
+      .addProvider(compression)
+      .build();
+
+  private static ResultCompression compression() {
+    try {
+      ResultSpill spill = new ResultSpill(Files.createTempDirectory("ResultCompressionTest"), 60,
+          new MetricRegistry());
+      return new ResultCompression(new CompressionConfiguration(), spill, new MetricRegistry());
+    } catch (IOException io_exc) {
+      throw new RuntimeException(io_exc);
+    }
+  }
+
+  @Path("/queries")
+  @Produces(MediaType.TEXT_PLAIN)
+  public static class Results {
+    @GET
+    @Path("{queryId}/results")
+    @CompressedResult
+    public Response getResults(@PathParam("queryId") long queryId, @QueryParam("rows") int rows) {
+      StreamingOutput output = stream -> {
+        writes.incrementAndGet();
+        stream.write(body(queryId, rows).getBytes(StandardCharsets.UTF_8));
+      };
+      return Response.ok(output).build();
+    }
+  }
+
+  private static String body(long queryId, int rows) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < rows; i++) {
+      builder.append("{\"query\":").append(queryId).append(",\"row\":").append(i).append("}\n");
+    }
+    return builder.toString();
+  }
+
+  private static Response get(long queryId, int rows, String acceptEncoding) {
+    return resources.target("/queries/" + queryId + "/results").queryParam("rows", rows).request()
+        .header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding).get();
+  }
+
+  private static String decode(Response response) throws IOException {
+    InputStream input = new ByteArrayInputStream(response.readEntity(byte[].class));
+    String encoding = response.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+    if ("gzip".equals(encoding)) {
+      input = new GZIPInputStream(input);
+    } else if ("deflate".equals(encoding)) {
+      input = new InflaterInputStream(input);
+    } else if ("zstd".equals(encoding)) {
+      input = new ZstdInputStream(input);
+    }
+    return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void negotiate() {
+    assertNull(compression.negotiate(null));
+    assertNull(compression.negotiate("identity"));
+    assertEquals(ResultCompression.Encoding.ZSTD, compression.negotiate("gzip, deflate, br, zstd"));
+    assertEquals(ResultCompression.Encoding.GZIP, compression.negotiate("gzip;q=0.5, deflate"));
+    assertEquals(ResultCompression.Encoding.DEFLATE, compression.negotiate("gzip;q=0, deflate"));
+    // zstd has to be named
+    assertEquals(ResultCompression.Encoding.GZIP, compression.negotiate("*"));
+    assertNull(compression.negotiate("gzip;q=0, deflate;q=0, zstd;q=0"));
+  }
+
+  @Test
+  void smallResponsesAreNotCompressed() throws IOException {
+    Response response = get(1, 10, "gzip");
+    assertEquals(200, response.getStatus());
+    assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaderString(HttpHeaders.VARY));
+    assertEquals(body(1, 10), decode(response));
+  }
+
+  @Test
+  void compressesWithAcceptedEncoding() throws IOException {
+    String[][] cases = {{"gzip", "gzip"}, {"deflate", "deflate"}, {"gzip, zstd", "zstd"}, {"identity", null}};
+    for (String[] encodings : cases) {
+      Response response = get(2, 1000, encodings[0]);
+      assertEquals(encodings[1], response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+      assertEquals(body(2, 1000), decode(response));
+    }
+  }
+
+  @Test
+  void cachesCompressedResult() throws IOException {
+    int before = writes.get();
+    Response first = get(3, 1000, "gzip");
+    Response second = get(3, 1000, "gzip");
+    assertEquals(before + 1, writes.get());
+    assertEquals("gzip", second.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(decode(first), decode(second));
+
+    // Other parameters and encodings are other variants
+    assertEquals(body(3, 999), decode(get(3, 999, "gzip")));
+    assertEquals(body(3, 1000), decode(get(3, 1000, "zstd")));
+    assertEquals(before + 3, writes.get());
+  }
+}
@@ -0,0 +1,74 @@
+package io.tokern.dbaudit.core.executor;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ResultLimiterTest {
+  @Test
+  void stopsAtMaxRows() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery("SELECT X FROM SYSTEM_RANGE(1, 100)")) {
+      ResultLimiter limiter = new ResultLimiter(resultSet, new QueryLimits(10, Long.MAX_VALUE));
+      ResultSet limited = limiter.getResultSet();
+      assertFalse(Proxy.isProxyClass(limited.getClass()));
+
+      long sum = 0;
+      while (limited.next()) {
+        sum += limited.getLong(1);
+      }
+      assertEquals(55, sum);
+      assertEquals(10, limiter.getRows());
+      assertEquals(240, limiter.getBytes());
+      assertTrue(limiter.isTruncated());
+    }
+  }
+
+  @Test
+  void stopsAtMaxResultBytes() throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery("SELECT SPACE(100) FROM SYSTEM_RANGE(1, 100)")) {
+      ResultLimiter limiter = new ResultLimiter(resultSet, new QueryLimits(1000, 1000));
+      ResultSet limited = limiter.getResultSet();
+      while (limited.next()) {
+        limited.getString(1);
+      }
+      // Each value is estimated at 240 bytes, so the fifth row goes over the budget
+      assertEquals(5, limiter.getRows());
+      assertTrue(limiter.isTruncated());
+    }
+  }
+
+  @Test
+  void countsLobPreview() throws SQLException {
+    Blob blob = mock(Blob.class);
+    when(blob.length()).thenReturn(1_000_000L);
+    Clob clob = mock(Clob.class);
+    when(clob.length()).thenReturn(1_000_000L);
+
+    assertEquals(16 + 100, ResultLimiter.estimateSize(blob, 100));
+    assertEquals(40 + 200, ResultLimiter.estimateSize(clob, 100));
+    assertEquals(16 + 1_000_000, ResultLimiter.estimateSize(blob, 0));
+
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.next()).thenReturn(true);
+    when(resultSet.getBlob(1)).thenReturn(blob);
+    ResultLimiter limiter = new ResultLimiter(resultSet, new QueryLimits(10, 1000, 0, 100));
+    ResultSet limited = limiter.getResultSet();
+    assertTrue(limited.next());
+    assertSame(blob, limited.getBlob(1));
+    assertEquals(116, limiter.getBytes());
+  }
+}
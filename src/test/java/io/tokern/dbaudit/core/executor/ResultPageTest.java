@@ -0,0 +1,67 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultPageTest {
+  private static ThreadPool.Result result;
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @BeforeAll
+  static void setUp() throws SQLException {
+    mapper.registerModule(new RowSetModule());
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "")) {
+      result = new ThreadPool.Result(ColumnarResult.of(conn.createStatement().executeQuery(
+          "SELECT X AS ID FROM SYSTEM_RANGE(1, 25)")), null, false);
+    }
+  }
+
+  @Test
+  void firstPage() throws Exception {
+    JsonNode queryResult = mapper.valueToTree(new ResultPage(7, result, 0, 10)).get("queryResult");
+    assertEquals(10, queryResult.get("rows").size());
+    assertEquals(1, queryResult.get("rows").get(0).get("ID").asInt());
+    assertEquals(0, queryResult.get("offset").asInt());
+    assertEquals(25, queryResult.get("rowCount").asInt());
+    assertEquals(1, queryResult.get("fields").size());
+
+    int next = ResultPage.parseCursor(7, queryResult.get("nextCursor").asText());
+    assertEquals(10, next);
+  }
+
+  @Test
+  void lastPage() throws Exception {
+    JsonNode queryResult = mapper.valueToTree(new ResultPage(7, result, 20, 10)).get("queryResult");
+    assertEquals(5, queryResult.get("rows").size());
+    assertEquals(21, queryResult.get("rows").get(0).get("ID").asInt());
+    assertFalse(queryResult.has("nextCursor"));
+
+    JsonNode pastEnd = mapper.valueToTree(new ResultPage(7, result, 100, 10)).get("queryResult");
+    assertEquals(0, pastEnd.get("rows").size());
+    assertEquals(25, pastEnd.get("offset").asInt());
+  }
+
+  @Test
+  void compactPage() throws Exception {
+    ResultView view = new ResultView(result.rows);
+    JsonNode queryResult = mapper.valueToTree(new ResultPage(7, result, view, 23, 10, true)).get("queryResult");
+    assertEquals("[[24],[25]]", queryResult.get("rows").toString());
+    assertEquals("ID", queryResult.get("meta").fieldNames().next());
+  }
+
+  @Test
+  void invalidCursor() {
+    String cursor = ResultPage.cursor(7, 10);
+    assertThrows(IllegalArgumentException.class, () -> ResultPage.parseCursor(8, cursor));
+    assertThrows(IllegalArgumentException.class, () -> ResultPage.parseCursor(7, "not a cursor"));
+    assertThrows(IllegalArgumentException.class, () -> ResultPage.parseCursor(7, ResultPage.cursor(7, -1)));
+  }
+}
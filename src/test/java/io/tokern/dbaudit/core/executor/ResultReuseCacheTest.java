@@ -0,0 +1,81 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.tokern.dbaudit.api.Database;
+import io.tokern.dbaudit.api.User;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultReuseCacheTest {
+  private static Database database(Integer cacheTtlSeconds) {
+    return new Database(1, "ResultReuseCacheTest", "jdbc:h2:mem:myDb", "", "", Database.Driver.H2, 1,
+        null, null, null, false, cacheTtlSeconds);
+  }
+
+  private static ThreadPool.Result result(long bytes) throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "")) {
+      return new ThreadPool.Result(ColumnarResult.of(conn.createStatement().executeQuery("SELECT 1")), null, false,
+          bytes);
+    }
+  }
+
+  @Test
+  void hitAndMiss() throws SQLException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ResultReuseCache cache = new ResultReuseCache(1024 * 1024, metricRegistry);
+    String key = ResultReuseCache.key(User.SystemRoles.USER, QueryKey.of(1, Database.Driver.H2, "SELECT 1", QueryLimits.UNLIMITED));
+
+    assertNull(cache.get(key));
+    cache.put(database(60), key, 7, result(100));
+    ResultReuseCache.Hit hit = cache.get(key);
+    assertNotNull(hit);
+    assertEquals(7, hit.queryId);
+    assertTrue(hit.result.isSuccess());
+
+    assertNull(cache.get(ResultReuseCache.key(User.SystemRoles.ADMIN,
+        QueryKey.of(1, Database.Driver.H2, "SELECT 1", QueryLimits.UNLIMITED))));
+
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(ResultReuseCache.class, "hits")).getCount());
+    assertEquals(2, metricRegistry.meter(MetricRegistry.name(ResultReuseCache.class, "misses")).getCount());
+    Gauge<?> ratio = metricRegistry.getGauges().get(MetricRegistry.name(ResultReuseCache.class, "hit-ratio"));
+    assertEquals(1.0 / 3, (Double) ratio.getValue(), 0.001);
+  }
+
+  @Test
+  void notCachedWithoutTtl() throws SQLException {
+    ResultReuseCache cache = new ResultReuseCache(1024 * 1024, new MetricRegistry());
+    assertFalse(ResultReuseCache.isEnabled(database(null)));
+    assertFalse(ResultReuseCache.isEnabled(database(0)));
+
+    cache.put(database(null), "key", 7, result(100));
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  void expireAfterTtl() throws Exception {
+    ResultReuseCache cache = new ResultReuseCache(1024 * 1024, new MetricRegistry());
+    cache.put(database(1), "key", 7, result(100));
+    assertNotNull(cache.get("key"));
+    Thread.sleep(1100);
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  void evictByWeight() throws SQLException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ResultReuseCache cache = new ResultReuseCache(1000, metricRegistry);
+    cache.put(database(60), "large", 7, result(5000));
+    assertNull(cache.get("large"));
+
+    cache.put(database(60), "small", 8, result(100));
+    assertNotNull(cache.get("small"));
+    assertEquals(100L, metricRegistry.getGauges().get(MetricRegistry.name(ResultReuseCache.class, "weight"))
+        .getValue());
+  }
+}
@@ -0,0 +1,130 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultSpillTest {
+  @TempDir
+  Path directory;
+
+  private static ThreadPool.Result result(int rows, boolean truncated) throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "")) {
+      return new ThreadPool.Result(ColumnarResult.of(conn.createStatement().executeQuery(
+          "SELECT X, 'row ' || X FROM SYSTEM_RANGE(1, " + rows + ")")), null, truncated);
+    }
+  }
+
+  private ResultCacheConfiguration configuration(long maxWeightBytes, long spillThresholdBytes) {
+    ResultCacheConfiguration configuration = new ResultCacheConfiguration();
+    configuration.setMaxWeightBytes(maxWeightBytes);
+    configuration.setSpillDirectory(directory.toString());
+    configuration.setSpillThresholdBytes(spillThresholdBytes);
+    return configuration;
+  }
+
+  @Test
+  void writeAndRead() throws Exception {
+    ResultSpill spill = new ResultSpill(directory, 60, new MetricRegistry());
+    spill.start();
+    try {
+      ThreadPool.Result written = spill.write(1, result(100, true));
+      assertNotNull(written);
+      assertEquals(0, written.bytes);
+
+      // A new instance finds the segment, like a server after a restart
+      ThreadPool.Result read = new ResultSpill(directory, 60, new MetricRegistry()).read(1);
+      assertNotNull(read);
+      assertTrue(read.truncated);
+      assertEquals(100, read.rows.getRowCount());
+      assertEquals(100, read.rows.getLong(99, 0));
+      assertEquals("row 50", read.rows.getString(49, 1));
+
+      assertNull(spill.read(2));
+    } finally {
+      spill.stop();
+    }
+  }
+
+  @Test
+  void purgeOldSegments() throws Exception {
+    ResultSpill spill = new ResultSpill(directory, 60, new MetricRegistry());
+    spill.write(1, result(10, false));
+    spill.write(2, result(10, false));
+    Files.setLastModifiedTime(directory.resolve("1.result"),
+        FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+
+    spill.purge();
+    assertNull(spill.read(1));
+    assertNotNull(spill.read(2));
+  }
+
+  @Test
+  void spillLargeResult() throws Exception {
+    ResultSpill spill = new ResultSpill(directory, 60, new MetricRegistry());
+    ResultCache cache = new ResultCache(configuration(64 * 1024 * 1024, 1024), spill, new MetricRegistry());
+    CompletableFuture<ThreadPool.Result> large = new CompletableFuture<>();
+    cache.put(1, large);
+    large.complete(result(1000, false));
+    cache.put(2, CompletableFuture.completedFuture(result(1, false)));
+
+    assertTrue(Files.exists(directory.resolve("1.result")));
+    assertFalse(Files.exists(directory.resolve("2.result")));
+    ThreadPool.Result result = cache.getIfPresent(1).get();
+    assertEquals(0, result.bytes);
+    assertEquals(1000, result.rows.getRowCount());
+  }
+
+  @Test
+  void spillOnEviction() throws Exception {
+    ResultSpill spill = new ResultSpill(directory, 60, new MetricRegistry());
+    ThreadPool.Result result = result(1000, false);
+    ResultCache cache = new ResultCache(configuration(result.bytes / 2, Long.MAX_VALUE), spill,
+        new MetricRegistry());
+    CompletableFuture<ThreadPool.Result> future = new CompletableFuture<>();
+    cache.put(1, future);
+    future.complete(result);
+
+    assertTrue(Files.exists(directory.resolve("1.result")));
+    ThreadPool.Result read = cache.getIfPresent(1).get();
+    assertEquals(1000, read.rows.getRowCount());
+    assertEquals("row 1000", read.rows.getString(999, 1));
+  }
+
+  @Test
+  void spillOnExpiry() throws Exception {
+    ResultSpill spill = new ResultSpill(directory, 86400, new MetricRegistry());
+    ResultCacheConfiguration configuration = configuration(64 * 1024 * 1024, Long.MAX_VALUE);
+    configuration.setExpireAfterAccessSeconds(900);
+    configuration.setExpireAfterWriteSeconds(3600);
+    AtomicLong nanos = new AtomicLong();
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    };
+    ResultCache cache = new ResultCache(configuration, spill, new MetricRegistry(), ticker);
+    cache.put(1, CompletableFuture.completedFuture(result(1000, false)));
+    assertFalse(Files.exists(directory.resolve("1.result")));
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(901));
+    ThreadPool.Result read = cache.getIfPresent(1).get();
+    assertTrue(Files.exists(directory.resolve("1.result")));
+    assertEquals(0, read.bytes);
+    assertEquals("row 1000", read.rows.getString(999, 1));
+  }
+}
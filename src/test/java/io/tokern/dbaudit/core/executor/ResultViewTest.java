@@ -0,0 +1,90 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultViewTest {
+  private static ColumnarResult rows;
+
+  @BeforeAll
+  static void setUp() throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE PEOPLE(ID INT, NAME VARCHAR(20), CITY VARCHAR(20), SCORE DOUBLE, "
+          + "BALANCE DECIMAL(10, 2))");
+      statement.execute("INSERT INTO PEOPLE VALUES(1, 'Ann', 'Paris', 7.5, 100.00), (2, 'Bob', 'Berlin', 9.0, "
+          + "-5.50), (3, 'Cid', 'Paris', NULL, 20.25), (4, 'Dee', NULL, 3.0, 20.25), (5, 'Eve', 'Austin', 9.0, "
+          + "0)");
+      rows = ColumnarResult.of(statement.executeQuery("SELECT * FROM PEOPLE ORDER BY ID"));
+    }
+  }
+
+  private static int[] ids(ResultView view) {
+    int[] ids = new int[view.getRowCount()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = (int) rows.getLong(view.row(i), 0);
+    }
+    return ids;
+  }
+
+  private static ResultView filter(String... filters) {
+    return ResultView.of(rows, Arrays.asList(filters), null, null, null);
+  }
+
+  @Test
+  void filters() {
+    assertArrayEquals(new int[]{1, 3}, ids(filter("CITY:eq:Paris")));
+    assertArrayEquals(new int[]{2, 5}, ids(filter("CITY:ne:Paris")));
+    assertArrayEquals(new int[]{4}, ids(filter("CITY:isnull")));
+    assertArrayEquals(new int[]{2, 5}, ids(filter("SCORE:ge:9")));
+    assertArrayEquals(new int[]{3, 4}, ids(filter("BALANCE:eq:20.25")));
+    assertArrayEquals(new int[]{4, 5}, ids(filter("name:contains:E", "ID:ge:4")));
+    assertArrayEquals(new int[]{1, 2, 3}, ids(filter("NAME:lt:Cz")));
+  }
+
+  @Test
+  void sortAndTop() {
+    List<String> none = Collections.emptyList();
+    assertArrayEquals(new int[]{4, 5, 2, 3, 1}, ids(ResultView.of(rows, none, "CITY,-ID", null, null)));
+    assertArrayEquals(new int[]{5, 2, 1, 4, 3}, ids(ResultView.of(rows, none, "-SCORE,-ID", null, null)));
+    assertArrayEquals(new int[]{2, 5}, ids(ResultView.of(rows, none, "BALANCE", 2, null)));
+    assertArrayEquals(new int[]{1, 2}, ids(ResultView.of(rows, none, null, 2, null)));
+    assertArrayEquals(new int[]{1, 3}, ids(ResultView.of(rows, Collections.singletonList("CITY:eq:Paris"),
+        "-BALANCE", 5, null)));
+  }
+
+  @Test
+  void projection() throws Exception {
+    ResultView view = ResultView.of(rows, Collections.emptyList(), "-ID", 2, "NAME,ID");
+    assertEquals(2, view.getColumnCount());
+
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new RowSetModule());
+    ThreadPool.Result result = new ThreadPool.Result(rows, null, false);
+    JsonNode queryResult = mapper.valueToTree(new ResultPage(1, result, view, 0, 10)).get("queryResult");
+    assertEquals("[\"NAME\",\"ID\"]", queryResult.get("fields").toString());
+    assertEquals("[{\"NAME\":\"Eve\",\"ID\":5},{\"NAME\":\"Dee\",\"ID\":4}]", queryResult.get("rows").toString());
+    assertEquals(2, queryResult.get("rowCount").asInt());
+  }
+
+  @Test
+  void invalidOperators() {
+    assertThrows(IllegalArgumentException.class, () -> filter("AGE:eq:1"));
+    assertThrows(IllegalArgumentException.class, () -> filter("ID:like:1"));
+    assertThrows(IllegalArgumentException.class, () -> filter("ID:eq:one"));
+    assertThrows(IllegalArgumentException.class, () -> filter("ID:eq"));
+    assertThrows(IllegalArgumentException.class, () -> ResultView.of(rows, null, "AGE", null, null));
+  }
+}
@@ -0,0 +1,107 @@
+package io.tokern.dbaudit.core.executor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Rows per second written by {@link RowSetSerializer} for a wide table with a mix of column types, in JSON and in
+ * the Smile and CBOR binary encodings. The rows are cached in memory so that only serialization is measured. The
+ * size of the output of each encoding is printed in the setup. Run with
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) \
+ *     io.tokern.dbaudit.core.executor.RowSetSerializerBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowSetSerializerBenchmark {
+  private static final int ROWS = 10000;
+
+  @Param({"json", "smile", "cbor"})
+  public String encoding;
+
+  private final RowSetSerializer serializer = new RowSetSerializer();
+  private ObjectMapper mapper;
+  private CachedRowSet rows;
+
+  private static final OutputStream NULL_OUTPUT = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  @Setup
+  public void setUp() throws IOException, SQLException {
+    JsonFactory factory = "smile".equals(encoding) ? new SmileFactory()
+        : "cbor".equals(encoding) ? new CBORFactory() : new JsonFactory();
+    mapper = new ObjectMapper(factory);
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE WIDE(ID INT, SMALL SMALLINT, BIG BIGINT, PRICE DECIMAL(12, 2), "
+          + "RATIO DOUBLE, NAME VARCHAR(40), NOTE VARCHAR(200), ACTIVE BOOLEAN, DAY DATE, CREATED TIMESTAMP, "
+          + "DATA VARBINARY(16), CODE CHAR(8), AT_TIME TIME)");
+      statement.execute("INSERT INTO WIDE SELECT X, MOD(X, 100), X * 1000000007, X / 7.0, X / 3.0, "
+          + "'name ' || X, CASEWHEN(MOD(X, 5) = 0, NULL, REPEAT('note ', MOD(X, 20))), MOD(X, 2) = 0, "
+          + "DATEADD('DAY', MOD(X, 365), DATE '2019-01-01'), "
+          + "DATEADD('SECOND', X, TIMESTAMP '2019-01-01 00:00:00'), X'00112233445566778899AABBCCDDEEFF', "
+          + "'C' || MOD(X, 1000), TIME '12:00:00' FROM SYSTEM_RANGE(1, " + ROWS + ")");
+      rows = RowSetProvider.newFactory().createCachedRowSet();
+      rows.populate(statement.executeQuery("SELECT * FROM WIDE"));
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    write(output);
+    System.out.println(String.format("%s: %d bytes", encoding, output.size()));
+  }
+
+  private void write(OutputStream output) throws IOException, SQLException {
+    rows.beforeFirst();
+    try (JsonGenerator jgen = mapper.getFactory().createGenerator(output)) {
+      serializer.serialize(rows, jgen, mapper.getSerializerProviderInstance());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void serialize() throws IOException, SQLException {
+    write(NULL_OUTPUT);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(RowSetSerializerBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -1,16 +1,23 @@
 package io.tokern.dbaudit.core.executor;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.junit.jupiter.api.Test;
 
 import javax.sql.rowset.CachedRowSet;
 import javax.sql.rowset.RowSetProvider;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.sql.*;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
 class RowSetSerializerTest {
   @Test
@@ -42,4 +49,104 @@ class RowSetSerializerTest {
             "\"fields\":[\"1\"],\"rows\":[{\"1\":1}]}}}",
         serialized);
   }
-}
\ No newline at end of file
+
+  @Test
+  void compactRowsTest() throws SQLException, IOException {
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement()) {
+      ResultSet resultSet = statement.executeQuery("SELECT X AS ID, 'row' || X AS NAME FROM SYSTEM_RANGE(1, 2)");
+
+      ObjectMapper objectMapper = new ObjectMapper();
+      StringWriter writer = new StringWriter();
+      try (JsonGenerator jgen = objectMapper.getFactory().createGenerator(writer)) {
+        new RowSetSerializer(true).serialize(resultSet, jgen, objectMapper.getSerializerProviderInstance());
+      }
+      JsonNode queryResult = objectMapper.readTree(writer.toString()).get("queryResult");
+      assertEquals("[\"X\",\"NAME\"]", queryResult.get("fields").toString());
+      assertEquals("[[1,\"row1\"],[2,\"row2\"]]", queryResult.get("rows").toString());
+    }
+  }
+
+  @Test
+  void postgresTypesTest() throws SQLException, IOException {
+    ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+    when(rsmd.getColumnCount()).thenReturn(4);
+    String[] types = {"jsonb", "json", "uuid", "inet"};
+    for (int i = 0; i < types.length; i++) {
+      when(rsmd.getColumnLabel(i + 1)).thenReturn("c" + i);
+      when(rsmd.getColumnName(i + 1)).thenReturn("c" + i);
+      when(rsmd.getColumnTypeName(i + 1)).thenReturn(types[i]);
+      when(rsmd.getColumnType(i + 1)).thenReturn(Types.OTHER);
+    }
+    UUID uuid = UUID.fromString("0f8fad5b-d9cb-469f-a165-70867728950e");
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getMetaData()).thenReturn(rsmd);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getString(1)).thenReturn("{\"a\": [1, 2]}", (String) null);
+    when(resultSet.getString(2)).thenReturn("[true, null]", "3");
+    when(resultSet.getObject(3)).thenReturn(uuid, (Object) null);
+    when(resultSet.getString(4)).thenReturn("192.168.0.1/32", "::1/128");
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator jgen = objectMapper.getFactory().createGenerator(writer)) {
+      new RowSetSerializer(true).serialize(resultSet, jgen, objectMapper.getSerializerProviderInstance());
+    }
+    JsonNode rows = objectMapper.readTree(writer.toString()).get("queryResult").get("rows");
+    assertEquals("[[{\"a\":[1,2]},[true,null],\"0f8fad5b-d9cb-469f-a165-70867728950e\",\"192.168.0.1/32\"],"
+        + "[null,3,null,\"::1/128\"]]", rows.toString());
+  }
+
+  @Test
+  void nclobTest() throws SQLException, IOException {
+    ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+    when(rsmd.getColumnCount()).thenReturn(1);
+    when(rsmd.getColumnLabel(1)).thenReturn("NOTE");
+    when(rsmd.getColumnName(1)).thenReturn("NOTE");
+    when(rsmd.getColumnTypeName(1)).thenReturn("NCLOB");
+    when(rsmd.getColumnType(1)).thenReturn(Types.NCLOB);
+    NClob nclob = mock(NClob.class);
+    when(nclob.length()).thenReturn(11L);
+    when(nclob.getSubString(1, 5)).thenReturn("h\u00e9llo");
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getMetaData()).thenReturn(rsmd);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getClob(1)).thenReturn(nclob, (Clob) null);
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator jgen = objectMapper.getFactory().createGenerator(writer)) {
+      new RowSetSerializer(true, 5).serialize(resultSet, jgen, objectMapper.getSerializerProviderInstance());
+    }
+    JsonNode rows = objectMapper.readTree(writer.toString()).get("queryResult").get("rows");
+    assertEquals("[[\"h\u00e9llo\"],[null]]", rows.toString());
+    verify(nclob).free();
+  }
+
+  @Test
+  void binaryFormatsTest() throws SQLException, IOException {
+    CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+    try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "", "");
+         Statement statement = conn.createStatement()) {
+      rowSet.populate(statement.executeQuery("SELECT X AS ID, 'row' || X AS NAME, X / 4.0E0 AS RATIO, "
+          + "MOD(X, 2) = 0 AS EVEN, CASEWHEN(X = 2, NULL, X) AS MAYBE FROM SYSTEM_RANGE(1, 3)"));
+    }
+    ObjectMapper json = new ObjectMapper().registerModule(new RowSetModule());
+    JsonNode expected = json.readTree(json.writeValueAsBytes(rowSet));
+
+    for (ObjectMapper mapper : new ObjectMapper[]{new ObjectMapper(new SmileFactory()),
+        new ObjectMapper(new CBORFactory())}) {
+      mapper.registerModule(new RowSetModule());
+      rowSet.beforeFirst();
+      byte[] encoded = mapper.writeValueAsBytes(rowSet);
+      assertEquals(expected.toString(), mapper.readTree(encoded).toString());
+
+      // JSON documents from the database are copied into the binary encoding
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      try (JsonGenerator jgen = mapper.getFactory().createGenerator(output)) {
+        JsonValues.writeJson("{\"a\": [1, \"b\", null]}", jgen);
+      }
+      assertEquals("{\"a\":[1,\"b\",null]}", mapper.readTree(output.toByteArray()).toString());
+    }
+  }
+}
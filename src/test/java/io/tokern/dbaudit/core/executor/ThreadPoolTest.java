@@ -10,9 +10,20 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -33,6 +44,8 @@ class ThreadPoolTest {
         Database.encryptPassword("", encryptionSecret), Database.Driver.H2, 1);
     connections = new Connections(checkRegistry, metricRegistry, encryptionSecret);
     connections.addDatabase(database);
+    connections.addDatabase(new Database(2, "ThreadPoolTestOther", "jdbc:h2:mem:otherDb;DB_CLOSE_DELAY=-1", "",
+        Database.encryptPassword("", encryptionSecret), Database.Driver.H2, 1));
     System.setProperty("p6spy.config.appender", "com.p6spy.engine.spy.appender.Slf4JLogger");
 
     threadPool = new ThreadPool();
@@ -42,17 +55,411 @@ class ThreadPoolTest {
   void runWork() throws SQLException, InterruptedException, ExecutionException {
     Query query = new Query(1, "SELECT 1", 1, 1, 1, Query.State.WAITING);
     QueryDAO queryDAO = mock(QueryDAO.class);
-    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L).getConnection());
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L));
 
     Future<ThreadPool.Result> future = threadPool.getService().submit(work);
 
     ThreadPool.Result result = future.get();
     assertTrue(result.isSuccess());
 
-    assertTrue(result.resultSet.next());
-    assertEquals(1, result.resultSet.getInt(1));
+    assertEquals(1, result.rows.getRowCount());
+    assertEquals(1, result.rows.getLong(0, 0));
 
     verify(queryDAO, times(1)).updateState(1, 1, Query.State.RUNNING);
     verify(queryDAO, times(1)).updateState(1, 1, Query.State.SUCCESS);
   }
-}
\ No newline at end of file
+
+  @Test
+  void runtimeExceptionFailsQuery() throws Exception {
+    Query query = new Query(5, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    Statement statement = mock(Statement.class);
+    when(statement.executeQuery("SELECT 1")).thenThrow(new IllegalStateException("cannot encode"));
+    Connection connection = mock(Connection.class);
+    when(connection.createStatement()).thenReturn(statement);
+    DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(connection);
+
+    ThreadPool.Result result = threadPool.getService().submit(
+        new ThreadPool.Work(query, queryDAO, dataSource)).get();
+    assertFalse(result.isSuccess());
+    assertEquals("cannot encode", result.throwable.getMessage());
+    verify(queryDAO, times(1)).updateState(5, 1, Query.State.ERROR);
+    verify(connection).close();
+  }
+
+  @Test
+  void truncateRows() throws SQLException, InterruptedException, ExecutionException {
+    Query query = new Query(2, "SELECT X FROM SYSTEM_RANGE(1, 100)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L),
+        new QueryLimits(10, Long.MAX_VALUE), metricRegistry);
+
+    ThreadPool.Result result = threadPool.getService().submit(work).get();
+    assertTrue(result.isSuccess());
+    assertTrue(result.truncated);
+    assertEquals(10, result.rows.getRowCount());
+  }
+
+  @Test
+  void truncateBytes() throws SQLException, InterruptedException, ExecutionException {
+    Query query = new Query(3, "SELECT REPEAT('x', 1000) FROM SYSTEM_RANGE(1, 100)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L),
+        new QueryLimits(Integer.MAX_VALUE, 10_000), metricRegistry);
+
+    ThreadPool.Result result = threadPool.getService().submit(work).get();
+    assertTrue(result.isSuccess());
+    assertTrue(result.truncated);
+    assertTrue(result.rows.getRowCount() < 100);
+    verify(queryDAO, times(1)).updateState(3, 1, Query.State.SUCCESS);
+  }
+
+  @Test
+  void notTruncated() throws SQLException, InterruptedException, ExecutionException {
+    Query query = new Query(4, "SELECT X FROM SYSTEM_RANGE(1, 10)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L),
+        new QueryLimits(10, Long.MAX_VALUE), metricRegistry);
+
+    ThreadPool.Result result = threadPool.getService().submit(work).get();
+    assertFalse(result.truncated);
+    assertEquals(10, result.rows.getRowCount());
+  }
+
+  @Test
+  void cancelRunning() throws SQLException, InterruptedException, ExecutionException {
+    Query query = new Query(5, "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) A, SYSTEM_RANGE(1, 100000) B",
+        1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L));
+
+    CompletableFuture<ThreadPool.Result> future = threadPool.submit(work);
+    verify(queryDAO, timeout(5000)).updateState(5, 1, Query.State.RUNNING);
+    Thread.sleep(200);
+
+    assertTrue(threadPool.cancel(5));
+    ThreadPool.Result result = future.get();
+    assertFalse(result.isSuccess());
+
+    verify(queryDAO, times(1)).updateState(5, 1, Query.State.CANCELLED);
+    verify(queryDAO, never()).updateState(5, 1, Query.State.ERROR);
+    assertFalse(threadPool.cancel(5));
+  }
+
+  @Test
+  void completesAfterStateIsRecorded() throws SQLException, InterruptedException, ExecutionException {
+    Query query = new Query(8, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L));
+
+    CompletableFuture<Boolean> recorded = threadPool.submit(work).thenApply(result -> {
+      verify(queryDAO, times(1)).updateState(8, 1, Query.State.SUCCESS);
+      return result.isSuccess();
+    });
+    assertTrue(recorded.get());
+    assertFalse(threadPool.cancel(8));
+  }
+
+  @Test
+  void listenerEvents() throws Exception {
+    Query query = new Query(9, "SELECT X FROM SYSTEM_RANGE(1, 1200)", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L));
+
+    List<Query.State> states = new ArrayList<>();
+    List<Long> progress = new ArrayList<>();
+    List<Map<String, Object>> rows = new ArrayList<>();
+    assertEquals(Query.State.WAITING, work.addListener(query.id, new ThreadPool.Work.Listener() {
+      @Override
+      public void onState(Query.State state) {
+        states.add(state);
+      }
+
+      @Override
+      public void onProgress(long rowCount, List<Map<String, Object>> batch) {
+        progress.add(rowCount);
+        rows.addAll(batch);
+      }
+
+      @Override
+      public boolean wantsRows() {
+        return true;
+      }
+    }));
+
+    assertTrue(work.call().isSuccess());
+    assertEquals(Arrays.asList(Query.State.RUNNING, Query.State.SUCCESS), states);
+    assertTrue(progress.size() >= 3);
+    assertEquals(1200L, (long) progress.get(progress.size() - 1));
+    assertEquals(1200, rows.size());
+    assertEquals(1L, rows.get(0).get("X"));
+  }
+
+  @Test
+  void rejectWhenQueueIsFull() throws Exception {
+    ExecutorConfiguration configuration = new ExecutorConfiguration();
+    configuration.setThreads(1);
+    configuration.setQueueSize(1);
+    MetricRegistry registry = new MetricRegistry();
+    ThreadPool boundedPool = new ThreadPool(configuration, registry);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+
+    // Fill the lane of the database with queries that wait for a connection, so that the next query has to wait
+    CountDownLatch slowDatabase = new CountDownLatch(1);
+    DataSource slowDataSource = mock(DataSource.class);
+    when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+      slowDatabase.await();
+      return connections.getDataSource(1L).getConnection();
+    });
+    List<CompletableFuture<ThreadPool.Result>> running = new ArrayList<>();
+    for (long id = 10; id > 10 - Connections.getMaxPoolSize(); id--) {
+      Query query = new Query(id, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+      running.add(boundedPool.submit(new ThreadPool.Work(query, queryDAO, slowDataSource)));
+      verify(queryDAO, timeout(5000)).updateState(id, 1, Query.State.RUNNING);
+    }
+
+    Query queued = new Query(11, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> second = boundedPool.submit(
+        new ThreadPool.Work(queued, queryDAO, connections.getDataSource(1L)));
+    assertEquals(1, registry.getGauges().get(MetricRegistry.name(ThreadPool.class, "queue", "depth")).getValue());
+
+    Query rejected = new Query(12, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    assertThrows(RejectedExecutionException.class, () -> boundedPool.submit(
+        new ThreadPool.Work(rejected, queryDAO, connections.getDataSource(1L))));
+    assertEquals(1, registry.meter(MetricRegistry.name(ThreadPool.class, "rejected")).getCount());
+    assertFalse(boundedPool.cancel(12));
+
+    for (long id = 10; id > 10 - Connections.getMaxPoolSize(); id--) {
+      assertTrue(boundedPool.cancel(id));
+    }
+    slowDatabase.countDown();
+    for (CompletableFuture<ThreadPool.Result> future : running) {
+      future.get();
+    }
+    assertTrue(second.get().isSuccess());
+    verify(queryDAO, never()).updateState(11, 1, Query.State.WAITING);
+    assertEquals(Connections.getMaxPoolSize() + 1,
+        registry.timer(MetricRegistry.name(ThreadPool.class, "wait")).getCount());
+    boundedPool.stop();
+  }
+
+  @Test
+  void moreSlowDatabasesThanThreads() throws Exception {
+    ExecutorConfiguration configuration = new ExecutorConfiguration();
+    configuration.setThreads(2);
+    ThreadPool lanePool = new ThreadPool(configuration, new MetricRegistry());
+    QueryDAO queryDAO = mock(QueryDAO.class);
+
+    CountDownLatch slowDatabases = new CountDownLatch(1);
+    DataSource slowDataSource = mock(DataSource.class);
+    when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+      slowDatabases.await();
+      return connections.getDataSource(1L).getConnection();
+    });
+
+    // Every lane of four slow databases is full, which is more queries than the configured threads
+    List<CompletableFuture<ThreadPool.Result>> slow = new ArrayList<>();
+    long id = 40;
+    for (long dbId = 10; dbId < 14; dbId++) {
+      for (int i = 0; i < Connections.getMaxPoolSize(); i++, id++) {
+        Query query = new Query(id, "SELECT 1", 1, dbId, 1, Query.State.WAITING);
+        slow.add(lanePool.submit(new ThreadPool.Work(query, queryDAO, slowDataSource)));
+        verify(queryDAO, timeout(5000)).updateState(id, 1, Query.State.RUNNING);
+      }
+    }
+
+    // A healthy database still gets a thread
+    Query other = new Query(60, "SELECT 1", 1, 2, 1, Query.State.WAITING);
+    assertTrue(lanePool.submit(new ThreadPool.Work(other, queryDAO, connections.getDataSource(2L)))
+        .get(5, TimeUnit.SECONDS).isSuccess());
+
+    slowDatabases.countDown();
+    for (CompletableFuture<ThreadPool.Result> future : slow) {
+      assertTrue(future.get().isSuccess());
+    }
+    lanePool.stop();
+  }
+
+  @Test
+  void queuePerDatabase() throws Exception {
+    ExecutorConfiguration configuration = new ExecutorConfiguration();
+    configuration.setThreads(Connections.getMaxPoolSize() + 1);
+    ThreadPool lanePool = new ThreadPool(configuration, new MetricRegistry());
+    QueryDAO queryDAO = mock(QueryDAO.class);
+
+    // A database that is slow to hand out connections
+    CountDownLatch slowDatabase = new CountDownLatch(1);
+    DataSource slowDataSource = mock(DataSource.class);
+    when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+      slowDatabase.await();
+      return connections.getDataSource(1L).getConnection();
+    });
+
+    List<CompletableFuture<ThreadPool.Result>> slow = new ArrayList<>();
+    for (long id = 20; id < 20 + Connections.getMaxPoolSize(); id++) {
+      Query query = new Query(id, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+      slow.add(lanePool.submit(new ThreadPool.Work(query, queryDAO, slowDataSource)));
+      verify(queryDAO, timeout(5000)).updateState(id, 1, Query.State.RUNNING);
+    }
+
+    // The lane of database 1 is full, so this one waits without a thread or a connection
+    Query waiting = new Query(30, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> queued = lanePool.submit(
+        new ThreadPool.Work(waiting, queryDAO, slowDataSource));
+
+    // Database 2 still gets the free thread
+    Query other = new Query(31, "SELECT 1", 1, 2, 1, Query.State.WAITING);
+    assertTrue(lanePool.submit(new ThreadPool.Work(other, queryDAO, connections.getDataSource(2L)))
+        .get().isSuccess());
+    verify(queryDAO, never()).updateState(30, 1, Query.State.RUNNING);
+    assertFalse(queued.isDone());
+
+    slowDatabase.countDown();
+    for (CompletableFuture<ThreadPool.Result> future : slow) {
+      assertTrue(future.get().isSuccess());
+    }
+    assertTrue(queued.get().isSuccess());
+    lanePool.stop();
+  }
+
+
+  @Test
+  void joinRunningQuery() throws Exception {
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    CountDownLatch slowDatabase = new CountDownLatch(1);
+    DataSource slowDataSource = mock(DataSource.class);
+    when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+      slowDatabase.await();
+      return connections.getDataSource(1L).getConnection();
+    });
+
+    String key = QueryKey.of(1, Database.Driver.H2, "SELECT X FROM SYSTEM_RANGE(1, 3)", QueryLimits.UNLIMITED);
+    Query leader = new Query(40, "SELECT X FROM SYSTEM_RANGE(1, 3)", 1, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> leaderFuture = threadPool.submit(
+        new ThreadPool.Work(leader, queryDAO, slowDataSource), null, key);
+    verify(queryDAO, timeout(5000)).updateState(40, 1, Query.State.RUNNING);
+
+    Query follower = new Query(41, "SELECT X FROM SYSTEM_RANGE(1, 3) ;", 2, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> followerFuture = threadPool.join(
+        QueryKey.of(1, Database.Driver.H2, follower.sql, QueryLimits.UNLIMITED), follower, queryDAO);
+    assertNotNull(followerFuture);
+    verify(queryDAO, times(1)).updateSharedWith(41, 1, 40);
+    verify(queryDAO, times(1)).updateState(41, 1, Query.State.RUNNING);
+
+    Query detached = new Query(42, follower.sql, 3, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> detachedFuture = threadPool.join(key, detached, queryDAO);
+    assertTrue(threadPool.cancel(42));
+    assertTrue(detachedFuture.isCancelled());
+    verify(queryDAO, times(1)).updateState(42, 1, Query.State.CANCELLED);
+
+    slowDatabase.countDown();
+    ThreadPool.Result leaderResult = leaderFuture.get();
+    ThreadPool.Result followerResult = followerFuture.get();
+    assertTrue(followerResult.isSuccess());
+    assertSame(leaderResult.rows, followerResult.rows);
+    assertEquals(3, followerResult.rows.getRowCount());
+    verify(queryDAO, times(1)).updateState(41, 1, Query.State.SUCCESS);
+    verify(queryDAO, never()).updateState(42, 1, Query.State.SUCCESS);
+
+    // Nothing to join once the shared run has finished
+    assertNull(threadPool.join(key, new Query(43, follower.sql, 2, 1, 1, Query.State.WAITING), queryDAO));
+  }
+
+  @Test
+  void cancelLeaderKeepsFollowerRunning() throws Exception {
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    CountDownLatch slowDatabase = new CountDownLatch(1);
+    DataSource slowDataSource = mock(DataSource.class);
+    when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+      slowDatabase.await();
+      return connections.getDataSource(1L).getConnection();
+    });
+
+    String sql = "SELECT X FROM SYSTEM_RANGE(1, 5)";
+    String key = QueryKey.of(1, Database.Driver.H2, sql, QueryLimits.UNLIMITED);
+    Query leader = new Query(50, sql, 1, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> leaderFuture = threadPool.submit(
+        new ThreadPool.Work(leader, queryDAO, slowDataSource), null, key);
+    verify(queryDAO, timeout(5000)).updateState(50, 1, Query.State.RUNNING);
+    List<Query.State> leaderEvents = new ArrayList<>();
+    threadPool.getWork(50).addListener(50, leaderEvents::add);
+
+    Query follower = new Query(51, sql, 2, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> followerFuture = threadPool.join(key, follower, queryDAO);
+    assertNotNull(followerFuture);
+
+    assertTrue(threadPool.cancel(50));
+    assertTrue(leaderFuture.isCancelled());
+    assertEquals(Arrays.asList(Query.State.CANCELLED), leaderEvents);
+    verify(queryDAO, times(1)).updateState(50, 1, Query.State.CANCELLED);
+    verify(queryDAO, never()).updateState(51, 1, Query.State.CANCELLED);
+    // Only once
+    assertFalse(threadPool.cancel(50));
+
+    slowDatabase.countDown();
+    ThreadPool.Result followerResult = followerFuture.get();
+    assertTrue(followerResult.isSuccess());
+    assertEquals(5, followerResult.rows.getRowCount());
+    verify(queryDAO, times(1)).updateState(51, 1, Query.State.SUCCESS);
+    verify(queryDAO, never()).updateState(50, 1, Query.State.SUCCESS);
+    assertEquals(Arrays.asList(Query.State.CANCELLED), leaderEvents);
+  }
+
+  @Test
+  void cancelLastSubscriberCancelsRun() throws Exception {
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    String sql = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) A, SYSTEM_RANGE(1, 100000) B";
+    String key = QueryKey.of(1, Database.Driver.H2, sql, QueryLimits.UNLIMITED);
+    Query leader = new Query(52, sql, 1, 1, 1, Query.State.WAITING);
+    ThreadPool.Work work = new ThreadPool.Work(leader, queryDAO, connections.getDataSource(1L));
+    threadPool.submit(work, null, key);
+    verify(queryDAO, timeout(5000)).updateState(52, 1, Query.State.RUNNING);
+    Query follower = new Query(53, sql, 2, 1, 1, Query.State.WAITING);
+    CompletableFuture<ThreadPool.Result> followerFuture = threadPool.join(key, follower, queryDAO);
+
+    assertTrue(threadPool.cancel(52));
+    assertTrue(threadPool.cancel(53));
+    assertTrue(followerFuture.isCancelled());
+    verify(queryDAO, times(1)).updateState(53, 1, Query.State.CANCELLED);
+    // The statement was cancelled, so the run ends long before the cross join would
+    verify(queryDAO, timeout(5000).times(1)).updateState(52, 1, Query.State.CANCELLED);
+    assertNull(threadPool.join(key, new Query(54, sql, 3, 1, 1, Query.State.WAITING), queryDAO));
+  }
+
+  @Test
+  void timeoutByWatchdog() throws SQLException, InterruptedException, ExecutionException {
+    Query query = new Query(7, "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) A, SYSTEM_RANGE(1, 100000) B",
+        1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, connections.getDataSource(1L),
+        new QueryLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 1), new MetricRegistry());
+
+    CompletableFuture<ThreadPool.Result> future = threadPool.submit(work);
+    verify(queryDAO, timeout(5000)).updateState(7, 1, Query.State.RUNNING);
+    Thread.sleep(1500);
+    threadPool.checkDeadlines();
+
+    ThreadPool.Result result = future.get();
+    assertFalse(result.isSuccess());
+    verify(queryDAO, times(1)).updateState(7, 1, Query.State.ERROR);
+    verify(queryDAO, never()).updateState(7, 1, Query.State.CANCELLED);
+  }
+
+  @Test
+  void cancelBeforeStart() throws Exception {
+    Query query = new Query(6, "SELECT 1", 1, 1, 1, Query.State.WAITING);
+    QueryDAO queryDAO = mock(QueryDAO.class);
+    DataSource dataSource = mock(DataSource.class);
+    ThreadPool.Work work = new ThreadPool.Work(query, queryDAO, dataSource);
+
+    assertTrue(work.cancel());
+
+    ThreadPool.Result result = work.call();
+    assertFalse(result.isSuccess());
+    verify(dataSource, never()).getConnection();
+    verify(queryDAO, times(1)).updateState(6, 1, Query.State.CANCELLED);
+    verify(queryDAO, never()).updateState(6, 1, Query.State.RUNNING);
+  }
+
+}
@@ -122,4 +122,54 @@ public class DatabaseDAOTest {
     assertEquals("MYSQL", row.get("type"));
     assertEquals(1, row.get("org_id"));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void defaultLimits() {
+    Database database = databaseDAO.getByUrl("jdbc://localhost/bastion_1", 1);
+    assertNull(database.getMaxRows());
+    assertNull(database.getMaxResultBytes());
+    assertNull(database.getTimeoutSeconds());
+    assertFalse(database.isCoalesceQueries());
+    assertNull(database.getCacheTtlSeconds());
+  }
+
+  @Test
+  public void createWithLimits() {
+    Long id = databaseDAO.insert(new Database(0, "createWithLimitsTest", "jdbc://localhost/bastion_limits",
+        "user", "password", Database.Driver.POSTGRESQL, 2, 1000, 1048576L, 30, true, 600));
+
+    List<Map<String,Object>> rows = handle.select("select * from dbs where id=?", id)
+        .mapToMap().list();
+    Map<String, Object> row = rows.get(0);
+    assertEquals(1000, row.get("max_rows"));
+    assertEquals(1048576L, row.get("max_result_bytes"));
+    assertEquals(30, row.get("timeout_seconds"));
+    assertEquals(true, row.get("coalesce_queries"));
+    assertEquals(600, row.get("cache_ttl_seconds"));
+
+    Database database = databaseDAO.getById(id, 2);
+    assertEquals(Integer.valueOf(1000), database.getMaxRows());
+    assertEquals(Long.valueOf(1048576L), database.getMaxResultBytes());
+    assertEquals(Integer.valueOf(30), database.getTimeoutSeconds());
+    assertTrue(database.isCoalesceQueries());
+    assertEquals(Integer.valueOf(600), database.getCacheTtlSeconds());
+  }
+
+  @Test
+  public void updateLimits() {
+    Long id = databaseDAO.insert(new Database(0, "updateLimitsTest", "jdbc://localhost/bastion_update_limits",
+        "user", "password", Database.Driver.POSTGRESQL, 2, 1000, 1048576L, 30, true, 600));
+    Database database = databaseDAO.getById(id, 2);
+
+    databaseDAO.update(new Database(database.getId(), database.getName(), database.getJdbcUrl(),
+        database.getUserName(), database.getPassword(), database.getDriverType(), database.getOrgId(),
+        50, null, 10, false, null));
+
+    Database updated = databaseDAO.getById(id, 2);
+    assertEquals(Integer.valueOf(50), updated.getMaxRows());
+    assertNull(updated.getMaxResultBytes());
+    assertEquals(Integer.valueOf(10), updated.getTimeoutSeconds());
+    assertFalse(updated.isCoalesceQueries());
+    assertNull(updated.getCacheTtlSeconds());
+  }
+}
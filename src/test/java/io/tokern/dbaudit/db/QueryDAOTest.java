@@ -102,4 +102,23 @@ class QueryDAOTest {
     assertEquals(1, row.get("org_id"));
     assertEquals("WAITING", row.get("state"));
   }
+
+  @Test
+  void updateSharedWith() {
+    assertNull(queryDAO.getById(1, 1).sharedWith);
+
+    Long leader = queryDAO.insert(new Query("select 5", 2, 2, 2, "RUNNING"));
+    Long follower = queryDAO.insert(new Query("select 5", 2, 2, 2, "WAITING"));
+    queryDAO.updateSharedWith(follower, 2, leader);
+
+    assertEquals(leader, queryDAO.getById(follower, 2).sharedWith);
+    assertNull(queryDAO.getById(leader, 2).sharedWith);
+    List<Map<String,Object>> rows = handle.select("select shared_with from queries where id=?", follower)
+        .mapToMap().list();
+    assertEquals(leader.intValue(), rows.get(0).get("shared_with"));
+
+    // Only within the organization of the query
+    queryDAO.updateSharedWith(leader, 1, follower);
+    assertNull(queryDAO.getById(leader, 2).sharedWith);
+  }
 }